@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.python.util.PythonInterpreter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating an interpreter which imported {@code wstest}, which a run waits for if no warm one is in the pool. The
+ * first interpreter of every fork also loads Jython itself, use {@code -wi 0} to include it.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(3)
+public class InterpreterStartupBenchmark {
+
+    @Benchmark
+    public PythonInterpreter newInterpreter() {
+        PythonInterpreter interp = InterpreterPool.newInterpreter();
+        interp.cleanup();
+        return interp;
+    }
+}
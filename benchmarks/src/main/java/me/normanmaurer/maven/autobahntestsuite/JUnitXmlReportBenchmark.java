@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing the JUnit xml report of a run, including the parsing of the reports of all failed cases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class JUnitXmlReportBenchmark {
+
+    @Param({ "500", "2000", "10000" })
+    public int cases;
+
+    @Param({ "0", "10", "100" })
+    public int failedPercent;
+
+    private ReportFixture fixture;
+    private File report;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = ReportFixture.create(cases, failedPercent, 20);
+        report = new File(fixture.outdir(), "TEST-benchmark.xml");
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.delete();
+    }
+
+    @Benchmark
+    public long writeReport() throws IOException, XMLStreamException, ParseException {
+        JUnitXmlReportWriter.write(report, "benchmark", fixture.results(), false, 65536);
+        return report.length();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the report of a single failed case, which is done for every failure while the JUnit xml is written.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ParseReportBenchmark {
+
+    /**
+     * The number of frames in the wire log of the report.
+     */
+    @Param({ "10", "1000" })
+    public int frames;
+
+    @Param({ "0", "65536" })
+    public int maxReportLength;
+
+    private ReportFixture fixture;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = ReportFixture.create(1, 100, frames);
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.delete();
+    }
+
+    @Benchmark
+    public FuzzingResultParser.CaseReport parseReport() throws IOException, ParseException {
+        return FuzzingResultParser.parseReport(fixture.reportFile(), maxReportLength);
+    }
+
+    @Benchmark
+    public CaseTraffic parseTraffic() throws IOException, ParseException {
+        return FuzzingResultParser.parseTraffic(fixture.reportFile());
+    }
+}
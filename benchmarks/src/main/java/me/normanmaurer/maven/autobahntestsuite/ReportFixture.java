@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A synthetic report directory as written by wstest: an {@code index.json} and one report per case, of which
+ * {@code failedPercent} percent failed. The reports carry a wire log of {@code frames} frames, which makes up most of
+ * the size of a real report.
+ */
+final class ReportFixture {
+
+    static final String AGENT = AutobahnTestSuite.DEFAULT_AGENT;
+
+    private final File outdir;
+    private final List<FuzzingCaseResult> results;
+
+    private ReportFixture(File outdir, List<FuzzingCaseResult> results) {
+        this.outdir = outdir;
+        this.results = results;
+    }
+
+    static ReportFixture create(int cases, int failedPercent, int frames) throws IOException {
+        File outdir = File.createTempFile("autobahntestsuite-benchmark", "");
+        if (!outdir.delete() || !outdir.mkdir()) {
+            throw new IOException("Unable to create " + outdir);
+        }
+        // the same fixture for every fork, so the results are comparable
+        Random random = new Random(cases);
+        List<FuzzingCaseResult> results = new ArrayList<FuzzingCaseResult>(cases);
+        JSONObject agentIndex = new JSONObject();
+        for (int i = 0; i < cases; i++) {
+            // enough distinct ids for any number of cases
+            String caseId = (i / 1000 + 1) + "." + (i / 100 % 10 + 1) + "." + (i % 100 + 1);
+            String reportFile = AGENT + "_case_" + caseId.replace('.', '_') + ".json";
+            String behavior = failedPercent > 0 && i % (100 / failedPercent) == 0 ? "FAILED" : "OK";
+            long duration = random.nextInt(100);
+
+            JSONObject entry = new JSONObject();
+            entry.put("behavior", behavior);
+            entry.put("behaviorClose", "OK");
+            entry.put("duration", duration);
+            entry.put("remoteCloseCode", 1000L);
+            entry.put("reportfile", reportFile);
+            agentIndex.put(caseId, entry);
+
+            write(new File(outdir, reportFile), report(caseId, behavior, duration, frames, random));
+            results.add(new FuzzingCaseResult(AGENT, caseId, FuzzingCaseResult.Behavior.parse(behavior),
+                    FuzzingCaseResult.Behavior.OK, duration, 1000L,
+                    outdir.getPath() + File.separator + reportFile));
+        }
+        JSONObject index = new JSONObject();
+        index.put(AGENT, agentIndex);
+        write(new File(outdir, "index.json"), index);
+        return new ReportFixture(outdir, Collections.unmodifiableList(results));
+    }
+
+    private static JSONObject report(String caseId, String behavior, long duration, int frames, Random random) {
+        JSONObject report = new JSONObject();
+        report.put("agent", AGENT);
+        report.put("behavior", behavior);
+        report.put("behaviorClose", "OK");
+        report.put("case", caseId);
+        report.put("description", "Send text message with payload of length " + frames + " and check the echo.");
+        report.put("expectation", "Receive echo'ed text message (with payload as sent).");
+        report.put("result", "FAILED".equals(behavior) ? "Did not receive the expected echo." : "Actual events " +
+                "match at least one expected.");
+        report.put("resultClose", "Connection was properly closed");
+        report.put("duration", duration);
+        report.put("remoteCloseCode", 1000L);
+
+        JSONArray expected = new JSONArray();
+        JSONArray received = new JSONArray();
+        JSONArray wirelog = new JSONArray();
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < frames; i++) {
+            hex.setLength(0);
+            for (int j = 0; j < 64; j++) {
+                hex.append(Integer.toHexString(16 + random.nextInt(240)));
+            }
+            JSONArray message = new JSONArray();
+            message.add("message");
+            message.add(hex.toString());
+            message.add(Boolean.FALSE);
+            expected.add(message);
+            received.add(message);
+
+            JSONArray octets = new JSONArray();
+            octets.add((long) hex.length() / 2);
+            octets.add(hex.toString());
+            JSONArray frame = new JSONArray();
+            frame.add(i % 2 == 0 ? "TO" : "RO");
+            frame.add(octets);
+            frame.add(Boolean.FALSE);
+            wirelog.add(frame);
+        }
+        JSONObject ok = new JSONObject();
+        ok.put("OK", expected);
+        report.put("expected", ok);
+        report.put("received", received);
+        report.put("wirelog", wirelog);
+
+        JSONObject traffic = new JSONObject();
+        long octets = frames * 64L;
+        traffic.put("incomingOctetsWebSocketLevel", octets + frames * 2L);
+        traffic.put("incomingOctetsAppLevel", octets);
+        traffic.put("outgoingOctetsWebSocketLevel", octets + frames * 6L);
+        traffic.put("outgoingOctetsAppLevel", octets);
+        report.put("trafficStats", traffic);
+        return report;
+    }
+
+    private static void write(File file, JSONObject json) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            json.writeJSONString(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    String outdir() {
+        return outdir.getPath();
+    }
+
+    /**
+     * The results as {@code index.json} describes them.
+     */
+    List<FuzzingCaseResult> results() {
+        return results;
+    }
+
+    /**
+     * The report of the first failed case, or of the first case if none failed.
+     */
+    String reportFile() {
+        for (FuzzingCaseResult result: results) {
+            if (result.behavior() != FuzzingCaseResult.Behavior.OK) {
+                return result.reportFile();
+            }
+        }
+        return results.get(0).reportFile();
+    }
+
+    void delete() {
+        File[] files = outdir.listFiles();
+        if (files != null) {
+            for (File file: files) {
+                file.delete();
+            }
+        }
+        outdir.delete();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+
+/**
+ * Base of the goals which write reports. Executions with an own id write their case reports to a sub-directory and
+ * append the id to the names of their other reports, so several executions of one module do not overwrite the reports
+ * of each other. Executions without an id write to the report directory exactly as before.
+ */
+public abstract class AbstractReportMojo
+        extends AbstractMojo {
+
+    /**
+     * The directory the reports are written to. Every project has an own one, so the modules of a parallel build
+     * (-T) do not overwrite the reports of each other. Default is
+     * {@code ${project.build.directory}/autobahntestsuite-reports}.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/autobahntestsuite-reports", required = true)
+    File reportDirectory;
+
+    @Parameter(defaultValue = "${mojoExecution.executionId}", readonly = true)
+    String executionId;
+
+    @Component
+    MavenProject project;
+
+    /**
+     * Returns {@code true} if the execution has one of the ids maven assigns if none is configured.
+     */
+    private boolean isDefaultExecution() {
+        return executionId == null || "default".equals(executionId) || executionId.startsWith("default-");
+    }
+
+    /**
+     * Returns the directory the case reports of this execution are written to.
+     */
+    File caseReportDirectory() {
+        return isDefaultExecution() ? reportDirectory : new File(reportDirectory, executionId);
+    }
+
+    /**
+     * Returns the report with the given name, which gets the execution id appended if the execution has an own id.
+     */
+    File reportFile(String name) {
+        if (isDefaultExecution()) {
+            return new File(reportDirectory, name);
+        }
+        int dot = name.lastIndexOf('.');
+        return new File(reportDirectory, name.substring(0, dot) + "-" + executionId + name.substring(dot));
+    }
+
+    /**
+     * Returns a file in the build directory which belongs to this execution only.
+     */
+    File executionFile(String prefix, String suffix) {
+        return new File(project.getBuild().getDirectory(), prefix + "-" + executionId + suffix);
+    }
+}
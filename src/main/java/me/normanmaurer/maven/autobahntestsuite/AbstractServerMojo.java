@@ -0,0 +1,293 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Base of the goals which run against the servers of the project, which starts them side by side either inside of
+ * maven or forked into own JVMs.
+ */
+public abstract class AbstractServerMojo
+        extends AbstractReportMojo {
+    private static final long FORK_DESTROY_TIMEOUT = 10000;
+
+    /**
+     * The IP address of the host.
+     */
+    @Parameter(property = "host")
+    String host;
+
+    /**
+     * The port on which the Server will listen. Only used if no {@code servers} are configured.
+     */
+    @Parameter(defaultValue = "-1", property="port", required = true)
+    int port;
+
+    /**
+     * The class which is used to startup the Server. It will pass the port in as argument to the main(...) method.
+     * Required if no {@code servers} are configured.
+     */
+    @Parameter(property = "mainClass")
+    String mainClass;
+
+    /**
+     * A list of servers which are started side by side and tested one after the other, each with an own
+     * {@code agent}, {@code mainClass}, optional {@code args} and optional {@code port}. The results are reported per
+     * agent and the durations of all agents are compared in {@code agent-durations.json}. Default is to test the
+     * single server configured by {@code mainClass} and {@code port}.
+     */
+    @Parameter
+    List<Server> servers;
+
+    /**
+     * Set this to "true" to start the servers in their own JVMs instead of inside the maven JVM, so they do not share
+     * heap, GC and JIT with maven and the fuzzingclient. The output of each server is written to
+     * {@code server-<agent>.log} in the report directory. Default is false.
+     */
+    @Parameter(property = "fork", defaultValue = "false")
+    boolean fork;
+
+    /**
+     * The java executable which is used to start forked servers. Default is the one maven runs with.
+     */
+    @Parameter(property = "jvm")
+    String jvm;
+
+    /**
+     * Arguments for the JVMs of forked servers, like the heap size or GC flags.
+     */
+    @Parameter(property = "jvmArgs")
+    List<String> jvmArgs;
+
+    /**
+     * The number of milliseconds to max wait for the server to startup. Default is 10000 ms
+     */
+    @Parameter(property = "waitTime")
+    long waitTime;
+
+    /**
+     * How to detect that the server is ready: {@code connect} probes until a TCP connection can be opened,
+     * {@code handshake} until a WebSocket handshake succeeds and {@code signal} waits until the server calls
+     * {@code ServerReadiness.signalReady(port)} itself. Default is {@code connect}.
+     */
+    @Parameter(property = "readinessProbe", defaultValue = "connect")
+    String readinessProbe;
+
+    private final List<Thread> runners = new ArrayList<Thread>();
+    private final List<ForkedServer> forkedServers = new ArrayList<ForkedServer>();
+    private Map<String, String> serverUrls;
+
+    List<String> getClasspathElements() throws MojoExecutionException {
+        return ProjectClasspath.elements(project);
+    }
+
+    ClassLoader getClassLoader(List<String> classpathElements) throws MojoExecutionException {
+        return ProjectClasspath.classLoader(classpathElements);
+    }
+
+    /**
+     * Use the single server configured by {@code mainClass} and {@code port} if no {@code servers} are configured and
+     * validate them.
+     */
+    void initServers() throws MojoExecutionException {
+        if (servers == null || servers.isEmpty()) {
+            servers = Collections.singletonList(
+                    new Server(AutobahnTestSuite.DEFAULT_AGENT, mainClass, null, port));
+        }
+        validateServers();
+    }
+
+    private void validateServers() throws MojoExecutionException {
+        Set<String> agents = new HashSet<String>();
+        Set<Integer> ports = new HashSet<Integer>();
+        for (Server server: servers) {
+            if (server.getAgent() == null || server.getAgent().length() == 0) {
+                throw new MojoExecutionException("No agent configured for server " + server);
+            }
+            if (server.getMainClass() == null) {
+                throw new MojoExecutionException("No mainClass configured for server " + server.getAgent());
+            }
+            if (!agents.add(server.getAgent())) {
+                throw new MojoExecutionException("Agent " + server.getAgent() + " is configured more than once");
+            }
+            if (server.getPort() != -1 && !ports.add(server.getPort())) {
+                throw new MojoExecutionException("Port " + server.getPort() + " is configured more than once");
+            }
+        }
+    }
+
+    /**
+     * Start all servers if they are not running yet and return their urls by agent. The servers are started side by
+     * side, so the startup time is the one of the slowest server and not the sum of all.
+     */
+    Map<String, String> startServers(final List<String> classpathElements) throws MojoExecutionException {
+        if (serverUrls != null) {
+            return serverUrls;
+        }
+        if (host == null) {
+            try {
+                host = InetAddress.getLocalHost().getHostAddress();
+            } catch (UnknownHostException e) {
+                getLog().debug("Unable to detect localhost address, using 127.0.0.1 as fallback");
+                host = "127.0.0.1";
+            }
+        }
+        if (waitTime <= 0) {
+            // use 10 seconds as default
+            waitTime = 10000;
+        }
+        ServerReadiness.Probe probe = ServerReadiness.Probe.parse(readinessProbe);
+        if (fork && probe == ServerReadiness.Probe.SIGNAL) {
+            throw new MojoExecutionException("The signal readinessProbe can not be used with forked servers");
+        }
+        List<AtomicReference<Exception>> errors = new ArrayList<AtomicReference<Exception>>();
+        try {
+            for (Server server: servers) {
+                if (server.getPort() == -1) {
+                    // Get some random free port
+                    server.setPort(AutobahnUtils.getFreePort(host));
+                }
+                if (probe == ServerReadiness.Probe.SIGNAL) {
+                    ServerReadiness.register(server.getPort());
+                }
+                AtomicReference<Exception> error = new AtomicReference<Exception>();
+                errors.add(error);
+                if (fork) {
+                    startForkedServer(classpathElements, server, error);
+                } else {
+                    Thread runner = newRunner(classpathElements, server, error);
+                    runners.add(runner);
+                    runner.start();
+                }
+            }
+
+            Map<String, String> urls = new LinkedHashMap<String, String>();
+            long start = System.nanoTime();
+            for (int i = 0; i < servers.size(); i++) {
+                Server server = servers.get(i);
+                long remaining = waitTime - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (!ServerReadiness.await(probe, host, server.getPort(), remaining, errors.get(i))) {
+                    Throwable cause = errors.get(i).get();
+                    if (cause != null) {
+                        throw new MojoExecutionException("Unable to start server " + server.getAgent(), cause);
+                    }
+                    throw new MojoExecutionException("Unable to connect to server " + server.getAgent() + " in " +
+                            waitTime);
+                }
+                getLog().debug("Server " + server.getAgent() + " was ready after " +
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+                urls.put(server.getAgent(), "ws://" + host + ":" + server.getPort());
+            }
+            serverUrls = urls;
+            return serverUrls;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while waiting for the server", e);
+        } finally {
+            for (Server server: servers) {
+                ServerReadiness.unregister(server.getPort());
+            }
+        }
+    }
+
+    /**
+     * Returns the arguments of the JVM of the given forked server.
+     */
+    List<String> forkedJvmArgs(Server server) {
+        List<String> allJvmArgs = new ArrayList<String>();
+        if (jvmArgs != null) {
+            allJvmArgs.addAll(jvmArgs);
+        }
+        allJvmArgs.addAll(server.getJvmArgs());
+        return allJvmArgs;
+    }
+
+    private void startForkedServer(List<String> classpathElements, Server server, AtomicReference<Exception> error)
+            throws MojoExecutionException {
+        List<String> args = new ArrayList<String>();
+        args.add(String.valueOf(server.getPort()));
+        args.addAll(server.getArgs());
+        List<String> command = ForkedServer.command(jvm, forkedJvmArgs(server), classpathElements,
+                server.getMainClass(), args);
+        File logFile = reportFile("server-" + server.getAgent() + ".log");
+        getLog().debug("Forking server " + server.getAgent() + ": " + command);
+        ForkedServer forked = new ForkedServer(server.getAgent(), command, logFile, error);
+        try {
+            forked.start();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to fork server " + server.getAgent(), e);
+        }
+        forkedServers.add(forked);
+        getLog().info("Forked server " + server.getAgent() + ", writing its output to " + logFile);
+    }
+
+    private Thread newRunner(final List<String> classpathElements, final Server server,
+                             final AtomicReference<Exception> error) {
+        Thread runner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.currentThread().setContextClassLoader(getClassLoader(classpathElements));
+                    Class<?> clazz = Thread.currentThread().getContextClassLoader().loadClass(server.getMainClass());
+                    Method main = clazz.getMethod("main", String[].class);
+                    List<String> args = new ArrayList<String>();
+                    args.add(String.valueOf(server.getPort()));
+                    args.addAll(server.getArgs());
+                    main.invoke(null, (Object) args.toArray(new String[args.size()]));
+                } catch (Exception e) {
+                    error.set(e);
+                }
+            }
+        }, "autobahntestsuite-server-" + server.getAgent());
+        runner.setDaemon(true);
+        return runner;
+    }
+
+    /**
+     * Stop all servers which were started.
+     */
+    void stopServers() {
+        for (Thread runner: runners) {
+            runner.interrupt();
+        }
+        runners.clear();
+        for (ForkedServer forked: forkedServers) {
+            if (!forked.destroy(FORK_DESTROY_TIMEOUT)) {
+                getLog().warn("Forked server did not exit within " + FORK_DESTROY_TIMEOUT + " ms, see " +
+                        forked.logFile());
+            }
+        }
+        forkedServers.clear();
+        serverUrls = null;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.json.simple.JSONValue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Puts the durations of the same cases run against different servers side by side.
+ */
+final class AgentComparison {
+
+    private final List<String> agents = new ArrayList<String>();
+    private final Map<String, Map<String, FuzzingCaseResult>> cases =
+            new TreeMap<String, Map<String, FuzzingCaseResult>>(CaseCatalog.CASE_ID_COMPARATOR);
+    private final Map<String, Long> totals = new HashMap<String, Long>();
+
+    AgentComparison(List<String> agents, List<FuzzingCaseResult> results) {
+        this.agents.addAll(agents);
+        for (FuzzingCaseResult result: results) {
+            Map<String, FuzzingCaseResult> byAgent = cases.get(result.caseName());
+            if (byAgent == null) {
+                byAgent = new HashMap<String, FuzzingCaseResult>();
+                cases.put(result.caseName(), byAgent);
+            }
+            byAgent.put(result.agent(), result);
+            Long total = totals.get(result.agent());
+            totals.put(result.agent(), (total == null ? 0 : total) + result.duration());
+        }
+    }
+
+    /**
+     * Write the durations as json to the given file.
+     */
+    void write(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("{\n  \"agents\": " + JSONValue.toJSONString(agents) + ",\n");
+            writer.write("  \"cases\": {");
+            boolean first = true;
+            for (Map.Entry<String, Map<String, FuzzingCaseResult>> entry: cases.entrySet()) {
+                writer.write(first ? "\n" : ",\n");
+                writer.write("    \"" + JSONValue.escape(entry.getKey()) + "\": {");
+                boolean firstAgent = true;
+                for (String agent: agents) {
+                    FuzzingCaseResult result = entry.getValue().get(agent);
+                    if (result == null) {
+                        continue;
+                    }
+                    writer.write(firstAgent ? "" : ", ");
+                    writer.write("\"" + JSONValue.escape(agent) + "\": {\"duration\": " + result.duration() +
+                            ", \"behavior\": \"" + result.behavior().name() + "\"}");
+                    firstAgent = false;
+                }
+                writer.write("}");
+                first = false;
+            }
+            writer.write("\n  }\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns a human readable table with one column per agent.
+     */
+    String format() {
+        int width = 10;
+        for (String agent: agents) {
+            width = Math.max(width, agent.length());
+        }
+        StringBuilder sb = new StringBuilder("Durations per agent:\n");
+        sb.append(String.format("\t%-10s", "case"));
+        for (String agent: agents) {
+            sb.append(String.format(" %" + width + "s", agent));
+        }
+        sb.append("\n");
+        for (Map.Entry<String, Map<String, FuzzingCaseResult>> entry: cases.entrySet()) {
+            sb.append(String.format("\t%-10s", entry.getKey()));
+            for (String agent: agents) {
+                FuzzingCaseResult result = entry.getValue().get(agent);
+                sb.append(String.format(" %" + width + "s", result == null ? "-" : result.duration() + "ms"));
+            }
+            sb.append("\n");
+        }
+        sb.append(String.format("\t%-10s", "total"));
+        for (String agent: agents) {
+            Long total = totals.get(agent);
+            sb.append(String.format(" %" + width + "s", (total == null ? 0 : total) + "ms"));
+        }
+        sb.append("\n");
+        return sb.toString();
+    }
+}
@@ -15,128 +15,160 @@
  */
 package me.normanmaurer.maven.autobahntestsuite;
 
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
-import org.python.core.PyArray;
-import org.python.core.PyBoolean;
-import org.python.core.PyDictionary;
-import org.python.core.PyString;
-import org.python.util.PythonInterpreter;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Allows to run the fuzzingclient of the <a href="http://autobahn.ws/testsuite/" >autobahntestsuite</a>.
  */
 public class AutobahnTestSuite {
 
+    /**
+     * The report directory of the static methods, relative to the working directory. The goals write to the
+     * {@code reportDirectory} of their project instead.
+     */
     static final String OUTDIR = "target/autobahntestsuite-reports";
-    private static final OutputStream DEV_NULL = new DevNullOutputStream();
-    public static List<FuzzingCaseResult> runFuzzingClient(String agent, String url, Map options,
-                                        List<String> cases, List<String> excludeCases) {
-        PythonInterpreter interp =
-                new PythonInterpreter();
-        interp.setErr(DEV_NULL);
-        interp.exec("import sys");
-        interp.exec("from autobahntestsuite import wstest");
-        PyDictionary opts = new PyDictionary();
-        opts.__setitem__(new PyString("mode"), new PyString("fuzzingclient"));
-        interp.set("opts", opts);
-
-        PyDictionary spec = createFuzzingClientSpec(agent, url, options, cases, excludeCases);
-        interp.set("spec", spec);
-        interp.exec("wstest.start(opts, spec)");
-
-        try {
-            List<FuzzingCaseResult> results = parseResults(agent);
-            if (results == null) {
-                throw new IllegalStateException("No results");
-            }
-            return results;
-        } catch (Exception e) {
-            throw new IllegalStateException(e);
-        }
-    }
+    static final String DEFAULT_AGENT = "autobahntestsuite-maven-plugin";
 
-    @SuppressWarnings("unchecked")
-    private static PyDictionary createFuzzingClientSpec(String agent, String url, Map options,
-                                           List<String> cases, List<String> excludeCases) {
-        PyDictionary dict = new PyDictionary();
+    /**
+     * The engine which runs the fuzzingclient of the bundled {@code wstest}.
+     */
+    public static final FuzzingEngine WSTEST = new WsTestEngine();
 
-        dict.__setitem__(new PyString("failByDrop"), new PyBoolean(false));
-        dict.__setitem__(new PyString("outdir"), new PyString(OUTDIR));
+    /**
+     * The engine which runs the cases of the groups 1 - 7 and 9 with a WebSocket client written in Java and falls
+     * back to {@link #WSTEST} for all other cases.
+     */
+    public static final FuzzingEngine NATIVE = new NativeEngine(WSTEST);
 
-        PyDictionary server = new PyDictionary();
-        server.__setitem__(new PyString("agent"), new PyString(agent));
-        server.__setitem__(new PyString("url"), new PyString(url));
-
-        dict.__setitem__(new PyString("servers"), new PyArray(PyDictionary.class, new PyDictionary[] { server }));
+    public static List<FuzzingCaseResult> runFuzzingClient(String agent, String url, Map options,
+                                        List<String> cases, List<String> excludeCases) {
+        return WSTEST.run(new SystemStreamLog(), OUTDIR, Collections.singletonMap(agent, url), options, cases,
+                excludeCases, Timeouts.NONE, null);
+    }
 
-        PyDictionary opts = new PyDictionary();
-        opts.putAll(options);
-        dict.__setitem__(new PyString("options"), opts);
+    /**
+     * Start to prepare {@code count} interpreters in the background, so they are ready once the fuzzingclient is
+     * started.
+     */
+    public static void warmUp(int count) {
+        WSTEST.warmUp(count);
+    }
 
-        dict.__setitem__(new PyString("cases"), new PyArray(String.class, cases.toArray(new String[cases.size()])));
-        dict.__setitem__(new PyString("exclude-cases"), new PyArray(PyString.class, excludeCases.toArray(new String[excludeCases.size()])));
-        return dict;
+    public static List<FuzzingCaseResult> runFuzzingClient(Log log, Map<String, String> servers, Map options,
+                                        List<String> cases, List<String> excludeCases, int shards,
+                                        CaseListener listener) {
+        return runFuzzingClient(log, WSTEST, servers, options, cases, excludeCases, shards, listener);
     }
 
-    private static List<FuzzingCaseResult> parseResults(String agentString) throws Exception {
-        List<FuzzingCaseResult> results = new ArrayList<FuzzingCaseResult>();
-        JSONParser parser = new JSONParser();
-        InputStreamReader reader = null;
+    public static List<FuzzingCaseResult> runFuzzingClient(Log log, FuzzingEngine engine,
+                                        Map<String, String> servers, Map options, List<String> cases,
+                                        List<String> excludeCases, int shards, CaseListener listener) {
+        engine.warmUp(Math.max(1, shards));
+        return runFuzzingClient(log, engine, OUTDIR, servers, options, cases, excludeCases, shards, null,
+                Timeouts.NONE, listener);
+    }
 
+    /**
+     * Run the fuzzingclient against the given servers, which map the agent to the url of the server. The selected
+     * cases are split over {@code shards} runs of the given engine which are executed in parallel. Every shard writes
+     * its reports to an own sub-directory of {@code outdir} and the results of all shards are merged afterwards.
+     * The cases are split by the {@code scheduler} if there is one and round-robin otherwise. The {@code timeouts}
+     * are shared by all shards. The {@code listener} is notified about every case and may be {@code null}. The
+     * patterns are resolved up front, so the engine gets the exact list of cases and is not started at all if no
+     * case is selected. The caller announces the runs with {@link FuzzingEngine#warmUp(int)}, ideally while its
+     * servers start up.
+     */
+    public static List<FuzzingCaseResult> runFuzzingClient(final Log log, final FuzzingEngine engine,
+                                        String outdir, final Map<String, String> servers, final Map options,
+                                        List<String> cases, List<String> excludeCases, int shards,
+                                        CaseScheduler scheduler, final Timeouts timeouts,
+                                        final CaseListener listener) {
+        List<String> resolved = CaseCatalog.resolve(cases, excludeCases);
+        if (resolved.isEmpty()) {
+            return new ArrayList<FuzzingCaseResult>();
+        }
+        if (shards <= 1 || resolved.size() <= 1) {
+            return engine.run(log, outdir, servers, options, resolved, Collections.<String>emptyList(), timeouts,
+                    listener);
+        }
+        List<List<String>> split = scheduler == null ? CaseCatalog.split(resolved, shards) :
+                scheduler.split(resolved, shards, servers.keySet());
+        final long[] took = new long[split.size()];
+        ExecutorService executor = Executors.newFixedThreadPool(split.size(),
+                AutobahnUtils.newThreadFactory("autobahntestsuite-shard"));
         try {
-            reader = new InputStreamReader(new FileInputStream(OUTDIR + "/index.json"));
-            JSONObject object = (JSONObject) parser.parse(reader);
-            JSONObject agent = (JSONObject) object.get(agentString);
-
-            if (agent == null) {
-                return null;
+            List<Future<List<FuzzingCaseResult>>> futures = new ArrayList<Future<List<FuzzingCaseResult>>>();
+            for (int i = 0; i < split.size(); i++) {
+                final int shard = i;
+                final String shardOutdir = outdir + File.separator + "shard-" + i;
+                final List<String> shardCases = split.get(i);
+                futures.add(executor.submit(new Callable<List<FuzzingCaseResult>>() {
+                    @Override
+                    public List<FuzzingCaseResult> call() {
+                        long start = System.nanoTime();
+                        try {
+                            return engine.run(log, shardOutdir, servers, options, shardCases,
+                                    Collections.<String>emptyList(), timeouts, listener);
+                        } finally {
+                            took[shard] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                        }
+                    }
+                }));
             }
-            for (Object cases : agent.keySet()) {
-                JSONObject c = (JSONObject) agent.get(cases);
-                String behavior = (String) c.get("behavior");
-                String behaviorClose = (String) c.get("behaviorClose");
-                Number duration = (Number) c.get("duration");
-                Number remoteCloseCode = (Number) c.get("remoteCloseCode");
-
-                Long code;
-                if (remoteCloseCode == null) {
-                    code = null;
-                } else {
-                    code = remoteCloseCode.longValue();
+            List<FuzzingCaseResult> results = new ArrayList<FuzzingCaseResult>();
+            for (Future<List<FuzzingCaseResult>> future: futures) {
+                try {
+                    results.addAll(future.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Fuzzing shard failed", e.getCause());
                 }
-                String reportfile = (String) c.get("reportfile");
-                FuzzingCaseResult result = new FuzzingCaseResult(cases.toString(),
-                        FuzzingCaseResult.Behavior.parse(behavior), FuzzingCaseResult.Behavior.parse(behaviorClose),
-                        duration.longValue(), code, OUTDIR + File.separator + reportfile);
-
-                results.add(result);
             }
-        } catch (Exception e) {
-            throw new Exception("Could not parse results" ,e);
-        } finally {
-            if (reader!=null){
-                reader.close();
+            if (scheduler != null) {
+                log.info(formatShardTimes(scheduler, split, servers.keySet(), took));
             }
+            CaseCatalog.sort(results);
+            return results;
+        } finally {
+            executor.shutdownNow();
         }
-        return results;
     }
 
-    private final static class DevNullOutputStream extends OutputStream {
-        @Override
-        public void write(int b) throws IOException {
-            // > /dev/null
+    /**
+     * Compare the predicted with the actual time of every shard. The ideal time is the one every shard would take if
+     * the predicted time could be split evenly.
+     */
+    private static String formatShardTimes(CaseScheduler scheduler, List<List<String>> split,
+                                           Collection<String> agents, long[] took) {
+        long total = 0;
+        long predictedMax = 0;
+        long actualMax = 0;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < split.size(); i++) {
+            long predicted = scheduler.predict(split.get(i), agents);
+            total += predicted;
+            predictedMax = Math.max(predictedMax, predicted);
+            actualMax = Math.max(actualMax, took[i]);
+            sb.append("\n\tshard-").append(i).append(": ").append(split.get(i).size()).append(" cases, predicted ")
+                    .append(predicted).append("ms, actual ").append(took[i]).append("ms");
         }
+        return "Shard times (ideal " + total / split.size() + "ms, predicted " + predictedMax + "ms, actual " +
+                actualMax + "ms):" + sb;
     }
 }
@@ -18,48 +18,83 @@ package me.normanmaurer.maven.autobahntestsuite;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 final class AutobahnUtils {
     private static final int START_PORT = 32768;
     private static final int END_PORT = 65536;
     private static final int NUM_CANDIDATES = END_PORT - START_PORT;
+    // NUM_CANDIDATES is a power of two, so stepping with an odd stride visits every candidate exactly once before
+    // it repeats.
+    private static final int STRIDE = 7919;
 
-    private static final List<Integer> PORTS = new ArrayList<Integer>(NUM_CANDIDATES);
-    private static Iterator<Integer> portIterator;
+    private static final int OFFSET;
+    private static final AtomicInteger NEXT_INDEX;
 
     static {
-        for (int i = START_PORT; i < END_PORT; i ++) {
-            PORTS.add(i);
-        }
-        Collections.shuffle(PORTS);
+        Random random = new Random();
+        OFFSET = random.nextInt(NUM_CANDIDATES);
+        NEXT_INDEX = new AtomicInteger(random.nextInt());
+    }
+
+    private AutobahnUtils() {
+        // Utility class
     }
 
+    /**
+     * Returns the next port of a randomized sequence. Concurrent callers never get the same port unless all
+     * candidates were handed out.
+     */
     private static int nextCandidatePort() {
-        if (portIterator == null || !portIterator.hasNext()) {
-            portIterator = PORTS.iterator();
-        }
-        return portIterator.next();
+        int index = NEXT_INDEX.getAndIncrement();
+        return START_PORT + ((OFFSET + index * STRIDE) & (NUM_CANDIDATES - 1));
     }
 
+    /**
+     * Returns a port which is currently free on the given address. As every candidate is only handed out once per
+     * cycle, executions which run in parallel in the same JVM can not end up with the same port, even if the server
+     * binds it only some time later.
+     */
     static int getFreePort(String address) {
         for (int i = 0; i < NUM_CANDIDATES; i ++) {
             int port = nextCandidatePort();
+            ServerSocket ss = null;
             try {
-                ServerSocket ss = new ServerSocket();
+                ss = new ServerSocket();
                 ss.setReuseAddress(false);
                 ss.bind(new InetSocketAddress(address, port));
-                ss.close();
-
                 return port;
             } catch (IOException e) {
                 // ignore
+            } finally {
+                if (ss != null) {
+                    try {
+                        ss.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
             }
         }
 
         throw new RuntimeException("unable to find a free port");
     }
+
+    /**
+     * Returns a {@link ThreadFactory} which creates daemon threads named {@code prefix-N}.
+     */
+    static ThreadFactory newThreadFactory(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, prefix + "-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
 }
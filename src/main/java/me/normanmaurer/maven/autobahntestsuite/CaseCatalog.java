@@ -0,0 +1,220 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The ids of all cases which are shipped with the bundled autobahntestsuite (see {@code autobahntestsuite/case}).
+ * Patterns are resolved the same way as {@code CaseSet.resolveCasePatternList} does it.
+ */
+final class CaseCatalog {
+
+    /**
+     * Orders case ids like {@code 1.2.10} numerically. Ids may be prefixed with the agent ({@code agent/1.2.10}), in
+     * which case they are ordered by agent first.
+     */
+    static final Comparator<String> CASE_ID_COMPARATOR = new Comparator<String>() {
+        @Override
+        public int compare(String o1, String o2) {
+            int agent1 = o1.lastIndexOf('/');
+            int agent2 = o2.lastIndexOf('/');
+            if (agent1 != -1 || agent2 != -1) {
+                int c = o1.substring(0, agent1 + 1).compareTo(o2.substring(0, agent2 + 1));
+                if (c != 0) {
+                    return c;
+                }
+                o1 = o1.substring(agent1 + 1);
+                o2 = o2.substring(agent2 + 1);
+            }
+            String[] parts1 = o1.split("\\.");
+            String[] parts2 = o2.split("\\.");
+            for (int i = 0; i < Math.min(parts1.length, parts2.length); i++) {
+                int c = compareNumbers(parts1[i], parts2[i]);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return parts1.length - parts2.length;
+        }
+
+        private int compareNumbers(String n1, String n2) {
+            try {
+                long l1 = Long.parseLong(n1);
+                long l2 = Long.parseLong(n2);
+                return l1 < l2 ? -1 : l1 == l2 ? 0 : 1;
+            } catch (NumberFormatException e) {
+                return n1.compareTo(n2);
+            }
+        }
+    };
+
+    private static final List<String> CASES;
+
+    static {
+        List<String> cases = new ArrayList<String>();
+        add(cases, "1.1.", 8);
+        add(cases, "1.2.", 8);
+        add(cases, "2.", 11);
+        add(cases, "3.", 7);
+        add(cases, "4.1.", 5);
+        add(cases, "4.2.", 5);
+        add(cases, "5.", 20);
+        add(cases, "6.1.", 3);
+        add(cases, "6.2.", 4);
+        add(cases, "6.3.", 2);
+        add(cases, "6.4.", 4);
+        // generated from the UTF-8 test sequences in case6_x_x.py
+        int[] utf8Sequences = { 5, 11, 4, 2, 4, 3, 5, 8, 5, 10, 1, 3, 5, 5, 5, 7, 8, 34, 7 };
+        for (int i = 0; i < utf8Sequences.length; i++) {
+            add(cases, "6." + (i + 5) + ".", utf8Sequences[i]);
+        }
+        add(cases, "7.1.", 6);
+        add(cases, "7.3.", 6);
+        add(cases, "7.5.", 1);
+        add(cases, "7.7.", 13);
+        add(cases, "7.9.", 9);
+        add(cases, "7.13.", 2);
+        add(cases, "9.1.", 6);
+        add(cases, "9.2.", 6);
+        add(cases, "9.3.", 9);
+        add(cases, "9.4.", 9);
+        add(cases, "9.5.", 6);
+        add(cases, "9.6.", 6);
+        add(cases, "9.7.", 6);
+        add(cases, "9.8.", 6);
+        add(cases, "10.1.", 1);
+        CASES = Collections.unmodifiableList(cases);
+    }
+
+    private CaseCatalog() {
+        // Utility class
+    }
+
+    private static void add(List<String> cases, String prefix, int count) {
+        for (int i = 1; i <= count; i++) {
+            cases.add(prefix + i);
+        }
+    }
+
+    /**
+     * Returns all known case ids in execution order.
+     */
+    static List<String> cases() {
+        return CASES;
+    }
+
+    /**
+     * Resolve the given case patterns minus the exclude patterns to the sorted list of case ids.
+     */
+    static List<String> resolve(List<String> cases, List<String> excludeCases) {
+        Set<String> resolved = resolve(cases);
+        resolved.removeAll(resolve(excludeCases));
+        List<String> result = new ArrayList<String>(resolved);
+        Collections.sort(result, CASE_ID_COMPARATOR);
+        return result;
+    }
+
+    private static Set<String> resolve(List<String> patterns) {
+        Set<String> resolved = new LinkedHashSet<String>();
+        for (String pattern: patterns) {
+            if (pattern.indexOf('*') >= 0) {
+                resolved.addAll(match(pattern));
+            } else {
+                resolved.add(pattern);
+            }
+        }
+        return resolved;
+    }
+
+    private static List<String> match(String pattern) {
+        Pattern p = Pattern.compile(pattern.replace(".", "\\.").replace("*", ".*"));
+        List<String> matched = new ArrayList<String>();
+        for (String c: CASES) {
+            // wstest uses re.match(...) which only anchors at the start
+            if (p.matcher(c).lookingAt()) {
+                matched.add(c);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Returns the given patterns which do not match any known case, like misspelled ids or wildcards.
+     */
+    static List<String> unmatched(List<String> patterns) {
+        List<String> unmatched = new ArrayList<String>();
+        for (String pattern: patterns) {
+            if (pattern.indexOf('*') >= 0 ? match(pattern).isEmpty() : !CASES.contains(pattern)) {
+                unmatched.add(pattern);
+            }
+        }
+        return unmatched;
+    }
+
+    /**
+     * Sort the given results by their agents and case ids.
+     */
+    static void sort(List<FuzzingCaseResult> results) {
+        Collections.sort(results, new Comparator<FuzzingCaseResult>() {
+            @Override
+            public int compare(FuzzingCaseResult o1, FuzzingCaseResult o2) {
+                int c = o1.agent().compareTo(o2.agent());
+                if (c != 0) {
+                    return c;
+                }
+                return CASE_ID_COMPARATOR.compare(o1.caseName(), o2.caseName());
+            }
+        });
+    }
+
+    /**
+     * Returns the key which identifies the case of the given result. This is the plain case id for the default
+     * agent and the case id prefixed with the agent ({@code agent/1.2.10}) otherwise.
+     */
+    static String key(FuzzingCaseResult result) {
+        return key(result.agent(), result.caseName());
+    }
+
+    static String key(String agent, String caseId) {
+        if (AutobahnTestSuite.DEFAULT_AGENT.equals(agent)) {
+            return caseId;
+        }
+        return agent + "/" + caseId;
+    }
+
+    /**
+     * Split the given case ids into (at most) {@code shards} lists. Cases are dealt out round-robin so every shard
+     * gets its share of the long running groups like 9.x.
+     */
+    static List<List<String>> split(List<String> cases, int shards) {
+        int num = Math.max(1, Math.min(shards, cases.size()));
+        List<List<String>> split = new ArrayList<List<String>>(num);
+        for (int i = 0; i < num; i++) {
+            split.add(new ArrayList<String>());
+        }
+        for (int i = 0; i < cases.size(); i++) {
+            split.get(i % num).add(cases.get(i));
+        }
+        return split;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A group of cases which is run with own options, as configured in the {@code caseGroups} section of the plugin
+ * configuration.
+ */
+public class CaseGroup {
+
+    /**
+     * The cases of the group, wildcards are supported the same way as for the {@code cases} of the plugin. A case
+     * belongs to the first group which matches it.
+     */
+    private List<String> cases;
+
+    /**
+     * The options of the fuzzing spec which are used for the cases of the group. They override the global
+     * {@code options}.
+     */
+    private Map<String, String> options;
+
+    /**
+     * Report the compressed and uncompressed bytes and the throughput of every case of the group.
+     */
+    private boolean reportThroughput;
+
+    public CaseGroup() {
+    }
+
+    public List<String> getCases() {
+        return cases == null ? Collections.<String>emptyList() : cases;
+    }
+
+    public Map<String, String> getOptions() {
+        return options == null ? Collections.<String, String>emptyMap() : options;
+    }
+
+    public boolean isReportThroughput() {
+        return reportThroughput;
+    }
+
+    @Override
+    public String toString() {
+        return "[cases: " + getCases() + ", options: " + getOptions() + ", reportThroughput: " + reportThroughput +
+                "]";
+    }
+}
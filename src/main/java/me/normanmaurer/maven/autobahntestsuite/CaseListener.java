@@ -0,0 +1,35 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+/**
+ * Gets notified by the fuzzingclient when a case is started and when it is finished. Callbacks come from the threads
+ * which run the fuzzingclient, which may be several at once when the cases are sharded, and must return quickly as
+ * they delay the case execution.
+ */
+public interface CaseListener {
+
+    /**
+     * Called when the connection for the given case was opened.
+     */
+    void caseStarted(String agent, String caseId);
+
+    /**
+     * Called when the result of the given case was recorded, with its behavior as reported by the fuzzingclient
+     * (e.g. {@code OK} or {@code NON-STRICT}).
+     */
+    void caseFinished(String agent, String caseId, String behavior);
+}
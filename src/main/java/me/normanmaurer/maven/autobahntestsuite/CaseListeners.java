@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers for {@link CaseListener}s.
+ */
+final class CaseListeners {
+
+    private CaseListeners() {
+        // Utility class
+    }
+
+    /**
+     * Returns a listener which notifies all given listeners in order, {@code null}s are skipped. Returns
+     * {@code null} if there is no listener at all.
+     */
+    static CaseListener of(CaseListener... listeners) {
+        final List<CaseListener> all = new ArrayList<CaseListener>();
+        for (CaseListener listener: listeners) {
+            if (listener != null) {
+                all.add(listener);
+            }
+        }
+        if (all.size() <= 1) {
+            return all.isEmpty() ? null : all.get(0);
+        }
+        return new CaseListener() {
+            @Override
+            public void caseStarted(String agent, String caseId) {
+                for (CaseListener listener: all) {
+                    listener.caseStarted(agent, caseId);
+                }
+            }
+
+            @Override
+            public void caseFinished(String agent, String caseId, String behavior) {
+                for (CaseListener listener: all) {
+                    listener.caseFinished(agent, caseId, behavior);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+/**
+ * The resources the server used while a case was running. Values which could not be sampled are {@code -1}.
+ */
+public final class CaseResources {
+
+    private final long heapUsed;
+    private final long allocatedBytes;
+    private final long gcCount;
+    private final long gcTime;
+    private final int threadCount;
+    private final long cpuTime;
+
+    CaseResources(long heapUsed, long allocatedBytes, long gcCount, long gcTime, int threadCount, long cpuTime) {
+        this.heapUsed = heapUsed;
+        this.allocatedBytes = allocatedBytes;
+        this.gcCount = gcCount;
+        this.gcTime = gcTime;
+        this.threadCount = threadCount;
+        this.cpuTime = cpuTime;
+    }
+
+    /**
+     * The maximal number of heap bytes in use.
+     */
+    public long heapUsed() {
+        return heapUsed;
+    }
+
+    /**
+     * The number of bytes allocated by all live threads.
+     */
+    public long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * The number of garbage collections.
+     */
+    public long gcCount() {
+        return gcCount;
+    }
+
+    /**
+     * The number of milliseconds spent in garbage collections.
+     */
+    public long gcTime() {
+        return gcTime;
+    }
+
+    /**
+     * The maximal number of live threads.
+     */
+    public int threadCount() {
+        return threadCount;
+    }
+
+    /**
+     * The number of milliseconds of CPU time used by the process.
+     */
+    public long cpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * Returns the values as json object.
+     */
+    String toJSONString() {
+        return "{\"heapUsed\": " + heapUsed + ", \"allocatedBytes\": " + allocatedBytes + ", \"gcCount\": " +
+                gcCount + ", \"gcTime\": " + gcTime + ", \"threadCount\": " + threadCount + ", \"cpuTime\": " +
+                cpuTime + "}";
+    }
+
+    @Override
+    public String toString() {
+        return "heapUsed: " + heapUsed + " bytes, allocated: " + allocatedBytes + " bytes, gc: " + gcCount + "/" +
+                gcTime + "ms, threads: " + threadCount + ", cpu: " + cpuTime + "ms";
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the cases over the shards by the durations of a former run, so all shards take about the same time. The
+ * cases are handed out longest first, each to the shard with the least predicted time so far.
+ */
+public final class CaseScheduler {
+
+    private final Map<String, Long> durations;
+    private final long unknownDuration;
+
+    /**
+     * Create a scheduler for the given durations in ms, keyed by the case id for the default agent and by
+     * {@code agent/id} for all others (the same as the {@code durationBaseline} of the plugin).
+     */
+    public CaseScheduler(Map<String, Long> durations) {
+        this.durations = durations;
+        List<Long> known = new ArrayList<Long>(durations.values());
+        Collections.sort(known);
+        // cases which did not run before are expected to take as long as a typical case
+        unknownDuration = known.isEmpty() ? 0 : known.get(known.size() / 2);
+    }
+
+    /**
+     * The predicted ms the given case takes for all agents. Every case takes at least 1 ms, as even the fastest ones
+     * need to connect, so they are spread over the shards too.
+     */
+    long predict(String caseId, Collection<String> agents) {
+        long duration = 0;
+        for (String agent: agents) {
+            Long known = durations.get(CaseCatalog.key(agent, caseId));
+            duration += Math.max(1, known == null ? unknownDuration : known);
+        }
+        return duration;
+    }
+
+    /**
+     * The predicted ms of the given cases for all agents.
+     */
+    long predict(List<String> cases, Collection<String> agents) {
+        long duration = 0;
+        for (String id: cases) {
+            duration += predict(id, agents);
+        }
+        return duration;
+    }
+
+    /**
+     * The predicted ms of a run of the given cases split over {@code shards}, which is the time of the slowest shard.
+     */
+    long predictRun(List<String> cases, int shards, Collection<String> agents) {
+        long slowest = 0;
+        for (List<String> shard: split(cases, shards, agents)) {
+            slowest = Math.max(slowest, predict(shard, agents));
+        }
+        return slowest;
+    }
+
+    /**
+     * Split the cases into (at most) {@code shards} lists with about the same predicted time. Every list keeps the
+     * order of the given cases.
+     */
+    List<List<String>> split(final List<String> cases, int shards, final Collection<String> agents) {
+        int num = Math.max(1, Math.min(shards, cases.size()));
+        List<Integer> longestFirst = new ArrayList<Integer>(cases.size());
+        final long[] predicted = new long[cases.size()];
+        for (int i = 0; i < cases.size(); i++) {
+            longestFirst.add(i);
+            predicted[i] = predict(cases.get(i), agents);
+        }
+        Collections.sort(longestFirst, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                long d1 = predicted[o1];
+                long d2 = predicted[o2];
+                return d1 > d2 ? -1 : d1 == d2 ? o1.compareTo(o2) : 1;
+            }
+        });
+
+        int[] shardOf = new int[cases.size()];
+        long[] load = new long[num];
+        for (int index: longestFirst) {
+            int least = 0;
+            for (int i = 1; i < num; i++) {
+                if (load[i] < load[least]) {
+                    least = i;
+                }
+            }
+            shardOf[index] = least;
+            load[least] += predicted[index];
+        }
+
+        List<List<String>> split = new ArrayList<List<String>>(num);
+        for (int i = 0; i < num; i++) {
+            split.add(new ArrayList<String>());
+        }
+        for (int i = 0; i < cases.size(); i++) {
+            split.get(shardOf[i]).add(cases.get(i));
+        }
+        return split;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import java.util.Locale;
+
+/**
+ * The payload bytes of the data messages of a case, as recorded in the {@code trafficStats} of its report. The
+ * compressed bytes are the ones sent over the wire (without the frame headers), the uncompressed bytes the ones seen
+ * by the application. Without a compression extension both are the same.
+ */
+public final class CaseTraffic {
+
+    private static final double BYTES_PER_MB = 1000 * 1000;
+
+    private final long incomingCompressed;
+    private final long incomingUncompressed;
+    private final long outgoingCompressed;
+    private final long outgoingUncompressed;
+
+    CaseTraffic(long incomingCompressed, long incomingUncompressed, long outgoingCompressed,
+                long outgoingUncompressed) {
+        this.incomingCompressed = incomingCompressed;
+        this.incomingUncompressed = incomingUncompressed;
+        this.outgoingCompressed = outgoingCompressed;
+        this.outgoingUncompressed = outgoingUncompressed;
+    }
+
+    /**
+     * The compressed bytes received from the server.
+     */
+    public long incomingCompressed() {
+        return incomingCompressed;
+    }
+
+    /**
+     * The uncompressed bytes received from the server.
+     */
+    public long incomingUncompressed() {
+        return incomingUncompressed;
+    }
+
+    /**
+     * The compressed bytes sent to the server.
+     */
+    public long outgoingCompressed() {
+        return outgoingCompressed;
+    }
+
+    /**
+     * The uncompressed bytes sent to the server.
+     */
+    public long outgoingUncompressed() {
+        return outgoingUncompressed;
+    }
+
+    /**
+     * The uncompressed bytes in both directions per second in MB/s, or {@code 0} if the case took no measurable time.
+     */
+    public double throughput(long duration) {
+        if (duration <= 0) {
+            return 0;
+        }
+        return (incomingUncompressed + outgoingUncompressed) / BYTES_PER_MB / (duration / 1000.0);
+    }
+
+    /**
+     * Returns the values as json object.
+     */
+    String toJSONString(long duration) {
+        return "{\"incomingCompressed\": " + incomingCompressed + ", \"incomingUncompressed\": " +
+                incomingUncompressed + ", \"outgoingCompressed\": " + outgoingCompressed +
+                ", \"outgoingUncompressed\": " + outgoingUncompressed + ", \"throughput\": " +
+                formatThroughput(duration) + "}";
+    }
+
+    String formatThroughput(long duration) {
+        return String.format(Locale.ENGLISH, "%.2f", throughput(duration));
+    }
+
+    @Override
+    public String toString() {
+        return "in: " + incomingCompressed + "/" + incomingUncompressed + " bytes, out: " + outgoingCompressed + "/" +
+                outgoingUncompressed + " bytes (compressed/uncompressed)";
+    }
+}
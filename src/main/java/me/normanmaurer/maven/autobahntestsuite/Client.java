@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A client which is tested by the fuzzingserver, as configured in the {@code clients} section of the plugin
+ * configuration.
+ */
+public class Client {
+
+    /**
+     * The name under which the results of the client are reported. Must be unique, and the client must connect with
+     * it as {@code agent} parameter.
+     */
+    private String agent;
+
+    /**
+     * The class which is used to run the client. The url of the fuzzingserver is passed in as first and the agent as
+     * second argument to the main(...) method, followed by the {@code args}. The main(...) method must return once
+     * the client ran all cases.
+     */
+    private String mainClass;
+
+    /**
+     * Additional arguments which are passed to the main(...) method.
+     */
+    private List<String> args;
+
+    public Client() {
+    }
+
+    Client(String agent, String mainClass, List<String> args) {
+        this.agent = agent;
+        this.mainClass = mainClass;
+        this.args = args;
+    }
+
+    public String getAgent() {
+        return agent;
+    }
+
+    public String getMainClass() {
+        return mainClass;
+    }
+
+    public List<String> getArgs() {
+        return args == null ? Collections.<String>emptyList() : args;
+    }
+
+    @Override
+    public String toString() {
+        return agent + "[mainClass: " + mainClass + ", args: " + getArgs() + "]";
+    }
+}
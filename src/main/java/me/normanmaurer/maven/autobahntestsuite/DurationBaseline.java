@@ -0,0 +1,215 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-case durations of a former run, which are used to detect cases that got slower and to schedule the cases over
+ * the shards.
+ */
+final class DurationBaseline {
+
+    private final Map<String, Long> durations;
+
+    private DurationBaseline(Map<String, Long> durations) {
+        this.durations = durations;
+    }
+
+    static DurationBaseline load(File file) throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            JSONObject object = (JSONObject) new JSONParser().parse(reader);
+            Map<String, Long> durations = new TreeMap<String, Long>(CaseCatalog.CASE_ID_COMPARATOR);
+            for (Object key: object.keySet()) {
+                durations.put(key.toString(), ((Number) object.get(key)).longValue());
+            }
+            return new DurationBaseline(durations);
+        } catch (ParseException e) {
+            throw new IOException("Unable to parse " + file + ": " + e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    Map<String, Long> durations() {
+        return durations;
+    }
+
+    /**
+     * Write the durations of the given results as new baseline, one case per line so it diffs nicely.
+     */
+    static void store(File file, List<FuzzingCaseResult> results) throws IOException {
+        Map<String, Long> durations = new TreeMap<String, Long>(CaseCatalog.CASE_ID_COMPARATOR);
+        for (FuzzingCaseResult result: results) {
+            durations.put(CaseCatalog.key(result), result.duration());
+        }
+        store(file, durations);
+    }
+
+    /**
+     * Write the durations of the given results into the given file, keeping the durations of all other cases which
+     * are in it already. Synchronized, as the modules of a parallel build may share the file.
+     */
+    static synchronized void update(File file, List<FuzzingCaseResult> results) throws IOException {
+        Map<String, Long> durations = new TreeMap<String, Long>(CaseCatalog.CASE_ID_COMPARATOR);
+        if (file.isFile()) {
+            durations.putAll(load(file).durations);
+        }
+        for (FuzzingCaseResult result: results) {
+            durations.put(CaseCatalog.key(result), result.duration());
+        }
+        store(file, durations);
+    }
+
+    private static void store(File file, Map<String, Long> durations) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("{");
+            boolean first = true;
+            for (Map.Entry<String, Long> entry: durations.entrySet()) {
+                writer.write(first ? "\n" : ",\n");
+                writer.write("  \"" + JSONValue.escape(entry.getKey()) + "\": " + entry.getValue());
+                first = false;
+            }
+            writer.write("\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Compare the given results against the baseline. A case counts as regression (or improvement) if its duration
+     * changed by more than {@code tolerance} percent and more than {@code threshold} milliseconds. Cases which are
+     * not part of the baseline are ignored.
+     */
+    Comparison compare(List<FuzzingCaseResult> results, int tolerance, long threshold) {
+        List<Change> regressions = new ArrayList<Change>();
+        List<Change> improvements = new ArrayList<Change>();
+        for (FuzzingCaseResult result: results) {
+            String key = CaseCatalog.key(result);
+            Long baseline = durations.get(key);
+            if (baseline == null) {
+                continue;
+            }
+            Change change = new Change(key, baseline, result.duration());
+            long delta = change.delta();
+            if (Math.abs(delta) <= threshold || Math.abs(delta) * 100 <= baseline * tolerance) {
+                continue;
+            }
+            if (delta > 0) {
+                regressions.add(change);
+            } else {
+                improvements.add(change);
+            }
+        }
+        Comparator<Change> biggestFirst = new Comparator<Change>() {
+            @Override
+            public int compare(Change o1, Change o2) {
+                long d1 = Math.abs(o1.delta());
+                long d2 = Math.abs(o2.delta());
+                return d1 > d2 ? -1 : d1 == d2 ? 0 : 1;
+            }
+        };
+        Collections.sort(regressions, biggestFirst);
+        Collections.sort(improvements, biggestFirst);
+        return new Comparison(regressions, improvements);
+    }
+
+    static final class Change {
+        private final String caseName;
+        private final long baseline;
+        private final long duration;
+
+        Change(String caseName, long baseline, long duration) {
+            this.caseName = caseName;
+            this.baseline = baseline;
+            this.duration = duration;
+        }
+
+        String caseName() {
+            return caseName;
+        }
+
+        long delta() {
+            return duration - baseline;
+        }
+
+        @Override
+        public String toString() {
+            String percent = baseline == 0 ? "n/a" : String.format("%+.1f%%", delta() * 100.0 / baseline);
+            return "[" + caseName + "] " + baseline + "ms -> " + duration + "ms (" + percent + ")";
+        }
+    }
+
+    static final class Comparison {
+        private final List<Change> regressions;
+        private final List<Change> improvements;
+
+        Comparison(List<Change> regressions, List<Change> improvements) {
+            this.regressions = regressions;
+            this.improvements = improvements;
+        }
+
+        List<Change> regressions() {
+            return regressions;
+        }
+
+        List<Change> improvements() {
+            return improvements;
+        }
+
+        /**
+         * Returns a report of the (at most) {@code limit} biggest regressions and improvements.
+         */
+        String format(int limit) {
+            StringBuilder sb = new StringBuilder();
+            append(sb, "Duration regressions", regressions, limit);
+            append(sb, "Duration improvements", improvements, limit);
+            return sb.toString();
+        }
+
+        private static void append(StringBuilder sb, String title, List<Change> changes, int limit) {
+            sb.append(title).append(" (").append(changes.size()).append("):\n");
+            for (int i = 0; i < Math.min(limit, changes.size()); i++) {
+                sb.append("\t").append(changes.get(i)).append("\n");
+            }
+        }
+    }
+}
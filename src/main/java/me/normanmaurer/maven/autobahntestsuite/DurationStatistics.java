@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.json.simple.JSONValue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the durations of repeated runs of the same cases and aggregates them per case.
+ */
+final class DurationStatistics {
+
+    private final Map<String, List<Long>> samples = new TreeMap<String, List<Long>>(CaseCatalog.CASE_ID_COMPARATOR);
+    private final Map<String, Integer> failures = new TreeMap<String, Integer>(CaseCatalog.CASE_ID_COMPARATOR);
+    private final int warmupIterations;
+    private final boolean failOnNonStrict;
+    private int iterations;
+
+    DurationStatistics(int warmupIterations, boolean failOnNonStrict) {
+        this.warmupIterations = warmupIterations;
+        this.failOnNonStrict = failOnNonStrict;
+    }
+
+    /**
+     * Add the results of one measured iteration. Results of cases which failed are counted but their durations are
+     * not used.
+     */
+    void add(List<FuzzingCaseResult> results) {
+        iterations++;
+        for (FuzzingCaseResult result: results) {
+            String key = CaseCatalog.key(result);
+            List<Long> durations = samples.get(key);
+            if (durations == null) {
+                durations = new ArrayList<Long>();
+                samples.put(key, durations);
+            }
+            if (result.behavior().isFailure(failOnNonStrict)) {
+                Integer count = failures.get(key);
+                failures.put(key, count == null ? 1 : count + 1);
+            } else {
+                durations.add(result.duration());
+            }
+        }
+    }
+
+    /**
+     * Write the statistics of all cases as json to the given file.
+     */
+    void write(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("{\n  \"iterations\": " + iterations + ",\n");
+            writer.write("  \"warmupIterations\": " + warmupIterations + ",\n");
+            writer.write("  \"cases\": {");
+            boolean first = true;
+            for (Map.Entry<String, List<Long>> entry: samples.entrySet()) {
+                Stats stats = stats(entry.getValue());
+                Integer failed = failures.get(entry.getKey());
+                writer.write(first ? "\n" : ",\n");
+                writer.write("    \"" + JSONValue.escape(entry.getKey()) + "\": {");
+                writer.write("\"samples\": " + JSONValue.toJSONString(entry.getValue()));
+                writer.write(", \"failures\": " + (failed == null ? 0 : failed));
+                if (stats != null) {
+                    writer.write(", \"min\": " + stats.min + ", \"median\": " + stats.median +
+                            ", \"p99\": " + stats.p99 + ", \"max\": " + stats.max +
+                            ", \"mean\": " + format(stats.mean) + ", \"stddev\": " + format(stats.stddev));
+                }
+                writer.write("}");
+                first = false;
+            }
+            writer.write("\n  }\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns a human readable table of the statistics of all cases.
+     */
+    String format() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Durations of ").append(iterations).append(" iterations (").append(warmupIterations)
+                .append(" warm-up iterations discarded):\n");
+        sb.append(String.format("\t%-10s %8s %8s %8s %8s %10s%n", "case", "min", "median", "p99", "max", "stddev"));
+        for (Map.Entry<String, List<Long>> entry: samples.entrySet()) {
+            Stats stats = stats(entry.getValue());
+            if (stats == null) {
+                sb.append(String.format("\t%-10s %8s%n", entry.getKey(), "failed"));
+            } else {
+                sb.append(String.format("\t%-10s %6dms %6dms %6dms %6dms %8.2fms%n", entry.getKey(), stats.min,
+                        stats.median, stats.p99, stats.max, stats.stddev));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ENGLISH, "%.2f", value);
+    }
+
+    private static Stats stats(List<Long> durations) {
+        if (durations.isEmpty()) {
+            return null;
+        }
+        long[] sorted = new long[durations.size()];
+        double sum = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = durations.get(i);
+            sum += sorted[i];
+        }
+        Arrays.sort(sorted);
+        double mean = sum / sorted.length;
+        double squares = 0;
+        for (long duration: sorted) {
+            squares += (duration - mean) * (duration - mean);
+        }
+        return new Stats(sorted[0], percentile(sorted, 50), percentile(sorted, 99), sorted[sorted.length - 1], mean,
+                Math.sqrt(squares / sorted.length));
+    }
+
+    /**
+     * Nearest-rank percentile of the given sorted values.
+     */
+    private static long percentile(long[] sorted, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static final class Stats {
+        final long min;
+        final long median;
+        final long p99;
+        final long max;
+        final double mean;
+        final double stddev;
+
+        Stats(long min, long median, long p99, long max, double mean, double stddev) {
+            this.min = min;
+            this.median = median;
+            this.p99 = p99;
+            this.max = max;
+            this.mean = mean;
+            this.stddev = stddev;
+        }
+    }
+}
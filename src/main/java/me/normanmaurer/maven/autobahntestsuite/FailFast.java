@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Aborts the run once the given number of cases failed, so a broken server is reported within seconds instead of
+ * after all cases ran.
+ */
+final class FailFast implements CaseListener {
+
+    private final Timeouts timeouts;
+    private final int maxFailures;
+    private final boolean failOnNonStrict;
+    private final AtomicInteger failures = new AtomicInteger();
+
+    FailFast(Timeouts timeouts, int maxFailures, boolean failOnNonStrict) {
+        this.timeouts = timeouts;
+        this.maxFailures = maxFailures;
+        this.failOnNonStrict = failOnNonStrict;
+    }
+
+    @Override
+    public void caseStarted(String agent, String caseId) {
+        // only results matter
+    }
+
+    @Override
+    public void caseFinished(String agent, String caseId, String behavior) {
+        if (FuzzingCaseResult.Behavior.parse(behavior).isFailure(failOnNonStrict)
+                && failures.incrementAndGet() >= maxFailures) {
+            timeouts.abort();
+        }
+    }
+
+    /**
+     * Returns {@code true} if the run was aborted because too many cases failed.
+     */
+    boolean failed() {
+        return failures.get() >= maxFailures;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A server which runs in its own JVM, so it does not share heap, GC and JIT with maven. Its stdout and stderr are
+ * written to a log file.
+ */
+final class ForkedServer {
+
+    private final String name;
+    private final List<String> command;
+    private final File logFile;
+    private final AtomicReference<Exception> error;
+    private volatile boolean destroyed;
+    private Process process;
+    private Thread pumper;
+    private Thread shutdownHook;
+
+    ForkedServer(String name, List<String> command, File logFile, AtomicReference<Exception> error) {
+        this.name = name;
+        this.command = command;
+        this.logFile = logFile;
+        this.error = error;
+    }
+
+    /**
+     * Build the command line which starts {@code mainClass} with the given arguments in a new JVM.
+     */
+    static List<String> command(String jvm, List<String> jvmArgs, List<String> classpathElements, String mainClass,
+                                List<String> args) {
+        StringBuilder classpath = new StringBuilder();
+        for (String element: classpathElements) {
+            if (classpath.length() > 0) {
+                classpath.append(File.pathSeparatorChar);
+            }
+            classpath.append(element);
+        }
+        List<String> command = new ArrayList<String>();
+        command.add(jvm == null ? System.getProperty("java.home") + File.separator + "bin" + File.separator + "java"
+                : jvm);
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(classpath.toString());
+        command.add(mainClass);
+        command.addAll(args);
+        return command;
+    }
+
+    void start() throws IOException {
+        File parent = logFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        final OutputStream log = new FileOutputStream(logFile);
+        try {
+            process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+        process.getOutputStream().close();
+
+        // the output must be consumed, otherwise the server blocks once the pipe is full
+        pumper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    InputStream in = process.getInputStream();
+                    try {
+                        byte[] buffer = new byte[8192];
+                        int n;
+                        while ((n = in.read(buffer)) != -1) {
+                            log.write(buffer, 0, n);
+                            log.flush();
+                        }
+                    } finally {
+                        in.close();
+                        log.close();
+                    }
+                    int exitCode = process.waitFor();
+                    if (!destroyed) {
+                        error.set(new IllegalStateException("Server " + name + " exited with code " + exitCode +
+                                ", see " + logFile));
+                    }
+                } catch (IOException e) {
+                    if (!destroyed) {
+                        error.set(e);
+                    }
+                } catch (InterruptedException e) {
+                    // destroyed
+                }
+            }
+        }, "autobahntestsuite-server-" + name);
+        pumper.setDaemon(true);
+        pumper.start();
+
+        // make sure the server does not outlive maven, even if the build is aborted
+        shutdownHook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                process.destroy();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Destroy the server and wait up to {@code timeoutMillis} for it to exit. Returns {@code false} if it is still
+     * running afterwards.
+     */
+    boolean destroy(long timeoutMillis) {
+        if (process == null) {
+            return true;
+        }
+        destroyed = true;
+        process.destroy();
+        boolean exited;
+        try {
+            exited = waitFor(timeoutMillis);
+            pumper.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exited = false;
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // the JVM is shutting down already and the hook takes care
+        }
+        return exited;
+    }
+
+    private boolean waitFor(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (;;) {
+            try {
+                process.exitValue();
+                return true;
+            } catch (IllegalThreadStateException e) {
+                // still running
+            }
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    File logFile() {
+        return logFile;
+    }
+}
@@ -38,21 +38,64 @@ public class FuzzingCaseResult {
             }
             return valueOf(value);
         }
+
+        /**
+         * Returns {@code true} if a case with this behavior failed. {@link #NON_STRICT} only counts as failure if
+         * {@code failOnNonStrict} is set.
+         */
+        boolean isFailure(boolean failOnNonStrict) {
+            if (this == NON_STRICT) {
+                return failOnNonStrict;
+            }
+            return this != OK && this != INFORMATIONAL;
+        }
     }
+    private final String agent;
     private final String caseName;
     private final Behavior behavior;
     private final Behavior behaviorClose;
     private final long duration;
     private final Long remoteCloseCode;
     private final String reportFile;
+    private final CaseResources resources;
+    private final CaseTraffic traffic;
+
+    FuzzingCaseResult(String agent, String caseName, Behavior behavior, Behavior behaviorClose, long duration,
+                      Long remoteCloseCode, String reportFile) {
+        this(agent, caseName, behavior, behaviorClose, duration, remoteCloseCode, reportFile, null, null);
+    }
 
-    FuzzingCaseResult(String caseName, Behavior behavior, Behavior behaviorClose, long duration, Long remoteCloseCode, String reportFile) {
+    private FuzzingCaseResult(String agent, String caseName, Behavior behavior, Behavior behaviorClose, long duration,
+                      Long remoteCloseCode, String reportFile, CaseResources resources, CaseTraffic traffic) {
+        this.agent = agent;
         this.caseName = caseName;
         this.behavior = behavior;
         this.behaviorClose = behaviorClose;
         this.duration = duration;
         this.remoteCloseCode = remoteCloseCode;
         this.reportFile = reportFile;
+        this.resources = resources;
+        this.traffic = traffic;
+    }
+
+    /**
+     * Returns a copy of this result with the given resources attached.
+     */
+    FuzzingCaseResult withResources(CaseResources resources) {
+        return new FuzzingCaseResult(agent, caseName, behavior, behaviorClose, duration, remoteCloseCode, reportFile,
+                resources, traffic);
+    }
+
+    /**
+     * Returns a copy of this result with the given traffic attached.
+     */
+    FuzzingCaseResult withTraffic(CaseTraffic traffic) {
+        return new FuzzingCaseResult(agent, caseName, behavior, behaviorClose, duration, remoteCloseCode, reportFile,
+                resources, traffic);
+    }
+
+    public String agent() {
+        return agent;
     }
 
     public String caseName() {
@@ -79,9 +122,24 @@ public class FuzzingCaseResult {
         return reportFile;
     }
 
+    /**
+     * The resources the server used while the case was running or {@code null} if they were not sampled.
+     */
+    public CaseResources resources() {
+        return resources;
+    }
+
+    /**
+     * The traffic of the case or {@code null} if it was not reported.
+     */
+    public CaseTraffic traffic() {
+        return traffic;
+    }
+
     @Override
     public String toString() {
-        return "[" + caseName + "] behavior: " + behavior.name() + ", behaviorClose: " + behaviorClose.name() +
-                ", duration: " + duration + "ms, remoteCloseCode: " + remoteCloseCode + ", reportFile: " + reportFile;
+        return "[" + CaseCatalog.key(this) + "] behavior: " + behavior.name() + ", behaviorClose: " + behaviorClose.name() +
+                ", duration: " + duration + "ms, remoteCloseCode: " + remoteCloseCode + ", reportFile: " + reportFile +
+                (resources == null ? "" : ", " + resources) + (traffic == null ? "" : ", " + traffic);
     }
 }
@@ -16,69 +16,69 @@
 package me.normanmaurer.maven.autobahntestsuite;
 
 
-import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 
 import org.apache.maven.plugin.MojoFailureException;
-import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
-import org.apache.maven.project.MavenProject;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.lang.reflect.Method;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.net.UnknownHostException;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Set;
 
 /**
  * Mojo which execute the FuzzingClient which is part of the <a href="http://autobahn.ws/testsuite/">Autobahn Testsuite</a>
  */
 @Mojo(name = "fuzzingclient", defaultPhase = LifecyclePhase.INTEGRATION_TEST,
-requiresDependencyResolution = ResolutionScope.TEST)
+requiresDependencyResolution = ResolutionScope.TEST, threadSafe = true)
 public class FuzzingClientMojo
-        extends AbstractMojo {
+        extends AbstractServerMojo {
     private static final List<String> ALL_CASES = Collections.unmodifiableList(Arrays.asList("*"));
-    private static final Map<String, Object> OPTIONS = Collections.<String, Object>singletonMap("version", 18);
-    private static final String AGENT = "autobahntestsuite-maven-plugin";
+    private static final int MAX_REPORTED_DURATION_CHANGES = 10;
 
     /**
-     * The IP address of the host.
+     * Controls if results of a former run are reused.
      */
-    @Parameter(property = "host")
-    private String host;
+    enum IncrementalMode {
+        /**
+         * Always run all cases.
+         */
+        OFF,
+        /**
+         * Reuse all cached results if neither the classpath nor the configuration changed.
+         */
+        REUSE,
+        /**
+         * Only rerun the cases which failed in the former run and reuse the cached results of all others.
+         */
+        FAILED;
+
+        static IncrementalMode parse(String value) throws MojoExecutionException {
+            if (value == null || value.length() == 0) {
+                return OFF;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                throw new MojoExecutionException("Unknown incremental mode " + value + ", use one of " +
+                        Arrays.toString(values()));
+            }
+        }
+    }
 
-    /**
-     * The port on which the Server will listen.
-     */
-    @Parameter(defaultValue = "-1", property="port", required = true)
-    private int port;
 
 
     /**
@@ -93,17 +93,23 @@ public class FuzzingClientMojo
     @Parameter(property = "excludeCases")
     private List<String> excludeCases;
 
+
     /**
-     * The class which is used to startup the Server. It will pass the port in as argument to the main(...) method.
+     * Set this to "true" to sample the heap, allocated bytes, garbage collections, threads and CPU time of the
+     * servers while the cases run. The values are attributed to the cases, added to the JUnit xml reports and written
+     * to {@code resources.json}. Forked servers are sampled through JMX, servers which run inside maven share their
+     * numbers with maven. Default is false.
      */
-    @Parameter(property = "mainClass", required = true)
-    private String mainClass;
+    @Parameter(property = "instrument", defaultValue = "false")
+    private boolean instrument;
 
     /**
-     * The number of milliseconds to max wait for the server to startup. Default is 10000 ms
+     * The number of milliseconds between two samples of the servers when {@code instrument} is enabled. Default is
+     * 50.
      */
-    @Parameter(property = "waitTime")
-    private long waitTime;
+    @Parameter(property = "instrumentationInterval", defaultValue = "50")
+    private long instrumentationInterval;
+
 
     /**
      * Configure if the Testsuite should be failed on non strict behaviour of the Server. Default is to not fail, as it
@@ -119,6 +125,153 @@ public class FuzzingClientMojo
     @Parameter(property = "generateJUnitXml", defaultValue = "true")
     private boolean generateJUnitXml;
 
+    /**
+     * The engine which runs the cases: {@code wstest} runs the fuzzingclient of the bundled wstest in Jython,
+     * {@code native} runs the cases of the groups 1 - 7 and 9 with a WebSocket client written in Java and only the
+     * remaining cases with wstest. No html report is written for the cases run by {@code native}. Default is
+     * {@code wstest}.
+     */
+    @Parameter(property = "engine", defaultValue = "wstest")
+    private String engine;
+
+    /**
+     * Options of the fuzzing spec, which are passed to {@code setProtocolOptions} of autobahn, e.g.
+     * {@code closeHandshakeTimeout} or {@code maxMessagePayloadSize}. {@code true} and {@code false} are passed as
+     * booleans and numbers as numbers. Default is only {@code version} 18.
+     */
+    @Parameter
+    private Map<String, String> options;
+
+    /**
+     * Groups of cases which are run with own options and may report their throughput. The groups are run one after
+     * the other, each writes its reports to an own sub-directory of the report directory.
+     */
+    @Parameter
+    private List<CaseGroup> caseGroups;
+
+    /**
+     * The max. number of milliseconds a single case may take. A case which takes longer is aborted and fails.
+     * Default is 0, which means no limit.
+     */
+    @Parameter(property = "caseTimeout", defaultValue = "0")
+    private long caseTimeout;
+
+    /**
+     * The max. number of milliseconds all cases may take together. Once it expired no further cases are started, the
+     * results of the cases which ran are reported and the build fails. Default is 0, which means no limit.
+     */
+    @Parameter(property = "timeout", defaultValue = "0")
+    private long timeout;
+
+    /**
+     * Stop the run once this many cases failed. The cases which ran are reported as usual, all others are not run.
+     * Default is 0, which means all cases are run.
+     */
+    @Parameter(property = "failFast", defaultValue = "0")
+    private int failFast;
+
+    /**
+     * Log every case once it is finished. Default is true.
+     */
+    @Parameter(property = "progress", defaultValue = "true")
+    private boolean progress;
+
+    /**
+     * The number of fuzzing clients which run the selected cases in parallel. Each of them gets its share of the cases
+     * and writes its reports to an own sub-directory of the report directory. Default is 1.
+     */
+    @Parameter(property = "shards", defaultValue = "1")
+    private int shards;
+
+    /**
+     * A json file with the durations of the former runs, in the same format as the {@code durationBaseline}. The
+     * durations of every run are merged into it, and if there is more than one shard the cases are split so the
+     * slowest ones are started first and all shards take about the same time. Default is
+     * {@code ${project.build.directory}/autobahntestsuite-durations.json}.
+     */
+    @Parameter(property = "durationHistory",
+            defaultValue = "${project.build.directory}/autobahntestsuite-durations.json")
+    private File durationHistory;
+
+    /**
+     * The maximal number of characters of a case report which are embedded in the JUnit xml report of a failed case.
+     * A value {@code <= 0} embeds the whole report. Default is 65536.
+     */
+    @Parameter(property = "maxReportLength", defaultValue = "65536")
+    private int maxReportLength;
+
+    /**
+     * Set this to "true" to only write the full reports (with the wire log) of the cases which did not pass strictly
+     * and of the cases of groups which report their throughput. The index still contains the behavior, duration and
+     * close code of every case. Default is false.
+     */
+    @Parameter(property = "failedReportsOnly", defaultValue = "false")
+    private boolean failedReportsOnly;
+
+    /**
+     * Set this to "false" to not write the html reports of wstest, only the json reports. Default is true.
+     */
+    @Parameter(property = "htmlReports", defaultValue = "true")
+    private boolean htmlReports;
+
+    /**
+     * Set this to "true" to move the case reports of this execution into a zip file next to their directory
+     * ({@code target/autobahntestsuite-reports.zip} by default) once the run finished. The JUnit xml reports and
+     * summaries stay in the report directory. Once archived, the results of a run with failed cases can not be reused by {@code incremental}.
+     * Default is false.
+     */
+    @Parameter(property = "archiveReports", defaultValue = "false")
+    private boolean archiveReports;
+
+    /**
+     * Allows to reuse the results of the former run, which are cached in the build directory. With {@code reuse} the
+     * cached results are used if neither the test classpath nor the configuration changed, without starting the
+     * server at all. With {@code failed} only the cases which failed before are run again. Default is {@code off}.
+     */
+    @Parameter(property = "incremental", defaultValue = "off")
+    private String incremental;
+
+    /**
+     * A json file with the duration in milliseconds of every case, which is used as baseline to detect cases which got
+     * slower. Default is to not compare durations.
+     */
+    @Parameter(property = "durationBaseline")
+    private File durationBaseline;
+
+    /**
+     * The number of percent a case may get slower than its baseline duration before it counts as regression.
+     * Default is 20.
+     */
+    @Parameter(property = "durationTolerance", defaultValue = "20")
+    private int durationTolerance;
+
+    /**
+     * The number of milliseconds a case may get slower than its baseline duration before it counts as regression,
+     * which keeps very short cases from being reported because of noise. Default is 10.
+     */
+    @Parameter(property = "durationThreshold", defaultValue = "10")
+    private long durationThreshold;
+
+    /**
+     * Configure if the build should fail when cases got slower than their baseline. Default is to only warn.
+     */
+    @Parameter(property = "failOnDurationRegression", defaultValue = "false")
+    private boolean failOnDurationRegression;
+
+    /**
+     * Set this to "true" to write the durations of this run to the {@code durationBaseline} file.
+     */
+    @Parameter(property = "updateDurationBaseline", defaultValue = "false")
+    private boolean updateDurationBaseline;
+
+    /**
+     * A binary file to which the results of every run are appended, which can be queried with the {@code history}
+     * goal. Point it outside of the build directory to keep it across clean builds. Default is
+     * {@code ${project.build.directory}/autobahntestsuite-history.bin}.
+     */
+    @Parameter(property = "resultHistory", defaultValue = "${project.build.directory}/autobahntestsuite-history.bin")
+    private File resultHistory;
+
     /**
      * Allow to skip execution of plugin
      */
@@ -132,25 +285,49 @@ public class FuzzingClientMojo
     @Parameter( property = "maven.test.failure.ignore", defaultValue = "false" )
     private boolean testFailureIgnore;
 
-    @Component
-    private MavenProject project;
+    /**
+     * A list of cases which are run repeatedly after the test to collect statistics about their durations, which are
+     * written to {@code benchmark-summary.json}. Default is to run no benchmark.
+     */
+    @Parameter(property = "benchmarkCases")
+    private List<String> benchmarkCases;
 
-    @SuppressWarnings("unchecked")
-    private ClassLoader getClassLoader() throws MojoExecutionException {
-        try {
-            List<String> classpathElements = project.getTestClasspathElements();
-            classpathElements.add(project.getBuild().getOutputDirectory() );
-            classpathElements.add(project.getBuild().getTestOutputDirectory() );
-            URL urls[] = new URL[classpathElements.size()];
+    /**
+     * The number of measured iterations of the benchmark cases. Default is 5.
+     */
+    @Parameter(property = "benchmarkIterations", defaultValue = "5")
+    private int benchmarkIterations;
 
-            for ( int i = 0; i < classpathElements.size(); i++) {
-                urls[i] = new File(classpathElements.get(i)).toURI().toURL();
-            }
-            return new URLClassLoader(urls, getClass().getClassLoader());
-        } catch (Exception e) {
-            throw new MojoExecutionException("Couldn't create a classloader", e);
-        }
-    }
+    /**
+     * The number of iterations of the benchmark cases which are run before the measured iterations and are
+     * discarded. Default is 1.
+     */
+    @Parameter(property = "benchmarkWarmupIterations", defaultValue = "1")
+    private int benchmarkWarmupIterations;
+
+    /**
+     * A list of network profiles the cases are run under after the test, each with an own {@code name} and optional
+     * {@code bandwidth} (bytes per second), {@code segmentSize} (bytes) and {@code latency} (ms). The fuzzingclient
+     * connects through a proxy which shapes the traffic in both directions. The durations are compared with the ones
+     * of the test in {@code network-profiles.json}, failures are only logged. Default is to run no profiles.
+     */
+    @Parameter
+    private List<NetworkProfile> networkProfiles;
+
+    /**
+     * The cases which are run under the network profiles. Default is the selected cases of the test.
+     */
+    @Parameter(property = "networkProfileCases")
+    private List<String> networkProfileCases;
+
+
+    private FuzzingEngine fuzzingEngine;
+    private Map<String, Object> fuzzingOptions;
+    private final List<String> notRun = new ArrayList<String>();
+    private boolean failedFast;
+    private final Map<String, Integer> jmxPorts = new HashMap<String, Integer>();
+    // the directories this execution wrote case reports to, the only ones which are archived
+    private final Set<File> outdirs = new LinkedHashSet<File>();
 
     @Override
     public void execute()
@@ -160,210 +337,662 @@ public class FuzzingClientMojo
             getLog().info("Skip execution of autobahntestsuite-maven-plugin");
             return;
         }
-        final AtomicReference<Exception> error = new AtomicReference<Exception>();
-        Thread runner = null;
+        if (cases == null || cases.isEmpty()) {
+            cases = ALL_CASES;
+        }
+        if (excludeCases == null) {
+            excludeCases = Collections.emptyList();
+        }
+        if (caseGroups == null) {
+            caseGroups = Collections.emptyList();
+        }
+        initServers();
+        validateCases();
+        validateNetworkProfiles();
+        if (CaseCatalog.resolve(cases, excludeCases).isEmpty()) {
+            getLog().warn("No cases selected, skipping the fuzzingclient");
+            return;
+        }
+
+        IncrementalMode mode = IncrementalMode.parse(incremental);
+        fuzzingEngine = parseEngine(engine, newReportFilter());
+        fuzzingOptions = FuzzingOptions.merge(FuzzingOptions.DEFAULT, options);
+        List<String> classpathElements = getClasspathElements();
+        String classpathFingerprint = ResultCache.classpathFingerprint(classpathElements);
+        String selectionFingerprint = ResultCache.selectionFingerprint(Arrays.asList(
+                String.valueOf(servers), String.valueOf(fork), String.valueOf(jvmArgs), String.valueOf(fuzzingOptions),
+                String.valueOf(cases), String.valueOf(excludeCases), String.valueOf(engine),
+                String.valueOf(caseGroups), String.valueOf(caseTimeout), String.valueOf(timeout),
+                String.valueOf(failFast)));
+        File cacheFile = executionFile("autobahntestsuite-cache", ".json");
+        ResultCache cache = null;
+        if (mode != IncrementalMode.OFF) {
+            cache = ResultCache.load(cacheFile);
+            if (cache != null && (!selectionFingerprint.equals(cache.selectionFingerprint()) || !cache.hasReports())) {
+                getLog().info("Cached results do not match the current configuration, running all cases");
+                cache = null;
+            }
+        }
+
         try {
-            if (host == null) {
-                try {
-                    host = InetAddress.getLocalHost().getHostAddress();
-                } catch (UnknownHostException e) {
-                    getLog().debug("Unable to detect localhost address, using 127.0.0.1 as fallback");
-                    host = "127.0.0.1";
+            execute(mode, classpathElements, cache, cacheFile, classpathFingerprint, selectionFingerprint);
+        } finally {
+            stopServers();
+        }
+    }
+
+    /**
+     * Fail on case patterns which do not match any case before anything is started, as wstest would only fail once
+     * the servers are up.
+     */
+    private void validateCases() throws MojoExecutionException {
+        List<String> unmatched = CaseCatalog.unmatched(cases);
+        if (!unmatched.isEmpty()) {
+            throw new MojoExecutionException("Cases " + unmatched + " do not match any case of the testsuite");
+        }
+        if (benchmarkCases != null) {
+            unmatched = CaseCatalog.unmatched(benchmarkCases);
+            if (!unmatched.isEmpty()) {
+                throw new MojoExecutionException("Benchmark cases " + unmatched + " do not match any case of the " +
+                        "testsuite");
+            }
+        }
+        unmatched = CaseCatalog.unmatched(excludeCases);
+        for (CaseGroup group: caseGroups) {
+            unmatched.addAll(CaseCatalog.unmatched(group.getCases()));
+        }
+        if (!unmatched.isEmpty()) {
+            getLog().warn("Case patterns " + unmatched + " do not match any case of the testsuite");
+        }
+    }
+
+    private void validateNetworkProfiles() throws MojoExecutionException {
+        if (networkProfiles == null) {
+            return;
+        }
+        if (networkProfileCases != null) {
+            List<String> unmatched = CaseCatalog.unmatched(networkProfileCases);
+            if (!unmatched.isEmpty()) {
+                throw new MojoExecutionException("Network profile cases " + unmatched + " do not match any case of " +
+                        "the testsuite");
+            }
+        }
+        Set<String> names = new HashSet<String>();
+        for (NetworkProfile profile: networkProfiles) {
+            if (profile.getName() == null || profile.getName().length() == 0) {
+                throw new MojoExecutionException("No name configured for network profile " + profile);
+            }
+            if (ShapingReport.DIRECT.equals(profile.getName()) || !names.add(profile.getName())) {
+                throw new MojoExecutionException("Network profile " + profile.getName() + " is configured more " +
+                        "than once");
+            }
+        }
+    }
+
+    private ReportFilter newReportFilter() {
+        if (htmlReports && !failedReportsOnly) {
+            return ReportFilter.ALL;
+        }
+        Set<String> keepCases = new HashSet<String>();
+        for (CaseGroup group: caseGroups) {
+            if (group.isReportThroughput()) {
+                // the throughput is read from the reports
+                keepCases.addAll(CaseCatalog.resolve(group.getCases(), Collections.<String>emptyList()));
+            }
+        }
+        return new ReportFilter(htmlReports, failedReportsOnly, keepCases);
+    }
+
+    private static FuzzingEngine parseEngine(String value, ReportFilter reports) throws MojoExecutionException {
+        String name = value == null ? "" : value.trim();
+        if (name.length() == 0 || "wstest".equalsIgnoreCase(name)) {
+            return reports == ReportFilter.ALL ? AutobahnTestSuite.WSTEST : new WsTestEngine(reports);
+        }
+        if ("native".equalsIgnoreCase(name)) {
+            return reports == ReportFilter.ALL ? AutobahnTestSuite.NATIVE :
+                    new NativeEngine(new WsTestEngine(reports), reports);
+        }
+        throw new MojoExecutionException("Unknown engine " + value + ", use one of [wstest, native]");
+    }
+
+    private void execute(IncrementalMode mode, List<String> classpathElements, ResultCache cache, File cacheFile,
+                         String classpathFingerprint, String selectionFingerprint)
+            throws MojoExecutionException, MojoFailureException {
+        List<FuzzingCaseResult> results;
+        boolean reused = false;
+        if (cache != null && classpathFingerprint.equals(cache.classpathFingerprint())
+                && (mode == IncrementalMode.REUSE || getFailures(cache.results()).isEmpty())) {
+            getLog().info("Classpath did not change, reusing " + cache.results().size() + " cached results");
+            results = cache.results();
+            reused = true;
+        } else if (cache != null && mode == IncrementalMode.FAILED) {
+            // a case is rerun against all servers if it failed for any of them
+            Set<String> rerun = new LinkedHashSet<String>();
+            for (FuzzingCaseResult result: cache.results()) {
+                if (isFailure(result)) {
+                    rerun.add(result.caseName());
                 }
             }
-            if (port == -1) {
-                // Get some random free port
-                port = AutobahnUtils.getFreePort(host);
-            }
-            runner = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        Thread.currentThread().setContextClassLoader(getClassLoader());
-                        Class<?> clazz = Thread.currentThread().getContextClassLoader().loadClass(mainClass);
-                        Method main = clazz.getMethod("main", String[].class);
-                        main.invoke(null, (Object) new String[] { String.valueOf(port) });
-                    } catch (Exception e) {
-                        error.set(e);
-                    }
+            results = new ArrayList<FuzzingCaseResult>();
+            for (FuzzingCaseResult result: cache.results()) {
+                if (!rerun.contains(result.caseName())) {
+                    results.add(result);
                 }
-            });
-            runner.setDaemon(true);
-            runner.start();
+            }
+            if (rerun.isEmpty()) {
+                getLog().info("No previously failed cases, reusing " + results.size() + " cached results");
+            } else {
+                getLog().info("Rerunning " + rerun.size() + " previously failed cases");
+                results.addAll(runFuzzingClient(classpathElements, new ArrayList<String>(rerun),
+                        Collections.<String>emptyList()));
+                CaseCatalog.sort(results);
+            }
+        } else {
+            results = runFuzzingClient(classpathElements, cases, excludeCases);
+        }
+
+        if (failedFast) {
+            // the run is broken anyway, so neither the servers nor a benchmark are needed anymore
+            stopServers();
+        } else {
+            if (networkProfiles != null && !networkProfiles.isEmpty()) {
+                runNetworkProfiles(classpathElements, results);
+            }
+            if (benchmarkCases != null && !benchmarkCases.isEmpty() && benchmarkIterations > 0) {
+                runBenchmark(classpathElements);
+            }
+        }
+
+        results = reportThroughput(results);
+
+        if (resultHistory != null && !reused && !results.isEmpty()) {
             try {
-                // wait for 50 milliseconds to give the server some time to startup
-                Thread.sleep(500);
-            } catch (InterruptedException ignore) {
-                Thread.currentThread().interrupt();
-            }
-            if (waitTime <= 0) {
-                // use 10 seconds as default
-                waitTime = 10000;
-            }
-
-            // Wait until the server accepts connections
-            long sleepTime = waitTime / 10;
-            for (int i = 0; i < 10; i++) {
-                Throwable cause = error.get();
-                if (cause != null) {
-                    throw new MojoExecutionException("Unable to start server", cause);
-                }
-                Socket socket = new Socket();
-                try {
-                    socket.connect( new InetSocketAddress(host, port));
-                    break;
-                } catch (IOException e) {
-                    try {
-                        Thread.sleep(sleepTime);
-                    } catch (InterruptedException ignore) {
-                        // restore interrupt state
-                        Thread.currentThread().interrupt();
-                    }
-                } finally {
-                    try {
-                        socket.close();
-                    } catch (IOException e) {
-                        // ignore
-                    }
-                }
-                if (i == 9) {
-                    throw new MojoExecutionException("Unable to connect to server in " + waitTime, error.get());
-                }
+                ResultHistory.append(resultHistory, System.currentTimeMillis(), project.getVersion(), results);
+            } catch (IOException e) {
+                getLog().warn("Unable to append the results to " + resultHistory, e);
             }
+        }
 
-            if (cases == null || cases.isEmpty()) {
-                cases = ALL_CASES;
+        if (instrument) {
+            File file = reportFile("resources.json");
+            try {
+                ResourceMonitor.write(file, results);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to write " + file, e);
             }
-            if (excludeCases == null) {
-                excludeCases = Collections.emptyList();
+        }
+
+        if (mode != IncrementalMode.OFF && notRun.isEmpty()) {
+            try {
+                new ResultCache(classpathFingerprint, selectionFingerprint, results).store(cacheFile);
+            } catch (IOException e) {
+                getLog().warn("Unable to store results in " + cacheFile, e);
             }
-            List<FuzzingCaseResult> results = AutobahnTestSuite.runFuzzingClient(
-                    AGENT, "ws://" + host + ":" + port,  OPTIONS, cases, excludeCases);
+        }
 
-            if (generateJUnitXml) {
+        if (generateJUnitXml) {
+            try {
+                writeJUnitXmlReport(results);
+            } catch (Exception e) {
+                throw new MojoExecutionException("Unable to generate JUnit Xml", e);
+            }
+        }
+        if (archiveReports && !reused) {
+            archiveReports();
+        }
+        if (servers.size() > 1) {
+            compareAgents(results);
+        }
+        DurationBaseline.Comparison durations = compareDurations(results);
+
+        if (!notRun.isEmpty() && !failedFast && !testFailureIgnore) {
+            throw new MojoFailureException("The cases did not finish within " + timeout + " ms, " + notRun.size() +
+                    " cases were not run: " + notRun);
+        }
+        List<FuzzingCaseResult> failed = getFailures(results);
+        if (!failed.isEmpty()&&!testFailureIgnore) {
+            StringBuilder sb = new StringBuilder("\nFailed test cases:\n");
+            for (FuzzingCaseResult result: failed) {
+                sb.append("\t");
+                sb.append(result.toString());
+                sb.append("\n");
+            }
+            throw new MojoFailureException(sb.toString());
+        } else {
+            getLog().info("All test cases passed" );
+        }
+        if (failOnDurationRegression && durations != null && !durations.regressions().isEmpty()) {
+            throw new MojoFailureException(durations.regressions().size() + " test cases got slower than " +
+                    durationBaseline + "\n" + durations.format(MAX_REPORTED_DURATION_CHANGES));
+        }
+    }
+
+    private void archiveReports() throws MojoExecutionException {
+        File caseReports = caseReportDirectory();
+        File archive = new File(caseReports.getPath() + ".zip");
+        try {
+            int packed = ReportArchive.pack(caseReports, outdirs, archive);
+            getLog().info("Moved " + packed + " reports to " + archive);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to archive the reports to " + archive, e);
+        }
+    }
+
+    /**
+     * Log the durations of all agents side by side and write them to the report directory.
+     */
+    private void compareAgents(List<FuzzingCaseResult> results) throws MojoExecutionException {
+        List<String> agents = new ArrayList<String>();
+        for (Server server: servers) {
+            agents.add(server.getAgent());
+        }
+        AgentComparison comparison = new AgentComparison(agents, results);
+        getLog().info(comparison.format());
+        File file = reportFile("agent-durations.json");
+        try {
+            comparison.write(file);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write " + file, e);
+        }
+    }
+
+    private DurationBaseline.Comparison compareDurations(List<FuzzingCaseResult> results)
+            throws MojoExecutionException {
+        if (durationBaseline == null) {
+            return null;
+        }
+        DurationBaseline.Comparison comparison = null;
+        if (durationBaseline.isFile()) {
+            try {
+                comparison = DurationBaseline.load(durationBaseline).compare(results, durationTolerance,
+                        durationThreshold);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to read duration baseline " + durationBaseline, e);
+            }
+            String report = comparison.format(MAX_REPORTED_DURATION_CHANGES);
+            if (comparison.regressions().isEmpty()) {
+                getLog().info(report);
+            } else {
+                getLog().warn(report);
+            }
+        } else if (!updateDurationBaseline) {
+            getLog().warn("Duration baseline " + durationBaseline + " does not exist, use updateDurationBaseline " +
+                    "to create it");
+        }
+        if (updateDurationBaseline) {
+            try {
+                DurationBaseline.store(durationBaseline, results);
+                getLog().info("Updated duration baseline " + durationBaseline);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to write duration baseline " + durationBaseline, e);
+            }
+        }
+        return comparison;
+    }
+
+    private List<FuzzingCaseResult> runFuzzingClient(List<String> classpathElements, List<String> cases,
+                                                     List<String> excludeCases) throws MojoExecutionException {
+        List<String> selected = CaseCatalog.resolve(cases, excludeCases);
+        if (selected.isEmpty()) {
+            return new ArrayList<FuzzingCaseResult>();
+        }
+        CaseScheduler scheduler = loadScheduler();
+        if (scheduler != null) {
+            logPredictedRunTime(scheduler, selected);
+        }
+        // prepare the interpreters while the servers start up
+        fuzzingEngine.warmUp(Math.max(1, shards));
+        Map<String, String> urls = startServers(classpathElements);
+        Timeouts timeouts = new Timeouts(caseTimeout, timeout);
+        CaseListener progressLogger = progress ? new ProgressLogger(getLog(), selected.size() * urls.size()) : null;
+        FailFast failFastListener = failFast > 0 ? new FailFast(timeouts, failFast, failOnNonStrict) : null;
+        List<FuzzingCaseResult> results;
+        if (!instrument) {
+            results = runCaseGroups(urls, cases, excludeCases, scheduler, timeouts,
+                    CaseListeners.of(progressLogger, failFastListener));
+        } else {
+            ResourceMonitor monitor = newResourceMonitor();
+            monitor.start();
+            try {
+                results = runCaseGroups(urls, cases, excludeCases, scheduler, timeouts,
+                        CaseListeners.of(monitor, progressLogger, failFastListener));
+            } finally {
                 try {
-                    writeJUnitXmlReport(results);
-                } catch (Exception e) {
-                    throw new MojoExecutionException("Unable to generate JUnit Xml", e);
+                    monitor.stop();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
             }
-            List<FuzzingCaseResult> failed = new ArrayList<FuzzingCaseResult>();
-            for (FuzzingCaseResult result: results) {
-                FuzzingCaseResult.Behavior behavior = result.behavior();
-                if (failOnNonStrict && behavior == FuzzingCaseResult.Behavior.NON_STRICT) {
-                    failed.add(result);
-                } else if (behavior!= FuzzingCaseResult.Behavior.OK
-                        && behavior != FuzzingCaseResult.Behavior.INFORMATIONAL
-                        && behavior != FuzzingCaseResult.Behavior.NON_STRICT) {
-                    failed.add(result);
+            results = monitor.attach(results);
+        }
+        failedFast = failFastListener != null && failFastListener.failed();
+        if (timeouts.expired()) {
+            recordNotRun(results, urls.keySet(), selected);
+        }
+        updateDurationHistory(results);
+        return results;
+    }
+
+    /**
+     * Returns the scheduler for the durations of the former runs, or {@code null} if there are no durations yet.
+     */
+    private CaseScheduler loadScheduler() {
+        if (durationHistory == null || !durationHistory.isFile()) {
+            return null;
+        }
+        try {
+            return new CaseScheduler(DurationBaseline.load(durationHistory).durations());
+        } catch (IOException e) {
+            getLog().warn("Unable to read duration history " + durationHistory + ", splitting cases round-robin", e);
+            return null;
+        }
+    }
+
+    /**
+     * Log how long the selected cases are expected to take, as the groups run one after the other and the shards of
+     * every group side by side.
+     */
+    private void logPredictedRunTime(CaseScheduler scheduler, List<String> selected) {
+        List<String> agents = new ArrayList<String>();
+        for (Server server: servers) {
+            agents.add(server.getAgent());
+        }
+        long predicted = 0;
+        for (List<String> group: FuzzingOptions.group(fuzzingOptions, caseGroups, selected).values()) {
+            predicted += scheduler.predictRun(group, shards, agents);
+        }
+        getLog().info("Running " + selected.size() + " cases against " + agents.size() + " servers, predicted to " +
+                "take " + predicted + " ms");
+    }
+
+    private void updateDurationHistory(List<FuzzingCaseResult> results) {
+        if (durationHistory == null || results.isEmpty()) {
+            return;
+        }
+        try {
+            DurationBaseline.update(durationHistory, results);
+        } catch (IOException e) {
+            getLog().warn("Unable to update duration history " + durationHistory, e);
+        }
+    }
+
+    /**
+     * Remember the cases which were not run because the run timed out or failed fast.
+     */
+    private void recordNotRun(List<FuzzingCaseResult> results, Set<String> agents, List<String> selected) {
+        Set<String> ran = new HashSet<String>();
+        for (FuzzingCaseResult result: results) {
+            ran.add(CaseCatalog.key(result));
+        }
+        for (String agent: agents) {
+            for (String id: selected) {
+                String key = CaseCatalog.key(agent, id);
+                if (!ran.contains(key)) {
+                    notRun.add(key);
                 }
             }
-            if (!failed.isEmpty()&&!testFailureIgnore) {
-                StringBuilder sb = new StringBuilder("\nFailed test cases:\n");
-                for (FuzzingCaseResult result: failed) {
-                    sb.append("\t");
-                    sb.append(result.toString());
-                    sb.append("\n");
-                }
-                throw new MojoFailureException(sb.toString());
-            } else {
-                getLog().info("All test cases passed" );
+        }
+        if (notRun.isEmpty()) {
+            return;
+        }
+        if (failedFast) {
+            getLog().warn("Stopped after " + failFast + " failed cases, " + notRun.size() + " cases were not run");
+        } else {
+            getLog().warn("The cases did not finish within " + timeout + " ms, " + notRun.size() +
+                    " cases were not run");
+        }
+    }
+
+    /**
+     * Run the cases with the options of their group. If all selected cases use the same options they are run at
+     * once, as if no groups were configured.
+     */
+    private List<FuzzingCaseResult> runCaseGroups(Map<String, String> urls, List<String> cases,
+                                                  List<String> excludeCases, CaseScheduler scheduler,
+                                                  Timeouts timeouts, CaseListener listener) {
+        Map<Map<String, Object>, List<String>> grouped = FuzzingOptions.group(fuzzingOptions, caseGroups,
+                CaseCatalog.resolve(cases, excludeCases));
+        if (grouped.size() <= 1) {
+            Map<String, Object> groupOptions = grouped.isEmpty() ? fuzzingOptions : grouped.keySet().iterator().next();
+            outdirs.add(caseReportDirectory());
+            return AutobahnTestSuite.runFuzzingClient(getLog(), fuzzingEngine, caseReportDirectory().getPath(), urls,
+                    groupOptions, cases, excludeCases, shards, scheduler, timeouts, listener);
+        }
+        List<FuzzingCaseResult> results = new ArrayList<FuzzingCaseResult>();
+        int i = 0;
+        for (Map.Entry<Map<String, Object>, List<String>> entry: grouped.entrySet()) {
+            if (i > 0) {
+                // the first group was announced before the servers were started
+                fuzzingEngine.warmUp(Math.max(1, shards));
             }
-        } finally {
-             if (runner != null) {
-                 runner.interrupt();
-             }
+            getLog().info("Running " + entry.getValue().size() + " cases with options " + entry.getKey());
+            String outdir = caseReportDirectory().getPath() + File.separator + "group-" + i++;
+            outdirs.add(new File(outdir));
+            results.addAll(AutobahnTestSuite.runFuzzingClient(getLog(), fuzzingEngine, outdir, urls, entry.getKey(),
+                    entry.getValue(), Collections.<String>emptyList(), shards, scheduler, timeouts,
+                    listener));
         }
+        CaseCatalog.sort(results);
+        return results;
     }
 
+    /**
+     * Run the given cases once with the options of their group, without sharding. Each group writes to an own
+     * sub-directory of {@code outdir} if there is more than one.
+     */
+    private List<FuzzingCaseResult> runGrouped(String outdir, Map<String, String> urls, List<String> selected,
+                                               Timeouts timeouts) {
+        Map<Map<String, Object>, List<String>> grouped = FuzzingOptions.group(fuzzingOptions, caseGroups, selected);
+        fuzzingEngine.warmUp(Math.max(1, grouped.size()));
+        if (grouped.size() <= 1) {
+            Map<String, Object> groupOptions = grouped.isEmpty() ? fuzzingOptions : grouped.keySet().iterator().next();
+            outdirs.add(new File(outdir));
+            return fuzzingEngine.run(getLog(), outdir, urls, groupOptions, selected, Collections.<String>emptyList(),
+                    timeouts, null);
+        }
+        List<FuzzingCaseResult> results = new ArrayList<FuzzingCaseResult>();
+        int i = 0;
+        for (Map.Entry<Map<String, Object>, List<String>> entry: grouped.entrySet()) {
+            String groupOutdir = outdir + File.separator + "group-" + i++;
+            outdirs.add(new File(groupOutdir));
+            results.addAll(fuzzingEngine.run(getLog(), groupOutdir, urls, entry.getKey(), entry.getValue(),
+                    Collections.<String>emptyList(), timeouts, null));
+        }
+        CaseCatalog.sort(results);
+        return results;
+    }
 
-    private void writeJUnitXmlReport(List<FuzzingCaseResult> results)
-            throws Exception {
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory .newInstance();
-        DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-        String className = getClass().getName();
-        int failures = 0;
-        long suiteDuration = 0;
-        Document doc = docBuilder.newDocument();
-        Element rootElement = doc.createElement("testsuite");
-        rootElement.setAttribute("name", className);
-        rootElement.setAttribute("tests", Integer.toString(results.size()));
-        rootElement.setAttribute("errors", Integer.toString(0));
-        rootElement.setAttribute("skipped", Integer.toString(0));
+    /**
+     * Attach the traffic to the results of the groups which report their throughput, and log and write it to the
+     * report directory.
+     */
+    private List<FuzzingCaseResult> reportThroughput(List<FuzzingCaseResult> results)
+            throws MojoExecutionException {
+        List<String> throughputCases = new ArrayList<String>();
+        for (CaseGroup group: caseGroups) {
+            if (group.isReportThroughput()) {
+                throughputCases.addAll(CaseCatalog.resolve(group.getCases(), Collections.<String>emptyList()));
+            }
+        }
+        if (throughputCases.isEmpty()) {
+            return results;
+        }
+        File file = reportFile("throughput.json");
+        try {
+            List<FuzzingCaseResult> attached = ThroughputReport.attach(results, new HashSet<String>(throughputCases));
+            getLog().info(ThroughputReport.format(attached));
+            ThroughputReport.write(file, attached);
+            return attached;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write " + file, e);
+        }
+    }
 
-        for (FuzzingCaseResult r: results) {
-            Element testcase = doc.createElement("testcase");
-            testcase.setAttribute("classname", "AutobahnTestCase");
-            testcase.setAttribute("name", r.caseName());
-
-            long duration = r.duration();
-            suiteDuration += duration;
-            testcase.setAttribute("time", Double.toString(duration / 1000.0));
-
-            FuzzingCaseResult.Behavior behavior = r.behavior();
-            if (failOnNonStrict && behavior == FuzzingCaseResult.Behavior.NON_STRICT) {
-                addFailure(doc,testcase,r);
-                failures++;
-            } else if (behavior!= FuzzingCaseResult.Behavior.OK
-                    && behavior != FuzzingCaseResult.Behavior.INFORMATIONAL
-                    && behavior != FuzzingCaseResult.Behavior.NON_STRICT) {
-                addFailure(doc, testcase, r);
-                failures++;
-            }
-
-            rootElement.appendChild(testcase);
-        }
-        rootElement.setAttribute("failures", Integer.toString(failures));
-        rootElement.setAttribute("time", Double.toString(suiteDuration / 1000.0));
-        doc.appendChild(rootElement);
-
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = transformerFactory.newTransformer();
-        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-
-        String filename = AutobahnTestSuite.OUTDIR + "/TEST-" + className + ".xml";
-        DOMSource source = new DOMSource(doc);
-        StreamResult result = new StreamResult(new File(filename));
-        transformer.transform(source, result);
+    private ResourceMonitor newResourceMonitor() throws MojoExecutionException {
+        ResourceMonitor monitor = new ResourceMonitor(instrumentationInterval);
+        List<String> local = new ArrayList<String>();
+        for (Server server: servers) {
+            Integer jmxPort = jmxPorts.get(server.getAgent());
+            if (jmxPort == null) {
+                local.add(server.getAgent());
+            } else {
+                try {
+                    monitor.addRemote(server.getAgent(), jmxPort);
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Unable to connect to the JMX agent of server " +
+                            server.getAgent(), e);
+                }
+            }
+        }
+        if (!local.isEmpty()) {
+            monitor.addLocal(local);
+        }
+        return monitor;
     }
 
-    private void addFailure(Document doc, Element testCase, FuzzingCaseResult result) throws IOException, ParseException {
+    /**
+     * Run the benchmark cases repeatedly and write the aggregated durations to the report directory.
+     */
+    private void runBenchmark(List<String> classpathElements) throws MojoExecutionException {
+        List<String> selected = CaseCatalog.resolve(benchmarkCases, Collections.<String>emptyList());
+        Map<String, String> urls = startServers(classpathElements);
+        DurationStatistics statistics = new DurationStatistics(benchmarkWarmupIterations, failOnNonStrict);
+        int runs = benchmarkWarmupIterations + benchmarkIterations;
+        for (int i = 0; i < runs; i++) {
+            getLog().info("Running benchmark iteration " + (i + 1) + "/" + runs +
+                    (i < benchmarkWarmupIterations ? " (warm-up)" : ""));
+            String outdir = caseReportDirectory().getPath() + File.separator + "benchmark-" + i;
+            List<FuzzingCaseResult> results = runGrouped(outdir, urls, selected, Timeouts.NONE);
+            if (i >= benchmarkWarmupIterations) {
+                statistics.add(results);
+            }
+        }
+        getLog().info(statistics.format());
+        File summary = reportFile("benchmark-summary.json");
+        try {
+            statistics.write(summary);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write " + summary, e);
+        }
+    }
 
-        JSONParser parser = new JSONParser();
-        InputStreamReader reader = null;
+    /**
+     * Run the cases again under every network profile, through a proxy per server, and compare their durations with
+     * the ones of the test.
+     */
+    private void runNetworkProfiles(List<String> classpathElements, List<FuzzingCaseResult> results)
+            throws MojoExecutionException {
+        List<String> profileCases = networkProfileCases == null || networkProfileCases.isEmpty() ?
+                CaseCatalog.resolve(cases, excludeCases) :
+                CaseCatalog.resolve(networkProfileCases, Collections.<String>emptyList());
+        Set<String> selected = new HashSet<String>(profileCases);
+        List<FuzzingCaseResult> direct = new ArrayList<FuzzingCaseResult>();
+        for (FuzzingCaseResult result: results) {
+            if (selected.contains(result.caseName())) {
+                direct.add(result);
+            }
+        }
+        ShapingReport report = new ShapingReport();
+        report.add(ShapingReport.DIRECT, direct);
 
+        Map<String, String> urls = startServers(classpathElements);
+        for (NetworkProfile profile: networkProfiles) {
+            List<ShapingProxy> proxies = new ArrayList<ShapingProxy>();
+            try {
+                Map<String, String> shapedUrls = new LinkedHashMap<String, String>();
+                for (Map.Entry<String, String> url: urls.entrySet()) {
+                    URI uri = URI.create(url.getValue());
+                    ShapingProxy proxy = new ShapingProxy(profile, uri.getHost(), uri.getPort());
+                    proxies.add(proxy);
+                    proxy.start();
+                    shapedUrls.put(url.getKey(), proxy.url());
+                }
+                getLog().info("Running " + profileCases.size() + " cases under network profile " + profile);
+                String outdir = caseReportDirectory().getPath() + File.separator + "profile-" + profile.getName();
+                report.add(profile.getName(), runGrouped(outdir, shapedUrls, profileCases,
+                        new Timeouts(caseTimeout, 0)));
+                int failed = report.failures(profile.getName());
+                if (failed > 0) {
+                    getLog().warn(failed + " cases failed under network profile " + profile.getName() + ", see " +
+                            outdir);
+                }
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to start the proxy of network profile " + profile.getName(),
+                        e);
+            } finally {
+                for (ShapingProxy proxy: proxies) {
+                    proxy.close();
+                }
+            }
+        }
+        getLog().info(report.format());
+        File summary = reportFile("network-profiles.json");
         try {
-            reader = new InputStreamReader(new FileInputStream(result.reportFile()));
-            JSONObject object = (JSONObject) parser.parse(reader);
-
-            Element sysout = doc.createElement("system-out");
-            sysout.appendChild(doc.createTextNode(object.toJSONString()));
-            testCase.appendChild(sysout);
-
-            String description = object.get("description").toString();
-            String resultText = object.get("result").toString();
-            String expected = object.get("expected").toString();
-            String received = object.get("received").toString();
-
-            StringBuffer fail = new StringBuffer();
-            fail = fail.append(description).append("\n\n");
-            fail = fail.append("Case outcome").append("\n\n");
-            fail = fail.append(resultText).append("\n\n");
-            fail = fail.append("Expected").append("\n").append(expected).append("\n\n");
-            fail = fail.append("Received").append("\n").append(received).append("\n\n");
-
-            Element failure = doc.createElement("failure");
-            failure.setAttribute("type", "behaviorMissmatch");
-            failure.appendChild(doc.createTextNode(fail.toString()));
-            testCase.appendChild(failure);
+            report.write(summary);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write " + summary, e);
+        }
+    }
 
-        } finally {
-            if (reader != null) {
-                reader.close();
+    @Override
+    List<String> forkedJvmArgs(Server server) {
+        List<String> args = super.forkedJvmArgs(server);
+        if (instrument) {
+            int jmxPort = AutobahnUtils.getFreePort("127.0.0.1");
+            jmxPorts.put(server.getAgent(), jmxPort);
+            args.addAll(ResourceMonitor.jmxJvmArgs(jmxPort));
+        }
+        return args;
+    }
+
+    @Override
+    void stopServers() {
+        super.stopServers();
+        jmxPorts.clear();
+    }
+
+    private List<FuzzingCaseResult> getFailures(List<FuzzingCaseResult> results) {
+        List<FuzzingCaseResult> failed = new ArrayList<FuzzingCaseResult>();
+        for (FuzzingCaseResult result: results) {
+            if (isFailure(result)) {
+                failed.add(result);
             }
         }
+        return failed;
+    }
 
+    private boolean isFailure(FuzzingCaseResult result) {
+        return result.behavior().isFailure(failOnNonStrict);
+    }
+
+    /**
+     * Write one JUnit xml report per agent. The report of the default server keeps the plain name of the mojo class,
+     * so existing CI configurations continue to find it.
+     */
+    private void writeJUnitXmlReport(List<FuzzingCaseResult> results)
+            throws Exception {
+        Map<String, List<FuzzingCaseResult>> byAgent = new LinkedHashMap<String, List<FuzzingCaseResult>>();
+        for (Server server: servers) {
+            byAgent.put(server.getAgent(), new ArrayList<FuzzingCaseResult>());
+        }
+        for (FuzzingCaseResult r: results) {
+            List<FuzzingCaseResult> agentResults = byAgent.get(r.agent());
+            if (agentResults != null) {
+                agentResults.add(r);
+            }
+        }
+        for (Map.Entry<String, List<FuzzingCaseResult>> entry: byAgent.entrySet()) {
+            String suiteName = getClass().getName();
+            if (!AutobahnTestSuite.DEFAULT_AGENT.equals(entry.getKey())) {
+                suiteName += "." + entry.getKey();
+            }
+            writeJUnitXmlReport(suiteName, entry.getValue());
+        }
     }
 
+    private void writeJUnitXmlReport(String suiteName, List<FuzzingCaseResult> results)
+            throws Exception {
+        File file = reportFile("TEST-" + suiteName + ".xml");
+        JUnitXmlReportWriter.write(file, suiteName, results, failOnNonStrict, maxReportLength);
+    }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the fuzzing cases against one or more servers. Every engine writes its reports in the format of the
+ * fuzzingclient (an {@code index.json} plus one json report per case), so the results can be processed the same way
+ * no matter which engine produced them.
+ */
+public interface FuzzingEngine {
+
+    /**
+     * Start to prepare what is needed to run {@code count} times in parallel, so it is ready once the engine is
+     * started.
+     */
+    void warmUp(int count);
+
+    /**
+     * Run the cases in the calling thread and write the reports to the given directory. The servers map the agent
+     * to the url of the server and are tested one after the other. The results are returned sorted by agent and case.
+     * Cases which exceed the case timeout are aborted and reported as failed, once the run timeout expired no further
+     * cases are started and only the results of the cases which ran are returned. The {@code listener} is notified
+     * about every case and may be {@code null}.
+     */
+    List<FuzzingCaseResult> run(Log log, String outdir, Map<String, String> servers, Map options,
+                                List<String> cases, List<String> excludeCases, Timeouts timeouts,
+                                CaseListener listener);
+}
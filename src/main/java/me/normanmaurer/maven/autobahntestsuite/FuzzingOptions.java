@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds the options of the fuzzing spec (see {@code setProtocolOptions} of the {@code WebSocketClientFactory} of
+ * autobahn) out of the plugin configuration, in which all values are strings.
+ */
+final class FuzzingOptions {
+
+    /**
+     * The options which are used if nothing else is configured.
+     */
+    static final Map<String, Object> DEFAULT = Collections.<String, Object>singletonMap("version", 18);
+
+    private FuzzingOptions() {
+        // Utility class
+    }
+
+    /**
+     * Returns the given options with the configured ones applied on top. {@code true} and {@code false} are passed
+     * on as booleans and numbers as integers or doubles, everything else as string.
+     */
+    static Map<String, Object> merge(Map<String, Object> options, Map<String, String> configured) {
+        if (configured == null || configured.isEmpty()) {
+            return options;
+        }
+        Map<String, Object> merged = new TreeMap<String, Object>(options);
+        for (Map.Entry<String, String> entry: configured.entrySet()) {
+            merged.put(entry.getKey(), parse(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(merged);
+    }
+
+    private static Object parse(String value) {
+        String trimmed = value == null ? "" : value.trim();
+        if ("true".equals(trimmed) || "false".equals(trimmed)) {
+            return Boolean.valueOf(trimmed);
+        }
+        try {
+            return Integer.valueOf(trimmed);
+        } catch (NumberFormatException ignore) {
+            // not an integer
+        }
+        try {
+            return Double.valueOf(trimmed);
+        } catch (NumberFormatException ignore) {
+            return trimmed;
+        }
+    }
+
+    /**
+     * Split the selected cases by the options they are run with. Every case uses the options of the first group
+     * which matches it or the given options if there is none. The map keeps the order of the selected cases.
+     */
+    static Map<Map<String, Object>, List<String>> group(Map<String, Object> options, List<CaseGroup> groups,
+                                                       List<String> selected) {
+        List<List<String>> groupCases = new ArrayList<List<String>>();
+        List<Map<String, Object>> groupOptions = new ArrayList<Map<String, Object>>();
+        for (CaseGroup group: groups) {
+            groupCases.add(CaseCatalog.resolve(group.getCases(), Collections.<String>emptyList()));
+            groupOptions.add(merge(options, group.getOptions()));
+        }
+        Map<Map<String, Object>, List<String>> grouped = new LinkedHashMap<Map<String, Object>, List<String>>();
+        for (String id: selected) {
+            Map<String, Object> caseOptions = options;
+            for (int i = 0; i < groupCases.size(); i++) {
+                if (groupCases.get(i).contains(id)) {
+                    caseOptions = groupOptions.get(i);
+                    break;
+                }
+            }
+            List<String> cases = grouped.get(caseOptions);
+            if (cases == null) {
+                cases = new ArrayList<String>();
+                grouped.put(caseOptions, cases);
+            }
+            cases.add(id);
+        }
+        return grouped;
+    }
+}
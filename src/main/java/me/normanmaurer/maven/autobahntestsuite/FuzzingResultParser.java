@@ -0,0 +1,475 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the json files written by the fuzzingclient without building a tree of the whole document. Only the
+ * fields which are needed are materialized, and everything that is copied out of a case report is capped, so memory
+ * stays bounded even for the big reports of the 9.x cases.
+ */
+final class FuzzingResultParser {
+
+    private static final String TRUNCATED = " ...";
+
+    private FuzzingResultParser() {
+        // Utility class
+    }
+
+    /**
+     * Parse the {@code index.json} in the given directory and return the results of the given agent or {@code null}
+     * if there are no results for it.
+     */
+    static List<FuzzingCaseResult> parseIndex(String outdir, String agent) throws IOException, ParseException {
+        IndexHandler handler = new IndexHandler(outdir, agent);
+        parse(new File(outdir, "index.json"), handler);
+        return handler.found ? handler.results : null;
+    }
+
+    /**
+     * Parse the report of the given case. Every field of the returned {@link CaseReport} is limited to
+     * {@code maxLength} characters, a value {@code <= 0} disables the limit.
+     */
+    static CaseReport parseReport(String reportFile, int maxLength) throws IOException, ParseException {
+        ReportHandler handler = new ReportHandler(maxLength);
+        parse(new File(reportFile), handler);
+        return new CaseReport(handler.json.toString(), handler.description, handler.result, handler.expected,
+                handler.received);
+    }
+
+    /**
+     * Parse the {@code trafficStats} of the given case report or return {@code null} if the report has none.
+     */
+    static CaseTraffic parseTraffic(String reportFile) throws IOException, ParseException {
+        TrafficHandler handler = new TrafficHandler();
+        parse(new File(reportFile), handler);
+        if (!handler.found) {
+            return null;
+        }
+        return new CaseTraffic(handler.get("incomingOctetsWebSocketLevel"), handler.get("incomingOctetsAppLevel"),
+                handler.get("outgoingOctetsWebSocketLevel"), handler.get("outgoingOctetsAppLevel"));
+    }
+
+    private static void parse(File file, ContentHandler handler) throws IOException, ParseException {
+        Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            new JSONParser().parse(reader, handler);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * The parts of a case report which end up in the JUnit xml.
+     */
+    static final class CaseReport {
+        private final String json;
+        private final String description;
+        private final String result;
+        private final String expected;
+        private final String received;
+
+        CaseReport(String json, String description, String result, String expected, String received) {
+            this.json = json;
+            this.description = description;
+            this.result = result;
+            this.expected = expected;
+            this.received = received;
+        }
+
+        String json() {
+            return json;
+        }
+
+        String description() {
+            return description;
+        }
+
+        String result() {
+            return result;
+        }
+
+        String expected() {
+            return expected;
+        }
+
+        String received() {
+            return received;
+        }
+    }
+
+    private abstract static class AbstractHandler implements ContentHandler {
+        int depth;
+
+        @Override
+        public void startJSON() {
+        }
+
+        @Override
+        public void endJSON() {
+        }
+
+        @Override
+        public boolean startObject() {
+            depth++;
+            return true;
+        }
+
+        @Override
+        public boolean endObject() {
+            depth--;
+            return true;
+        }
+
+        @Override
+        public boolean endObjectEntry() {
+            return true;
+        }
+
+        @Override
+        public boolean startArray() {
+            depth++;
+            return true;
+        }
+
+        @Override
+        public boolean endArray() {
+            depth--;
+            return true;
+        }
+    }
+
+    /**
+     * Handles {@code {"agent": {"case": {"behavior": ..., ...}}}}.
+     */
+    private static final class IndexHandler extends AbstractHandler {
+        private final List<FuzzingCaseResult> results = new ArrayList<FuzzingCaseResult>();
+        private final String outdir;
+        private final String agent;
+        private boolean found;
+        private boolean inAgent;
+        private String caseName;
+        private String key;
+        private String behavior;
+        private String behaviorClose;
+        private Number duration;
+        private Number remoteCloseCode;
+        private String reportFile;
+
+        IndexHandler(String outdir, String agent) {
+            this.outdir = outdir;
+            this.agent = agent;
+        }
+
+        @Override
+        public boolean startObjectEntry(String key) {
+            if (depth == 1) {
+                inAgent = agent.equals(key);
+                found |= inAgent;
+            } else if (inAgent && depth == 2) {
+                caseName = key;
+                behavior = null;
+                behaviorClose = null;
+                duration = null;
+                remoteCloseCode = null;
+                reportFile = null;
+            } else if (inAgent && depth == 3) {
+                this.key = key;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean primitive(Object value) {
+            if (!inAgent || depth != 3) {
+                return true;
+            }
+            if ("behavior".equals(key)) {
+                behavior = (String) value;
+            } else if ("behaviorClose".equals(key)) {
+                behaviorClose = (String) value;
+            } else if ("duration".equals(key)) {
+                duration = (Number) value;
+            } else if ("remoteCloseCode".equals(key)) {
+                remoteCloseCode = (Number) value;
+            } else if ("reportfile".equals(key)) {
+                reportFile = (String) value;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean endObject() {
+            if (inAgent && depth == 3) {
+                Long code;
+                if (remoteCloseCode == null) {
+                    code = null;
+                } else {
+                    code = remoteCloseCode.longValue();
+                }
+                results.add(new FuzzingCaseResult(agent, caseName,
+                        FuzzingCaseResult.Behavior.parse(behavior), FuzzingCaseResult.Behavior.parse(behaviorClose),
+                        duration.longValue(), code, outdir + File.separator + reportFile));
+            }
+            return super.endObject();
+        }
+    }
+
+    /**
+     * Collects the numbers of the top-level {@code trafficStats} object of a case report.
+     */
+    private static final class TrafficHandler extends AbstractHandler {
+        private final Map<String, Number> values = new HashMap<String, Number>();
+        private boolean inTraffic;
+        private boolean found;
+        private String key;
+
+        @Override
+        public boolean startObjectEntry(String key) {
+            if (depth == 1) {
+                inTraffic = "trafficStats".equals(key);
+            } else if (inTraffic && depth == 2) {
+                this.key = key;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean startObject() {
+            found |= inTraffic && depth == 1;
+            return super.startObject();
+        }
+
+        @Override
+        public boolean primitive(Object value) {
+            if (inTraffic && depth == 2 && value instanceof Number) {
+                values.put(key, (Number) value);
+            }
+            return true;
+        }
+
+        long get(String key) {
+            Number value = values.get(key);
+            return value == null ? 0 : value.longValue();
+        }
+    }
+
+    /**
+     * Re-serializes the whole report (capped) and extracts the top-level fields needed for the failure message.
+     */
+    private static final class ReportHandler extends AbstractHandler {
+        private final int maxLength;
+        private final CappedJsonWriter json;
+        private CappedJsonWriter field;
+        private String fieldName;
+        private String description;
+        private String result;
+        private String expected;
+        private String received;
+
+        ReportHandler(int maxLength) {
+            this.maxLength = maxLength;
+            json = new CappedJsonWriter(maxLength);
+        }
+
+        @Override
+        public boolean startObject() {
+            json.startObject();
+            if (field != null) {
+                field.startObject();
+            }
+            return super.startObject();
+        }
+
+        @Override
+        public boolean endObject() {
+            json.endObject();
+            super.endObject();
+            if (field != null) {
+                field.endObject();
+                fieldDone();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean startArray() {
+            json.startArray();
+            if (field != null) {
+                field.startArray();
+            }
+            return super.startArray();
+        }
+
+        @Override
+        public boolean endArray() {
+            json.endArray();
+            super.endArray();
+            if (field != null) {
+                field.endArray();
+                fieldDone();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean startObjectEntry(String key) {
+            json.key(key);
+            if (field != null) {
+                field.key(key);
+            } else if (depth == 1 && ("description".equals(key) || "result".equals(key)
+                    || "expected".equals(key) || "received".equals(key))) {
+                fieldName = key;
+                field = new CappedJsonWriter(maxLength);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean primitive(Object value) {
+            json.value(value);
+            if (field != null) {
+                if (depth == 1) {
+                    // plain values are used as they are and not as json
+                    field.raw(String.valueOf(value));
+                } else {
+                    field.value(value);
+                }
+                fieldDone();
+            }
+            return true;
+        }
+
+        private void fieldDone() {
+            if (depth != 1) {
+                return;
+            }
+            String value = field.toString();
+            if ("description".equals(fieldName)) {
+                description = value;
+            } else if ("result".equals(fieldName)) {
+                result = value;
+            } else if ("expected".equals(fieldName)) {
+                expected = value;
+            } else {
+                received = value;
+            }
+            field = null;
+            fieldName = null;
+        }
+    }
+
+    /**
+     * Writes json in the same format as json-simple does, but stops once {@code maxLength} characters were written.
+     */
+    private static final class CappedJsonWriter {
+        private final StringBuilder sb = new StringBuilder();
+        private final LinkedList<Boolean> first = new LinkedList<Boolean>();
+        private final int maxLength;
+        private boolean afterKey;
+        private boolean truncated;
+
+        CappedJsonWriter(int maxLength) {
+            this.maxLength = maxLength;
+        }
+
+        void startObject() {
+            beforeValue();
+            append("{");
+            first.push(Boolean.TRUE);
+        }
+
+        void endObject() {
+            first.pop();
+            append("}");
+        }
+
+        void startArray() {
+            beforeValue();
+            append("[");
+            first.push(Boolean.TRUE);
+        }
+
+        void endArray() {
+            first.pop();
+            append("]");
+        }
+
+        void key(String key) {
+            if (!first.pop()) {
+                append(",");
+            }
+            first.push(Boolean.FALSE);
+            append("\"");
+            append(JSONValue.escape(key));
+            append("\":");
+            afterKey = true;
+        }
+
+        void value(Object value) {
+            beforeValue();
+            append(JSONValue.toJSONString(value));
+        }
+
+        void raw(String value) {
+            append(value);
+        }
+
+        private void beforeValue() {
+            if (afterKey) {
+                afterKey = false;
+            } else if (!first.isEmpty()) {
+                if (!first.pop()) {
+                    append(",");
+                }
+                first.push(Boolean.FALSE);
+            }
+        }
+
+        private void append(String value) {
+            if (truncated) {
+                return;
+            }
+            if (maxLength > 0 && sb.length() + value.length() > maxLength) {
+                sb.append(value, 0, Math.max(0, maxLength - sb.length())).append(TRUNCATED);
+                truncated = true;
+            } else {
+                sb.append(value);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return sb.toString();
+        }
+    }
+}
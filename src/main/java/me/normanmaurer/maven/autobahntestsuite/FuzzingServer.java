@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.apache.maven.plugin.logging.Log;
+import org.python.util.PythonInterpreter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the fuzzingserver of the bundled {@code wstest} in a Jython interpreter, which the WebSocket clients of the
+ * project connect to. Only the WebSocket port is opened, not the web interface {@code wstest} starts next to it.
+ */
+final class FuzzingServer {
+
+    /**
+     * Listens on the port of the spec and writes the reports once {@code stopped} is counted down.
+     */
+    private static final String SERVER_HOOK =
+            "from autobahntestsuite import fuzzing\n" +
+            "from autobahn.websocket import listenWS\n" +
+            "def startFuzzingServer(spec, stopped):\n" +
+            "    factory = fuzzing.FuzzingServerFactory(spec)\n" +
+            "    listenWS(factory)\n" +
+            "    def stopIfDone():\n" +
+            "        if stopped.getCount() == 0:\n" +
+            "            factory.createReports()\n" +
+            "            reactor.stop()\n" +
+            "        else:\n" +
+            "            reactor.callLater(0.05, stopIfDone)\n" +
+            "    reactor.callLater(0.05, stopIfDone)\n" +
+            "startFuzzingServer(spec, stopped)\n";
+
+    /**
+     * Wraps the methods of the fuzzingserver which are called when a client starts a case and when its result is
+     * recorded, so a {@link CaseListener} is notified.
+     */
+    private static final String LISTENER_HOOK =
+            "from autobahntestsuite import fuzzing\n" +
+            "def hookListener(listener):\n" +
+            "    onConnect = fuzzing.FuzzingServerProtocol.onConnect\n" +
+            "    logCase = fuzzing.FuzzingFactory.logCase\n" +
+            "    def hookedOnConnect(self, connectionRequest):\n" +
+            "        res = onConnect(self, connectionRequest)\n" +
+            "        if connectionRequest.path == '/runCase':\n" +
+            "            listener.caseStarted(self.caseAgent, self.factory.CaseSet.caseClasstoId(self.Case))\n" +
+            "        return res\n" +
+            "    def hookedLogCase(self, caseResults):\n" +
+            "        logCase(self, caseResults)\n" +
+            "        listener.caseFinished(caseResults['agent'], caseResults['id'], caseResults['behavior'])\n" +
+            "    fuzzing.FuzzingServerProtocol.onConnect = hookedOnConnect\n" +
+            "    fuzzing.FuzzingFactory.logCase = hookedLogCase\n" +
+            "hookListener(listener)\n";
+
+    private final String outdir;
+    private final String host;
+    private final int port;
+    private final Map options;
+    private final List<String> cases;
+    private final List<String> excludeCases;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    private Thread reactor;
+
+    /**
+     * Create a fuzzingserver which writes its reports to {@code outdir} and runs the given cases for every client.
+     */
+    FuzzingServer(String outdir, String host, int port, Map options, List<String> cases, List<String> excludeCases) {
+        this.outdir = outdir;
+        this.host = host;
+        this.port = port;
+        this.options = options;
+        this.cases = cases;
+        this.excludeCases = excludeCases;
+    }
+
+    /**
+     * The url the clients connect to.
+     */
+    String url() {
+        return "ws://" + host + ":" + port;
+    }
+
+    String outdir() {
+        return outdir;
+    }
+
+    /**
+     * Start the fuzzingserver in the background. The {@code listener} may be {@code null}.
+     */
+    void start(final Log log, final CaseListener listener) {
+        reactor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                PythonInterpreter interp = InterpreterPool.get().acquire(log);
+                try {
+                    interp.set("spec", WsTestEngine.createFuzzingServerSpec(outdir, url(), options, cases,
+                            excludeCases));
+                    interp.set("stopped", stopped);
+                    interp.exec(WsTestEngine.QUIET_CASES_HOOK);
+                    interp.exec(WsTestEngine.TRAFFIC_HOOK);
+                    if (listener != null) {
+                        interp.set("listener", listener);
+                        interp.exec(LISTENER_HOOK);
+                    }
+                    interp.exec(SERVER_HOOK);
+                    interp.exec("reactor.run(installSignalHandlers = 0)");
+                } catch (Throwable cause) {
+                    error.set(cause);
+                } finally {
+                    interp.cleanup();
+                }
+            }
+        }, "autobahntestsuite-fuzzingserver-" + port);
+        reactor.setDaemon(true);
+        reactor.start();
+    }
+
+    /**
+     * Wait until the fuzzingserver accepts connections. Returns {@code false} if it did not get ready within
+     * {@code timeoutMillis}, the cause is available via {@link #error()} if there is one.
+     */
+    boolean await(long timeoutMillis) throws InterruptedException {
+        return ServerReadiness.await(ServerReadiness.Probe.CONNECT, host, port, timeoutMillis, error);
+    }
+
+    Throwable error() {
+        return error.get();
+    }
+
+    /**
+     * Stop the fuzzingserver, write its reports and return the results of the given agents. Agents which did not
+     * run any case have no results.
+     */
+    List<FuzzingCaseResult> stop(Collection<String> agents) throws InterruptedException {
+        stopped.countDown();
+        if (reactor != null) {
+            reactor.join();
+        }
+        Throwable cause = error.get();
+        if (cause != null) {
+            throw new IllegalStateException("Fuzzingserver on port " + port + " failed", cause);
+        }
+        List<FuzzingCaseResult> results = new ArrayList<FuzzingCaseResult>();
+        for (String agent: agents) {
+            List<FuzzingCaseResult> agentResults;
+            try {
+                agentResults = FuzzingResultParser.parseIndex(outdir, agent);
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not parse results", e);
+            }
+            if (agentResults != null) {
+                results.addAll(agentResults);
+            }
+        }
+        return results;
+    }
+}
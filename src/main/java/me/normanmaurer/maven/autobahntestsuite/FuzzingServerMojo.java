@@ -0,0 +1,405 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Mojo which starts the FuzzingServer which is part of the <a href="http://autobahn.ws/testsuite/">Autobahn
+ * Testsuite</a> and runs the WebSocket clients of the project against it.
+ */
+@Mojo(name = "fuzzingserver", defaultPhase = LifecyclePhase.INTEGRATION_TEST,
+requiresDependencyResolution = ResolutionScope.TEST, threadSafe = true)
+public class FuzzingServerMojo
+        extends AbstractReportMojo {
+    private static final List<String> ALL_CASES = Collections.unmodifiableList(Arrays.asList("*"));
+
+    /**
+     * The IP address the fuzzingserver listens on. Default is 127.0.0.1.
+     */
+    @Parameter(property = "host", defaultValue = "127.0.0.1")
+    private String host;
+
+    /**
+     * The class which is used to run the client. It will pass the url of the fuzzingserver and the agent
+     * ({@code autobahntestsuite-maven-plugin}) in as arguments to the main(...) method, which must return once all
+     * cases ran. Required if no {@code clients} are configured.
+     */
+    @Parameter(property = "mainClass")
+    private String mainClass;
+
+    /**
+     * A list of clients which are run side by side, each with an own {@code agent}, {@code mainClass} and optional
+     * {@code args}. The results are reported per agent. Default is to test the single client configured by
+     * {@code mainClass}.
+     */
+    @Parameter
+    private List<Client> clients;
+
+    /**
+     * A list of cases to run during the test. Default is to run all cases.
+     */
+    @Parameter(property = "cases")
+    private List<String> cases;
+
+    /**
+     * A list of cases to exclude during the test. Default is to exclude none.
+     */
+    @Parameter(property = "excludeCases")
+    private List<String> excludeCases;
+
+    /**
+     * Options of the fuzzingserver (see {@code setProtocolOptions} of the {@code WebSocketServerFactory} of
+     * autobahn).
+     */
+    @Parameter
+    private Map<String, String> options;
+
+    /**
+     * The number of fuzzingservers the cases are split over. Every client runs against all of them at the same
+     * time, each run in an own class loader. Every fuzzingserver writes its reports to an own {@code shard-<n>}
+     * sub-directory. Default is 1.
+     */
+    @Parameter(property = "shards", defaultValue = "1")
+    private int shards;
+
+    /**
+     * The number of milliseconds to max wait for the fuzzingserver to startup. Default is 60000 ms.
+     */
+    @Parameter(property = "waitTime", defaultValue = "60000")
+    private long waitTime;
+
+    /**
+     * The maximal number of milliseconds the clients may take to run all cases. The clients which did not finish by
+     * then are interrupted and the results of the cases which ran are reported. {@code 0} disables the timeout.
+     * Default is 0.
+     */
+    @Parameter(property = "timeout", defaultValue = "0")
+    private long timeout;
+
+    /**
+     * Configure if cases with non strict behaviour count as failed. Default is false.
+     */
+    @Parameter(property = "failOnNonStrict")
+    private boolean failOnNonStrict;
+
+    /**
+     * Configure if a JUnit xml report is generated per client. Default is true.
+     */
+    @Parameter(property = "generateJUnitXml", defaultValue = "true")
+    private boolean generateJUnitXml;
+
+    /**
+     * The maximal number of characters of each field of a case report which is added to the JUnit xml reports.
+     * Default is 65536.
+     */
+    @Parameter(property = "maxReportLength", defaultValue = "65536")
+    private int maxReportLength;
+
+    /**
+     * Log every case as soon as it is finished. Default is true.
+     */
+    @Parameter(property = "progress", defaultValue = "true")
+    private boolean progress;
+
+    /**
+     * Allow to skip execution of plugin
+     */
+    @Parameter(property = "skip", defaultValue = "false")
+    private boolean skip;
+
+    /**
+     * Set this to "true" to ignore a failure during testing.
+     */
+    @Parameter( property = "maven.test.failure.ignore", defaultValue = "false" )
+    private boolean testFailureIgnore;
+
+    @Override
+    public void execute()
+            throws MojoExecutionException, MojoFailureException {
+
+        if (skip) {
+            getLog().info("Skip execution of autobahntestsuite-maven-plugin");
+            return;
+        }
+        if (cases == null || cases.isEmpty()) {
+            cases = ALL_CASES;
+        }
+        if (excludeCases == null) {
+            excludeCases = Collections.emptyList();
+        }
+        initClients();
+        List<String> unmatched = CaseCatalog.unmatched(cases);
+        if (!unmatched.isEmpty()) {
+            throw new MojoExecutionException("Cases " + unmatched + " do not match any case of the testsuite");
+        }
+        List<String> resolved = CaseCatalog.resolve(cases, excludeCases);
+        if (resolved.isEmpty()) {
+            getLog().warn("No cases selected, skipping the fuzzingserver");
+            return;
+        }
+
+        Map<String, Object> serverOptions = FuzzingOptions.merge(Collections.<String, Object>emptyMap(), options);
+        // every fuzzingserver gets the exact list of its cases
+        List<List<String>> split = CaseCatalog.split(resolved, shards);
+        List<String> shardExcludeCases = Collections.emptyList();
+        List<String> agents = new ArrayList<String>();
+        for (Client client: clients) {
+            agents.add(client.getAgent());
+        }
+        List<String> classpathElements = ProjectClasspath.elements(project);
+        CaseListener listener = progress ? new ProgressLogger(getLog(), resolved.size() * clients.size()) : null;
+
+        InterpreterPool.get().warmUp(split.size());
+        List<FuzzingServer> fuzzingServers = new ArrayList<FuzzingServer>();
+        List<FuzzingCaseResult> results = new ArrayList<FuzzingCaseResult>();
+        List<String> clientErrors = new ArrayList<String>();
+        boolean ran = false;
+        try {
+            for (int i = 0; i < split.size(); i++) {
+                String outdir = caseReportDirectory().getPath() + File.separator + "clients";
+                if (split.size() > 1) {
+                    outdir += File.separator + "shard-" + i;
+                }
+                FuzzingServer server = new FuzzingServer(outdir, host, AutobahnUtils.getFreePort(host), serverOptions,
+                        split.get(i), shardExcludeCases);
+                fuzzingServers.add(server);
+                server.start(getLog(), listener);
+            }
+            awaitServers(fuzzingServers);
+            clientErrors.addAll(runClients(classpathElements, fuzzingServers));
+            ran = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while running the clients", e);
+        } finally {
+            stopServers(fuzzingServers, agents, results, ran);
+        }
+        CaseCatalog.sort(results);
+
+        Map<String, List<FuzzingCaseResult>> byAgent = new LinkedHashMap<String, List<FuzzingCaseResult>>();
+        for (String agent: agents) {
+            byAgent.put(agent, new ArrayList<FuzzingCaseResult>());
+        }
+        for (FuzzingCaseResult result: results) {
+            byAgent.get(result.agent()).add(result);
+        }
+        for (Map.Entry<String, List<FuzzingCaseResult>> entry: byAgent.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                clientErrors.add("No results for " + entry.getKey() + ", make sure the client connects with " +
+                        "?agent=" + entry.getKey());
+            }
+        }
+
+        if (generateJUnitXml) {
+            try {
+                for (Map.Entry<String, List<FuzzingCaseResult>> entry: byAgent.entrySet()) {
+                    String suiteName = getClass().getName();
+                    if (!AutobahnTestSuite.DEFAULT_AGENT.equals(entry.getKey())) {
+                        suiteName += "." + entry.getKey();
+                    }
+                    File file = reportFile("TEST-" + suiteName + ".xml");
+                    JUnitXmlReportWriter.write(file, suiteName, entry.getValue(), failOnNonStrict, maxReportLength);
+                }
+            } catch (Exception e) {
+                throw new MojoExecutionException("Unable to generate JUnit Xml", e);
+            }
+        }
+
+        List<FuzzingCaseResult> failed = new ArrayList<FuzzingCaseResult>();
+        for (FuzzingCaseResult result: results) {
+            if (result.behavior().isFailure(failOnNonStrict)) {
+                failed.add(result);
+            }
+        }
+        if ((!failed.isEmpty() || !clientErrors.isEmpty()) && !testFailureIgnore) {
+            StringBuilder sb = new StringBuilder();
+            for (String error: clientErrors) {
+                sb.append("\n").append(error);
+            }
+            if (!failed.isEmpty()) {
+                sb.append("\nFailed test cases:\n");
+                for (FuzzingCaseResult result: failed) {
+                    sb.append("\t");
+                    sb.append(result.toString());
+                    sb.append("\n");
+                }
+            }
+            throw new MojoFailureException(sb.toString());
+        } else {
+            getLog().info("All test cases passed" );
+        }
+    }
+
+    /**
+     * Stop all servers and collect their results, even if some of them fail. The failures are only thrown if
+     * {@code fail} is set, otherwise they are logged so they do not hide the failure which is already thrown.
+     */
+    private void stopServers(List<FuzzingServer> fuzzingServers, Collection<String> agents,
+                             List<FuzzingCaseResult> results, boolean fail) throws MojoExecutionException {
+        List<Exception> errors = new ArrayList<Exception>();
+        boolean interrupted = false;
+        for (FuzzingServer server: fuzzingServers) {
+            try {
+                results.addAll(server.stop(agents));
+            } catch (InterruptedException e) {
+                // keep on stopping the others, their reactors already got the signal to stop
+                interrupted = true;
+                errors.add(e);
+            } catch (RuntimeException e) {
+                errors.add(e);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (errors.isEmpty()) {
+            return;
+        }
+        for (int i = fail ? 1 : 0; i < errors.size(); i++) {
+            getLog().error("Unable to stop the fuzzingserver", errors.get(i));
+        }
+        if (fail) {
+            throw new MojoExecutionException("Unable to stop " + errors.size() + " of " + fuzzingServers.size() +
+                    " fuzzingservers", errors.get(0));
+        }
+    }
+
+    /**
+     * Use the single client configured by {@code mainClass} if no {@code clients} are configured and validate them.
+     */
+    private void initClients() throws MojoExecutionException {
+        if (clients == null || clients.isEmpty()) {
+            clients = Collections.singletonList(new Client(AutobahnTestSuite.DEFAULT_AGENT, mainClass, null));
+        }
+        Set<String> agents = new HashSet<String>();
+        for (Client client: clients) {
+            if (client.getAgent() == null || client.getAgent().length() == 0) {
+                throw new MojoExecutionException("No agent configured for client " + client);
+            }
+            if (client.getMainClass() == null) {
+                throw new MojoExecutionException("No mainClass configured for client " + client.getAgent());
+            }
+            if (!agents.add(client.getAgent())) {
+                throw new MojoExecutionException("Agent " + client.getAgent() + " is configured more than once");
+            }
+        }
+    }
+
+    private void awaitServers(List<FuzzingServer> fuzzingServers)
+            throws MojoExecutionException, InterruptedException {
+        long start = System.nanoTime();
+        for (FuzzingServer server: fuzzingServers) {
+            long remaining = waitTime - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (!server.await(remaining)) {
+                Throwable cause = server.error();
+                if (cause != null) {
+                    throw new MojoExecutionException("Unable to start the fuzzingserver", cause);
+                }
+                throw new MojoExecutionException("Unable to connect to the fuzzingserver in " + waitTime);
+            }
+        }
+        getLog().debug("Fuzzingserver was ready after " +
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    /**
+     * Run every client against every fuzzingserver at the same time and wait until all of them returned. Returns
+     * the errors of the clients which failed or did not finish in time.
+     */
+    private List<String> runClients(List<String> classpathElements, List<FuzzingServer> fuzzingServers)
+            throws MojoExecutionException, InterruptedException {
+        List<Thread> runners = new ArrayList<Thread>();
+        List<AtomicReference<Throwable>> errors = new ArrayList<AtomicReference<Throwable>>();
+        List<String> names = new ArrayList<String>();
+        for (Client client: clients) {
+            for (FuzzingServer server: fuzzingServers) {
+                AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+                Thread runner = newRunner(ProjectClasspath.classLoader(classpathElements), client, server.url(),
+                        error);
+                runners.add(runner);
+                errors.add(error);
+                names.add("Client " + client.getAgent() + " against " + server.url());
+                getLog().info("Running client " + client.getAgent() + " against " + server.url());
+                runner.start();
+            }
+        }
+
+        List<String> clientErrors = new ArrayList<String>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        for (int i = 0; i < runners.size(); i++) {
+            Thread runner = runners.get(i);
+            if (timeout > 0) {
+                runner.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } else {
+                runner.join();
+            }
+            if (runner.isAlive()) {
+                runner.interrupt();
+                clientErrors.add(names.get(i) + " did not finish within " + timeout + " ms");
+            } else if (errors.get(i).get() != null) {
+                getLog().error(names.get(i) + " failed", errors.get(i).get());
+                clientErrors.add(names.get(i) + " failed: " + errors.get(i).get());
+            }
+        }
+        return clientErrors;
+    }
+
+    private static Thread newRunner(final ClassLoader loader, final Client client, final String url,
+                                    final AtomicReference<Throwable> error) {
+        Thread runner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.currentThread().setContextClassLoader(loader);
+                    Class<?> clazz = loader.loadClass(client.getMainClass());
+                    Method main = clazz.getMethod("main", String[].class);
+                    List<String> args = new ArrayList<String>();
+                    args.add(url);
+                    args.add(client.getAgent());
+                    args.addAll(client.getArgs());
+                    main.invoke(null, (Object) args.toArray(new String[args.size()]));
+                } catch (InvocationTargetException e) {
+                    error.set(e.getCause());
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        }, "autobahntestsuite-client-" + client.getAgent());
+        runner.setDaemon(true);
+        return runner;
+    }
+}
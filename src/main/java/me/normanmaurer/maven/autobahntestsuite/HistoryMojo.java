@@ -0,0 +1,208 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Mojo which prints the trend of the cases in the {@code resultHistory} the fuzzingclient goal appends to, one line
+ * per case with its behavior in every run and the range of its durations.
+ */
+@Mojo(name = "history", threadSafe = true)
+public class HistoryMojo
+        extends AbstractMojo {
+
+    private static final String LEGEND = ". OK, N NON-STRICT, F FAILED, W WRONG CODE, U UNCLEAN, C FAILED BY CLIENT, " +
+            "I INFORMATIONAL, X UNIMPLEMENTED, - not run";
+
+    /**
+     * The history file which the fuzzingclient goal writes. Default is
+     * {@code ${project.build.directory}/autobahntestsuite-history.bin}.
+     */
+    @Parameter(property = "resultHistory", defaultValue = "${project.build.directory}/autobahntestsuite-history.bin")
+    private File resultHistory;
+
+    /**
+     * The cases to show. Default is all cases.
+     */
+    @Parameter(property = "cases")
+    private List<String> cases;
+
+    /**
+     * The cases to not show.
+     */
+    @Parameter(property = "excludeCases")
+    private List<String> excludeCases;
+
+    /**
+     * Only show the cases of this agent. Default is all agents.
+     */
+    @Parameter(property = "agent")
+    private String agent;
+
+    /**
+     * The number of most recent runs to show. A value {@code <= 0} shows all runs. Default is 30.
+     */
+    @Parameter(property = "runs", defaultValue = "30")
+    private int runs;
+
+    /**
+     * Set this to "true" to only show the cases whose behavior changed within the shown runs.
+     */
+    @Parameter(property = "onlyChanged", defaultValue = "false")
+    private boolean onlyChanged;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        ResultHistory history;
+        try {
+            history = ResultHistory.read(resultHistory, runs);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to read result history " + resultHistory, e);
+        }
+        if (history.runs().isEmpty()) {
+            getLog().info("No runs recorded in " + resultHistory);
+            return;
+        }
+        List<ResultHistory.Run> shown = history.runs();
+        ResultHistory.Run first = shown.get(0);
+        ResultHistory.Run last = shown.get(shown.size() - 1);
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        StringBuilder sb = new StringBuilder();
+        sb.append("Last ").append(shown.size()).append(" of ").append(history.totalRuns()).append(" runs, ")
+                .append(format.format(new Date(first.timestamp()))).append(" (").append(first.label())
+                .append(") to ").append(format.format(new Date(last.timestamp()))).append(" (")
+                .append(last.label()).append(")\n").append(LEGEND);
+
+        List<Integer> selected = select(history.names());
+        int width = 0;
+        for (int name: selected) {
+            width = Math.max(width, history.names().get(name).length());
+        }
+        int count = 0;
+        for (int name: selected) {
+            String line = formatTrend(history.names().get(name), name, shown, width);
+            if (line != null) {
+                sb.append('\n').append(line);
+                count++;
+            }
+        }
+        if (count == 0) {
+            sb.append("\nNo matching cases");
+        }
+        getLog().info(sb);
+    }
+
+    /**
+     * Returns the dictionary indexes of the selected cases, in case id order.
+     */
+    private List<Integer> select(final List<String> names) {
+        Set<String> ids = null;
+        if (cases != null && !cases.isEmpty() || excludeCases != null && !excludeCases.isEmpty()) {
+            List<String> include = cases == null || cases.isEmpty() ? Arrays.asList("*") : cases;
+            ids = new HashSet<String>(CaseCatalog.resolve(include,
+                    excludeCases == null ? Collections.<String>emptyList() : excludeCases));
+        }
+        List<Integer> selected = new ArrayList<Integer>();
+        for (int i = 0; i < names.size(); i++) {
+            String key = names.get(i);
+            int slash = key.lastIndexOf('/');
+            String caseAgent = slash == -1 ? AutobahnTestSuite.DEFAULT_AGENT : key.substring(0, slash);
+            if ((agent == null || agent.equals(caseAgent)) && (ids == null || ids.contains(key.substring(slash + 1)))) {
+                selected.add(i);
+            }
+        }
+        Collections.sort(selected, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return CaseCatalog.CASE_ID_COMPARATOR.compare(names.get(o1), names.get(o2));
+            }
+        });
+        return selected;
+    }
+
+    /**
+     * Format the trend of a case or return {@code null} if it is not shown.
+     */
+    private String formatTrend(String key, int name, List<ResultHistory.Run> shown, int width) {
+        StringBuilder trend = new StringBuilder(shown.size());
+        long[] durations = new long[shown.size()];
+        int ran = 0;
+        long lastDuration = 0;
+        FuzzingCaseResult.Behavior previous = null;
+        boolean changed = false;
+        for (ResultHistory.Run run: shown) {
+            int i = run.indexOf(name);
+            if (i == -1) {
+                trend.append('-');
+                continue;
+            }
+            FuzzingCaseResult.Behavior behavior = run.behavior(i);
+            trend.append(symbol(behavior));
+            changed |= previous != null && previous != behavior;
+            previous = behavior;
+            lastDuration = run.duration(i);
+            durations[ran++] = lastDuration;
+        }
+        if (ran == 0 || onlyChanged && !changed) {
+            return null;
+        }
+        Arrays.sort(durations, 0, ran);
+        StringBuilder sb = new StringBuilder(key);
+        for (int i = key.length(); i < width; i++) {
+            sb.append(' ');
+        }
+        return sb.append("  ").append(trend).append("  min ").append(durations[0]).append(" ms, median ")
+                .append(durations[ran / 2]).append(" ms, max ").append(durations[ran - 1]).append(" ms, last ")
+                .append(lastDuration).append(" ms").toString();
+    }
+
+    private static char symbol(FuzzingCaseResult.Behavior behavior) {
+        switch (behavior) {
+            case OK:
+                return '.';
+            case NON_STRICT:
+                return 'N';
+            case FAILED:
+                return 'F';
+            case WRONG_CODE:
+                return 'W';
+            case UNCLEAN:
+                return 'U';
+            case FAILED_BY_CLIENT:
+                return 'C';
+            case INFORMATIONAL:
+                return 'I';
+            default:
+                return 'X';
+        }
+    }
+}
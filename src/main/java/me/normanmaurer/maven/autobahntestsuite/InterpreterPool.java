@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.apache.maven.plugin.logging.Log;
+import org.python.core.PySystemState;
+import org.python.util.PythonInterpreter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of interpreters which already imported {@code wstest}. There is one pool per plugin {@link ClassLoader}, so it
+ * is shared by all executions of the same plugin version in a reactor build.
+ *
+ * An interpreter can only be used for one run, as the twisted reactor it holds can not be restarted once it was
+ * stopped. Because of this the pool does not hand interpreters back, the callers announce how many they are going to
+ * need with {@link #warmUp(int)} and those are prepared in the background, for example while the servers start. When
+ * the last prepared interpreter is acquired a single spare is prepared, so the next execution can pick up a warm one.
+ * Interpreters which are not acquired within {@link #IDLE_TIMEOUT} ms are discarded and the threads of the pool time
+ * out, so nothing keeps the plugin {@link ClassLoader} alive once the build is done, even in a long-running maven
+ * daemon.
+ */
+final class InterpreterPool {
+
+    private static final long IDLE_TIMEOUT = 60000;
+    private static final InterpreterPool POOL = new InterpreterPool();
+    private static final OutputStream DEV_NULL = new DevNullOutputStream();
+
+    private final ExecutorService warmer = Executors.newCachedThreadPool(
+            AutobahnUtils.newThreadFactory("autobahntestsuite-warmup"));
+    private final ScheduledThreadPoolExecutor reaper = new ScheduledThreadPoolExecutor(1,
+            AutobahnUtils.newThreadFactory("autobahntestsuite-reaper"));
+    private final Queue<Future<PythonInterpreter>> interpreters =
+            new ConcurrentLinkedQueue<Future<PythonInterpreter>>();
+    private final Runnable reapTask = new Runnable() {
+        @Override
+        public void run() {
+            reapIdle();
+        }
+    };
+    private long lastUsed;
+    private boolean reapScheduled;
+
+    private InterpreterPool() {
+        reaper.setKeepAliveTime(IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+        reaper.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the pool of the {@link ClassLoader} which loaded the plugin.
+     */
+    static InterpreterPool get() {
+        return POOL;
+    }
+
+    /**
+     * Prepare {@code count} more interpreters in the background. The ones which other executions announced or a spare
+     * which is left over are not taken into account, as executions which run at the same time would otherwise take
+     * each other's interpreters and start cold.
+     */
+    synchronized void warmUp(int count) {
+        touch();
+        for (int i = 0; i < count; i++) {
+            prepare();
+        }
+    }
+
+    private void prepare() {
+        interpreters.add(warmer.submit(new Callable<PythonInterpreter>() {
+            @Override
+            public PythonInterpreter call() {
+                return newInterpreter();
+            }
+        }));
+    }
+
+    /**
+     * Returns an interpreter which already imported {@code wstest}. If none was prepared one is created now. If this
+     * was the last prepared one a spare is prepared for the next execution.
+     */
+    PythonInterpreter acquire(Log log) {
+        long start = System.nanoTime();
+        Future<PythonInterpreter> future;
+        synchronized (this) {
+            touch();
+            future = interpreters.poll();
+            if (interpreters.isEmpty()) {
+                prepare();
+            }
+        }
+        boolean warm = future != null && future.isDone();
+        PythonInterpreter interp;
+        if (future == null) {
+            interp = newInterpreter();
+        } else {
+            try {
+                interp = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Unable to prepare interpreter", e.getCause());
+            }
+        }
+
+        long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Interpreter startup took " + took + " ms (" +
+                (warm ? "warm" : future == null ? "cold" : "warming") + ")");
+        return interp;
+    }
+
+    private synchronized void touch() {
+        lastUsed = System.nanoTime();
+        if (!reapScheduled) {
+            reapScheduled = true;
+            reaper.schedule(reapTask, IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Discard the prepared interpreters if the pool was not used for {@link #IDLE_TIMEOUT} ms.
+     */
+    private void reapIdle() {
+        List<Future<PythonInterpreter>> idle = new ArrayList<Future<PythonInterpreter>>();
+        synchronized (this) {
+            long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastUsed);
+            if (idleMillis < IDLE_TIMEOUT) {
+                reaper.schedule(reapTask, IDLE_TIMEOUT - idleMillis, TimeUnit.MILLISECONDS);
+                return;
+            }
+            reapScheduled = false;
+            Future<PythonInterpreter> future;
+            while ((future = interpreters.poll()) != null) {
+                idle.add(future);
+            }
+        }
+        for (Future<PythonInterpreter> future: idle) {
+            try {
+                future.get().cleanup();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // failed to prepare, nothing to clean up
+            }
+        }
+    }
+
+    /**
+     * Create an interpreter which imported {@code wstest}, bypassing the pool.
+     */
+    static PythonInterpreter newInterpreter() {
+        // Use an own PySystemState so every interpreter gets its own modules and so its own twisted reactor.
+        PythonInterpreter interp = new PythonInterpreter(null, new PySystemState());
+        interp.setErr(DEV_NULL);
+        interp.exec("import sys");
+        interp.exec("from autobahntestsuite import wstest");
+        interp.exec("from twisted.internet import reactor");
+        return interp;
+    }
+
+    private final static class DevNullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            // > /dev/null
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.json.simple.parser.ParseException;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes a JUnit xml report one {@code testcase} at a time, so nothing but the current case needs to be kept in
+ * memory.
+ */
+final class JUnitXmlReportWriter {
+
+    private final OutputStream out;
+    private final XMLStreamWriter writer;
+
+    /**
+     * Open the report and write the {@code testsuite} element. As its attributes need to be written first the totals
+     * must be known up-front.
+     */
+    JUnitXmlReportWriter(File file, String suiteName, int tests, int failures, long duration)
+            throws IOException, XMLStreamException {
+        out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            writer.writeStartElement("testsuite");
+            writer.writeAttribute("name", suiteName);
+            writer.writeAttribute("tests", Integer.toString(tests));
+            writer.writeAttribute("errors", Integer.toString(0));
+            writer.writeAttribute("skipped", Integer.toString(0));
+            writer.writeAttribute("failures", Integer.toString(failures));
+            writer.writeAttribute("time", Double.toString(duration / 1000.0));
+        } catch (XMLStreamException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Write the report of the given results. The case reports of the failed cases are parsed one at a time and
+     * embedded with at most {@code maxReportLength} characters.
+     */
+    static void write(File file, String suiteName, List<FuzzingCaseResult> results, boolean failOnNonStrict,
+                      int maxReportLength) throws IOException, XMLStreamException, ParseException {
+        int failures = 0;
+        long suiteDuration = 0;
+        for (FuzzingCaseResult r: results) {
+            suiteDuration += r.duration();
+            if (r.behavior().isFailure(failOnNonStrict)) {
+                failures++;
+            }
+        }
+
+        JUnitXmlReportWriter writer = new JUnitXmlReportWriter(file, suiteName, results.size(), failures,
+                suiteDuration);
+        try {
+            for (FuzzingCaseResult r: results) {
+                if (r.behavior().isFailure(failOnNonStrict)) {
+                    writer.writeFailedTestCase(r, FuzzingResultParser.parseReport(r.reportFile(), maxReportLength));
+                } else {
+                    writer.writeTestCase(r);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    void writeTestCase(FuzzingCaseResult result) throws XMLStreamException {
+        writer.writeCharacters("\n  ");
+        if (result.resources() == null && result.traffic() == null) {
+            writer.writeEmptyElement("testcase");
+            writeTestCaseAttributes(result);
+            return;
+        }
+        writer.writeStartElement("testcase");
+        writeTestCaseAttributes(result);
+        writeProperties(result);
+        writer.writeCharacters("\n  ");
+        writer.writeEndElement();
+    }
+
+    void writeFailedTestCase(FuzzingCaseResult result, FuzzingResultParser.CaseReport report)
+            throws XMLStreamException {
+        writer.writeCharacters("\n  ");
+        writer.writeStartElement("testcase");
+        writeTestCaseAttributes(result);
+        if (result.resources() != null || result.traffic() != null) {
+            writeProperties(result);
+        }
+
+        writer.writeCharacters("\n    ");
+        writer.writeStartElement("system-out");
+        writer.writeCharacters(report.json());
+        writer.writeEndElement();
+
+        StringBuilder fail = new StringBuilder();
+        fail.append(report.description()).append("\n\n");
+        fail.append("Case outcome").append("\n\n");
+        fail.append(report.result()).append("\n\n");
+        fail.append("Expected").append("\n").append(report.expected()).append("\n\n");
+        fail.append("Received").append("\n").append(report.received()).append("\n\n");
+
+        writer.writeCharacters("\n    ");
+        writer.writeStartElement("failure");
+        writer.writeAttribute("type", "behaviorMissmatch");
+        writer.writeCharacters(fail.toString());
+        writer.writeEndElement();
+
+        writer.writeCharacters("\n  ");
+        writer.writeEndElement();
+        writer.flush();
+    }
+
+    private void writeTestCaseAttributes(FuzzingCaseResult result) throws XMLStreamException {
+        writer.writeAttribute("classname", "AutobahnTestCase");
+        writer.writeAttribute("name", result.caseName());
+        writer.writeAttribute("time", Double.toString(result.duration() / 1000.0));
+    }
+
+    private void writeProperties(FuzzingCaseResult result) throws XMLStreamException {
+        writer.writeCharacters("\n    ");
+        writer.writeStartElement("properties");
+        CaseResources resources = result.resources();
+        if (resources != null) {
+            writeProperty("heapUsed", resources.heapUsed());
+            writeProperty("allocatedBytes", resources.allocatedBytes());
+            writeProperty("gcCount", resources.gcCount());
+            writeProperty("gcTime", resources.gcTime());
+            writeProperty("threadCount", resources.threadCount());
+            writeProperty("cpuTime", resources.cpuTime());
+        }
+        CaseTraffic traffic = result.traffic();
+        if (traffic != null) {
+            writeProperty("incomingCompressed", traffic.incomingCompressed());
+            writeProperty("incomingUncompressed", traffic.incomingUncompressed());
+            writeProperty("outgoingCompressed", traffic.outgoingCompressed());
+            writeProperty("outgoingUncompressed", traffic.outgoingUncompressed());
+            writeProperty("throughput", traffic.formatThroughput(result.duration()));
+        }
+        writer.writeCharacters("\n    ");
+        writer.writeEndElement();
+    }
+
+    private void writeProperty(String name, long value) throws XMLStreamException {
+        writeProperty(name, Long.toString(value));
+    }
+
+    private void writeProperty(String name, String value) throws XMLStreamException {
+        writer.writeCharacters("\n      ");
+        writer.writeEmptyElement("property");
+        writer.writeAttribute("name", name);
+        writer.writeAttribute("value", value);
+    }
+
+    void close() throws IOException, XMLStreamException {
+        try {
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            writer.writeCharacters("\n");
+            writer.writeEndDocument();
+            writer.close();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.json.simple.JSONValue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the native cases over many connections at the same time, to see how a server behaves under load. Every
+ * connection runs the cases one after the other, each over a new WebSocket connection, until the time is up. The
+ * connections start at different cases, so all cases run side by side. A case whose connection could not be opened
+ * counts as error, one which was run but did not behave as expected as failure.
+ *
+ * Every connection is driven by an own thread, as {@link NativeConnection} blocks the thread which runs it.
+ */
+final class LoadGenerator {
+
+    private static final int[] PERCENTILES = { 500, 900, 990, 999 };
+    private static final int MAX_ERROR_MESSAGES = 10;
+
+    private final List<NativeCase> cases;
+    private final Map<?, ?> options;
+    private final int connections;
+    private final long duration;
+    private final long rampUp;
+    private final long caseTimeout;
+    private final boolean failOnNonStrict;
+
+    /**
+     * Create a generator which runs the given cases over {@code connections} connections for {@code duration} ms.
+     * The connections are started evenly spread over the first {@code rampUp} ms.
+     */
+    LoadGenerator(List<NativeCase> cases, Map<?, ?> options, int connections, long duration, long rampUp,
+                  long caseTimeout, boolean failOnNonStrict) {
+        this.cases = cases;
+        this.options = options;
+        this.connections = connections;
+        this.duration = duration;
+        this.rampUp = rampUp;
+        this.caseTimeout = caseTimeout;
+        this.failOnNonStrict = failOnNonStrict;
+    }
+
+    /**
+     * Put the given server under load and return the statistics once all connections are done.
+     */
+    Report run(String agent, String url) throws InterruptedException {
+        final URI uri = URI.create(url);
+        final Recorder[] recorders = new Recorder[connections];
+        final CountDownLatch done = new CountDownLatch(connections);
+        ExecutorService executor = Executors.newFixedThreadPool(connections,
+                AutobahnUtils.newThreadFactory("autobahntestsuite-load"));
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(duration);
+        try {
+            for (int i = 0; i < connections; i++) {
+                final int connection = i;
+                recorders[i] = new Recorder();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            long delay = rampUp * connection / connections;
+                            if (delay > 0) {
+                                Thread.sleep(delay);
+                            }
+                            runCases(uri, connection, deadline, recorders[connection]);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            done.await();
+        } finally {
+            executor.shutdownNow();
+        }
+        long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new Report(agent, connections, took, recorders);
+    }
+
+    private void runCases(URI uri, int connection, long deadline, Recorder recorder) {
+        // start at different cases, so every case runs on some connections all the time
+        int next = connection % cases.size();
+        while (System.nanoTime() - deadline < 0 && !Thread.currentThread().isInterrupted()) {
+            NativeCase nativeCase = cases.get(next);
+            next = (next + 1) % cases.size();
+            NativeConnection nativeConnection = new NativeConnection(uri, nativeCase, options, caseTimeout);
+            long started = System.nanoTime();
+            try {
+                nativeConnection.run();
+            } catch (IOException e) {
+                recorder.error(nativeCase.id(), e.toString());
+                continue;
+            } catch (RuntimeException e) {
+                // a misbehaving server must not silently kill the connection's thread
+                recorder.error(nativeCase.id(), e.toString());
+                continue;
+            }
+            if (!nativeConnection.opened()) {
+                recorder.error(nativeCase.id(), nativeConnection.result());
+                continue;
+            }
+            boolean failed = FuzzingCaseResult.Behavior.parse(nativeConnection.behavior()).isFailure(failOnNonStrict);
+            recorder.record(nativeCase.id(), TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started), failed,
+                    nativeConnection.incomingOctetsWireLevel() + nativeConnection.outgoingOctetsWireLevel());
+        }
+    }
+
+    /**
+     * The latencies of one connection, which are only touched by its own thread.
+     */
+    private static final class Recorder {
+        private final Map<String, long[]> counts = new TreeMap<String, long[]>(CaseCatalog.CASE_ID_COMPARATOR);
+        private final List<String> errorMessages = new ArrayList<String>();
+        private long[] latencies = new long[1024];
+        private String[] ids = new String[1024];
+        private int size;
+        private long octets;
+        private long errors;
+
+        void record(String id, long latency, boolean failed, long octets) {
+            if (size == latencies.length) {
+                latencies = Arrays.copyOf(latencies, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            latencies[size] = latency;
+            ids[size++] = id;
+            if (failed) {
+                failed(id)[0]++;
+            }
+            this.octets += octets;
+        }
+
+        void error(String id, String message) {
+            errors++;
+            failed(id)[1]++;
+            if (errorMessages.size() < MAX_ERROR_MESSAGES) {
+                errorMessages.add(id + ": " + message);
+            }
+        }
+
+        /**
+         * Returns the number of failures and errors of the given case.
+         */
+        private long[] failed(String id) {
+            long[] count = counts.get(id);
+            if (count == null) {
+                count = new long[2];
+                counts.put(id, count);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * The throughput, latencies and failures of all connections to a server.
+     */
+    static final class Report {
+        private final String agent;
+        private final int connections;
+        private final long duration;
+        private final long octets;
+        private final long errors;
+        private final List<String> errorMessages = new ArrayList<String>();
+        private final Stats total;
+        private final Map<String, Stats> byCase = new TreeMap<String, Stats>(CaseCatalog.CASE_ID_COMPARATOR);
+
+        private Report(String agent, int connections, long duration, Recorder[] recorders) {
+            this.agent = agent;
+            this.connections = connections;
+            this.duration = duration;
+            long octets = 0;
+            long errors = 0;
+            int size = 0;
+            Map<String, long[]> counts = new TreeMap<String, long[]>(CaseCatalog.CASE_ID_COMPARATOR);
+            for (Recorder recorder: recorders) {
+                octets += recorder.octets;
+                errors += recorder.errors;
+                size += recorder.size;
+                for (String message: recorder.errorMessages) {
+                    if (errorMessages.size() < MAX_ERROR_MESSAGES) {
+                        errorMessages.add(message);
+                    }
+                }
+                for (Map.Entry<String, long[]> entry: recorder.counts.entrySet()) {
+                    long[] count = counts.get(entry.getKey());
+                    if (count == null) {
+                        counts.put(entry.getKey(), entry.getValue().clone());
+                    } else {
+                        count[0] += entry.getValue()[0];
+                        count[1] += entry.getValue()[1];
+                    }
+                }
+            }
+            this.octets = octets;
+            this.errors = errors;
+
+            long[] all = new long[size];
+            Map<String, List<Long>> latencies = new TreeMap<String, List<Long>>(CaseCatalog.CASE_ID_COMPARATOR);
+            int i = 0;
+            for (Recorder recorder: recorders) {
+                System.arraycopy(recorder.latencies, 0, all, i, recorder.size);
+                i += recorder.size;
+                for (int j = 0; j < recorder.size; j++) {
+                    List<Long> caseLatencies = latencies.get(recorder.ids[j]);
+                    if (caseLatencies == null) {
+                        caseLatencies = new ArrayList<Long>();
+                        latencies.put(recorder.ids[j], caseLatencies);
+                    }
+                    caseLatencies.add(recorder.latencies[j]);
+                }
+            }
+            long failed = 0;
+            for (long[] count: counts.values()) {
+                failed += count[0];
+            }
+            total = new Stats(all, failed, errors);
+            for (Map.Entry<String, List<Long>> entry: latencies.entrySet()) {
+                long[] caseLatencies = new long[entry.getValue().size()];
+                for (int j = 0; j < caseLatencies.length; j++) {
+                    caseLatencies[j] = entry.getValue().get(j);
+                }
+                long[] count = counts.get(entry.getKey());
+                byCase.put(entry.getKey(), new Stats(caseLatencies, count == null ? 0 : count[0],
+                        count == null ? 0 : count[1]));
+            }
+            for (Map.Entry<String, long[]> entry: counts.entrySet()) {
+                if (!byCase.containsKey(entry.getKey())) {
+                    // the case never completed, it only had errors
+                    byCase.put(entry.getKey(), new Stats(new long[0], entry.getValue()[0], entry.getValue()[1]));
+                }
+            }
+        }
+
+        String agent() {
+            return agent;
+        }
+
+        /**
+         * The number of cases which failed or could not be run at all.
+         */
+        long failures() {
+            return total.failed + errors;
+        }
+
+        /**
+         * Returns a human readable summary.
+         */
+        String format() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Load of ").append(agent).append(": ").append(connections).append(" connections for ")
+                    .append(duration).append(" ms\n");
+            sb.append("\t").append(total.count).append(" cases (").append(format(total.count * 1000.0 / duration))
+                    .append("/s), ").append(format(octets * 1000.0 / duration / 1024 / 1024)).append(" MB/s, ")
+                    .append(total.failed).append(" failed, ").append(errors).append(" errors\n");
+            sb.append(String.format("\t%-10s %8s %8s %8s %8s %8s %8s %8s %8s%n", "case", "count", "failed", "errors",
+                    "p50", "p90", "p99", "p99.9", "max"));
+            for (Map.Entry<String, Stats> entry: byCase.entrySet()) {
+                entry.getValue().format(sb, entry.getKey());
+            }
+            total.format(sb, "all");
+            for (String message: errorMessages) {
+                sb.append("\t").append(message).append("\n");
+            }
+            return sb.toString();
+        }
+
+        Map<String, Object> toJSON() {
+            Map<String, Object> json = new LinkedHashMap<String, Object>();
+            json.put("connections", connections);
+            json.put("duration", duration);
+            json.put("casesPerSecond", total.count * 1000.0 / duration);
+            json.put("bytesPerSecond", octets * 1000.0 / duration);
+            json.put("total", total.toJSON());
+            Map<String, Object> cases = new LinkedHashMap<String, Object>();
+            for (Map.Entry<String, Stats> entry: byCase.entrySet()) {
+                cases.put(entry.getKey(), entry.getValue().toJSON());
+            }
+            json.put("cases", cases);
+            json.put("errorMessages", errorMessages);
+            return json;
+        }
+
+        /**
+         * Write the reports of all servers as json.
+         */
+        static void write(File file, List<Report> reports) throws IOException {
+            Map<String, Object> json = new LinkedHashMap<String, Object>();
+            for (Report report: reports) {
+                json.put(report.agent, report.toJSON());
+            }
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                JSONValue.writeJSONString(json, writer);
+            } finally {
+                writer.close();
+            }
+        }
+
+        private static String format(double value) {
+            return String.format(Locale.ENGLISH, "%.1f", value);
+        }
+    }
+
+    /**
+     * Latency percentiles in microseconds.
+     */
+    private static final class Stats {
+        final long count;
+        final long failed;
+        final long errors;
+        final long[] percentiles = new long[PERCENTILES.length];
+        final long max;
+
+        Stats(long[] latencies, long failed, long errors) {
+            this.count = latencies.length;
+            this.failed = failed;
+            this.errors = errors;
+            Arrays.sort(latencies);
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                percentiles[i] = percentile(latencies, PERCENTILES[i]);
+            }
+            max = latencies.length == 0 ? 0 : latencies[latencies.length - 1];
+        }
+
+        /**
+         * Nearest-rank percentile of the given sorted values, in tenths of a percent.
+         */
+        private static long percentile(long[] sorted, int permille) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(permille / 1000.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+
+        void format(StringBuilder sb, String name) {
+            sb.append(String.format(Locale.ENGLISH, "\t%-10s %8d %8d %8d %6.1fms %6.1fms %6.1fms %6.1fms %6.1fms%n",
+                    name, count, failed, errors, percentiles[0] / 1000.0, percentiles[1] / 1000.0,
+                    percentiles[2] / 1000.0, percentiles[3] / 1000.0, max / 1000.0));
+        }
+
+        Map<String, Object> toJSON() {
+            Map<String, Object> json = new LinkedHashMap<String, Object>();
+            json.put("count", count);
+            json.put("failed", failed);
+            json.put("errors", errors);
+            json.put("p50", percentiles[0]);
+            json.put("p90", percentiles[1]);
+            json.put("p99", percentiles[2]);
+            json.put("p999", percentiles[3]);
+            json.put("max", max);
+            return json;
+        }
+    }
+}
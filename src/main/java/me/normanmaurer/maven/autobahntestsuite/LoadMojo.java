@@ -0,0 +1,184 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mojo which puts the servers under load by running the selected cases over many connections at the same time and
+ * reports the throughput, latency percentiles and failures. Only the cases which are supported by the {@code native}
+ * engine can be used.
+ */
+@Mojo(name = "load", defaultPhase = LifecyclePhase.INTEGRATION_TEST,
+requiresDependencyResolution = ResolutionScope.TEST, threadSafe = true)
+public class LoadMojo
+        extends AbstractServerMojo {
+
+    /**
+     * The cases which are run over every connection. Default is {@code 1.*}.
+     */
+    @Parameter(property = "cases")
+    private List<String> cases;
+
+    /**
+     * A list of cases to exclude. Default is to exclude none.
+     */
+    @Parameter(property = "excludeCases")
+    private List<String> excludeCases;
+
+    /**
+     * The number of connections which are open at the same time. Default is 100.
+     */
+    @Parameter(property = "connections", defaultValue = "100")
+    private int connections;
+
+    /**
+     * The number of milliseconds every server is put under load. Default is 30000.
+     */
+    @Parameter(property = "duration", defaultValue = "30000")
+    private long duration;
+
+    /**
+     * The connections are started evenly spread over this many milliseconds. Default is 0 (all at once).
+     */
+    @Parameter(property = "rampUp", defaultValue = "0")
+    private long rampUp;
+
+    /**
+     * The maximal number of milliseconds a single case may take before it is aborted and counted as failed.
+     * {@code 0} disables the timeout. Default is 60000.
+     */
+    @Parameter(property = "caseTimeout", defaultValue = "60000")
+    private long caseTimeout;
+
+    /**
+     * Options of the cases, the same as for the native engine of the fuzzingclient goal.
+     */
+    @Parameter
+    private Map<String, String> options;
+
+    /**
+     * Configure if cases with non strict behaviour count as failed. Default is false.
+     */
+    @Parameter(property = "failOnNonStrict")
+    private boolean failOnNonStrict;
+
+    /**
+     * Configure if the build fails when cases failed or could not be run under load. Default is true.
+     */
+    @Parameter(property = "failOnLoadErrors", defaultValue = "true")
+    private boolean failOnLoadErrors;
+
+    /**
+     * Allow to skip execution of plugin
+     */
+    @Parameter(property = "skipLoad", defaultValue = "false")
+    private boolean skip;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skip) {
+            getLog().info("Skip load test of autobahntestsuite-maven-plugin");
+            return;
+        }
+        if (connections <= 0 || duration <= 0) {
+            throw new MojoExecutionException("connections and duration must be greater than 0");
+        }
+        initServers();
+        Map<String, Object> caseOptions = FuzzingOptions.merge(FuzzingOptions.DEFAULT, options);
+        for (String option: caseOptions.keySet()) {
+            if (!NativeConnection.OPTIONS.contains(option)) {
+                throw new MojoExecutionException("Option " + option + " is not supported, use one of " +
+                        NativeConnection.OPTIONS);
+            }
+        }
+        List<NativeCase> loadCases = resolveCases();
+
+        List<LoadGenerator.Report> reports = new ArrayList<LoadGenerator.Report>();
+        try {
+            Map<String, String> urls = startServers(getClasspathElements());
+            LoadGenerator generator = new LoadGenerator(loadCases, caseOptions, connections, duration, rampUp,
+                    caseTimeout, failOnNonStrict);
+            for (Map.Entry<String, String> url: urls.entrySet()) {
+                getLog().info("Putting " + url.getKey() + " under load with " + connections + " connections for " +
+                        duration + " ms");
+                LoadGenerator.Report report = generator.run(url.getKey(), url.getValue());
+                getLog().info(report.format());
+                reports.add(report);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while running the load test", e);
+        } finally {
+            stopServers();
+        }
+
+        File dir = reportDirectory;
+        File summary = reportFile("load-summary.json");
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            LoadGenerator.Report.write(summary, reports);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write " + summary, e);
+        }
+
+        if (failOnLoadErrors) {
+            for (LoadGenerator.Report report: reports) {
+                if (report.failures() > 0) {
+                    throw new MojoFailureException(report.failures() + " cases failed under load for " +
+                            report.agent() + ", see " + summary);
+                }
+            }
+        }
+    }
+
+    private List<NativeCase> resolveCases() throws MojoExecutionException {
+        List<String> ids = CaseCatalog.resolve(cases == null || cases.isEmpty() ? Arrays.asList("1.*") : cases,
+                excludeCases == null ? Collections.<String>emptyList() : excludeCases);
+        List<NativeCase> loadCases = new ArrayList<NativeCase>();
+        List<String> unsupported = new ArrayList<String>();
+        for (String id: ids) {
+            NativeCase nativeCase = NativeCases.get(id);
+            if (nativeCase == null) {
+                unsupported.add(id);
+            } else {
+                loadCases.add(nativeCase);
+            }
+        }
+        if (!unsupported.isEmpty()) {
+            getLog().warn("Cases " + unsupported + " are not supported by the native engine and are not run");
+        }
+        if (loadCases.isEmpty()) {
+            throw new MojoExecutionException("None of the selected cases can be run under load");
+        }
+        return loadCases;
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A case which is run by the {@link NativeEngine}. It mirrors the {@code Case} class of the testsuite (see
+ * {@code autobahntestsuite/case/case.py}): once the connection is open the actions of the case are run, and once it
+ * is closed the received events and the way the connection was closed are compared with what was expected.
+ *
+ * Cases only describe what to do and hold no state of a run, so the same instance can be run by several connections
+ * at the same time.
+ */
+class NativeCase {
+
+    static final String OK = "OK";
+    static final String NON_STRICT = "NON-STRICT";
+    static final String FAILED = "FAILED";
+    static final String WRONG_CODE = "WRONG CODE";
+    static final String UNCLEAN = "UNCLEAN";
+    static final String FAILED_BY_CLIENT = "FAILED BY CLIENT";
+    static final String INFORMATIONAL = "INFORMATIONAL";
+
+    private final String id;
+    private final String description;
+    private final String expectation;
+    private final Map<String, List<Event>> expected = new LinkedHashMap<String, List<Event>>();
+    private final List<Action> actions = new ArrayList<Action>();
+    private boolean expectedClosedByMe;
+    private boolean requireClean;
+    private int[] expectedCloseCodes = new int[0];
+    private boolean closedByWrongEndpointIsFatal;
+    private boolean wrongCodeIsFatal;
+    private boolean suppressClose;
+    private boolean reportTime;
+
+    NativeCase(String id, String description, String expectation) {
+        this.id = id;
+        this.description = description;
+        this.expectation = expectation;
+    }
+
+    String id() {
+        return id;
+    }
+
+    String description() {
+        return description;
+    }
+
+    String expectation() {
+        return expectation;
+    }
+
+    boolean reportsTime() {
+        return reportTime;
+    }
+
+    /**
+     * The received events which lead to the given behavior.
+     */
+    NativeCase expect(String behavior, Event... events) {
+        expected.put(behavior, Collections.unmodifiableList(Arrays.asList(events)));
+        return this;
+    }
+
+    /**
+     * How the connection is expected to be closed.
+     */
+    NativeCase expectClose(boolean closedByMe, boolean requireClean, int... closeCodes) {
+        this.expectedClosedByMe = closedByMe;
+        this.requireClean = requireClean;
+        this.expectedCloseCodes = closeCodes;
+        return this;
+    }
+
+    /**
+     * The case fails if the connection was closed by the wrong endpoint, no matter what was received.
+     */
+    NativeCase closedByWrongEndpointIsFatal() {
+        closedByWrongEndpointIsFatal = true;
+        return this;
+    }
+
+    /**
+     * The case fails if the server closed the connection with an unexpected close code.
+     */
+    NativeCase wrongCodeIsFatal() {
+        wrongCodeIsFatal = true;
+        return this;
+    }
+
+    /**
+     * Do not start the closing handshake once all expected events were received.
+     */
+    NativeCase suppressClose() {
+        suppressClose = true;
+        return this;
+    }
+
+    /**
+     * Report the duration of the case, which is done by the performance cases.
+     */
+    NativeCase reportTime() {
+        reportTime = true;
+        return this;
+    }
+
+    /**
+     * The actions which are run once the connection is open.
+     */
+    NativeCase onOpen(Action... actions) {
+        this.actions.addAll(Arrays.asList(actions));
+        return this;
+    }
+
+    void onOpen(NativeConnection connection) {
+        for (Action action: actions) {
+            action.run(connection);
+        }
+    }
+
+    void onMessage(NativeConnection connection, byte[] payload, boolean binary) {
+        connection.received(Event.message(payload, binary));
+        finishWhenDone(connection);
+    }
+
+    void onPong(NativeConnection connection, byte[] payload) {
+        connection.received(Event.pong(payload));
+        finishWhenDone(connection);
+    }
+
+    /**
+     * Evaluate the run once the connection is closed.
+     */
+    void onConnectionLost(NativeConnection connection) {
+        for (Map.Entry<String, List<Event>> entry: expected.entrySet()) {
+            if (entry.getValue().equals(connection.received())) {
+                connection.behavior(entry.getKey(), "Actual events match at least one expected.");
+                break;
+            }
+        }
+        if (expectedClosedByMe != connection.closedByMe()) {
+            connection.behaviorClose(FAILED, "The connection was failed by the wrong endpoint");
+        } else if (requireClean && !connection.wasClean()) {
+            connection.behaviorClose(UNCLEAN, "The spec requires the connection to be failed cleanly here");
+        } else if (connection.remoteCloseCode() != null && !isExpectedCloseCode(connection.remoteCloseCode())) {
+            StringBuilder codes = new StringBuilder();
+            for (int code: expectedCloseCodes) {
+                if (codes.length() > 0) {
+                    codes.append(',');
+                }
+                codes.append(code);
+            }
+            connection.behaviorClose(WRONG_CODE, "The close code should have been " + codes + " or empty");
+        } else if (connection.droppedByMe()) {
+            connection.behaviorClose(FAILED_BY_CLIENT, "It is preferred that the server close the TCP connection");
+        } else {
+            connection.behaviorClose(OK, "Connection was properly closed");
+        }
+        if (closedByWrongEndpointIsFatal && expectedClosedByMe != connection.closedByMe()) {
+            connection.behavior(FAILED, connection.result());
+        }
+        if (wrongCodeIsFatal && WRONG_CODE.equals(connection.behaviorClose())) {
+            connection.behavior(FAILED, connection.resultClose());
+        }
+    }
+
+    private boolean isExpectedCloseCode(int code) {
+        for (int expectedCode: expectedCloseCodes) {
+            if (expectedCode == code) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Start the closing handshake once everything that was expected was received.
+     */
+    void finishWhenDone(NativeConnection connection) {
+        for (List<Event> events: expected.values()) {
+            if (!events.equals(connection.received())) {
+                return;
+            }
+        }
+        if (expectedClosedByMe && !suppressClose) {
+            connection.sendClose(expectedCloseCodes[0], null);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    JSONObject expectedToJSON() {
+        JSONObject object = new JSONObject();
+        for (Map.Entry<String, List<Event>> entry: expected.entrySet()) {
+            object.put(entry.getKey(), Event.toJSON(entry.getValue()));
+        }
+        return object;
+    }
+
+    @SuppressWarnings("unchecked")
+    JSONObject expectedCloseToJSON() {
+        JSONObject object = new JSONObject();
+        object.put("closedByMe", expectedClosedByMe);
+        JSONArray codes = new JSONArray();
+        for (int code: expectedCloseCodes) {
+            codes.add(code);
+        }
+        object.put("closeCode", codes);
+        object.put("requireClean", requireClean);
+        if (closedByWrongEndpointIsFatal) {
+            object.put("closedByWrongEndpointIsFatal", true);
+        }
+        return object;
+    }
+
+    /**
+     * Something a case does on the connection.
+     */
+    interface Action {
+        void run(NativeConnection connection);
+    }
+
+    /**
+     * An event which was received (or is expected to be received) on the connection.
+     */
+    static final class Event {
+        private final String type;
+        private final byte[] payload;
+        private final boolean binary;
+        private final String tag;
+
+        private Event(String type, byte[] payload, boolean binary, String tag) {
+            this.type = type;
+            this.payload = payload;
+            this.binary = binary;
+            this.tag = tag;
+        }
+
+        static Event message(byte[] payload, boolean binary) {
+            return new Event("message", payload, binary, null);
+        }
+
+        static Event pong(byte[] payload) {
+            return new Event("pong", payload, false, null);
+        }
+
+        static Event timeout(String tag) {
+            return new Event("timeout", null, false, tag);
+        }
+
+        @SuppressWarnings("unchecked")
+        static JSONArray toJSON(List<Event> events) {
+            JSONArray array = new JSONArray();
+            for (Event event: events) {
+                JSONArray e = new JSONArray();
+                e.add(event.type);
+                if (event.tag != null) {
+                    e.add(event.tag);
+                } else {
+                    e.add(NativeEngine.logData(event.payload));
+                    if ("message".equals(event.type)) {
+                        e.add(event.binary);
+                    }
+                }
+                array.add(e);
+            }
+            return array;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Event)) {
+                return false;
+            }
+            Event event = (Event) o;
+            return type.equals(event.type) && binary == event.binary && Arrays.equals(payload, event.payload)
+                    && (tag == null ? event.tag == null : tag.equals(event.tag));
+        }
+
+        @Override
+        public int hashCode() {
+            return type.hashCode() * 31 + Arrays.hashCode(payload);
+        }
+    }
+}
@@ -0,0 +1,933 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import me.normanmaurer.maven.autobahntestsuite.NativeCase.Action;
+import me.normanmaurer.maven.autobahntestsuite.NativeCase.Event;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static me.normanmaurer.maven.autobahntestsuite.NativeCase.FAILED;
+import static me.normanmaurer.maven.autobahntestsuite.NativeCase.INFORMATIONAL;
+import static me.normanmaurer.maven.autobahntestsuite.NativeCase.NON_STRICT;
+import static me.normanmaurer.maven.autobahntestsuite.NativeCase.OK;
+import static me.normanmaurer.maven.autobahntestsuite.NativeConnection.CLOSE_INVALID_PAYLOAD;
+import static me.normanmaurer.maven.autobahntestsuite.NativeConnection.CLOSE_NORMAL;
+import static me.normanmaurer.maven.autobahntestsuite.NativeConnection.CLOSE_PROTOCOL_ERROR;
+
+/**
+ * The cases the {@link NativeEngine} knows how to run, ported from the case classes in
+ * {@code autobahntestsuite/case}. Description and expectation are read from the bundled case classes, so the reports
+ * look the same as the ones of wstest.
+ */
+final class NativeCases {
+
+    private static final String CASE_RESOURCE = "autobahntestsuite/case/case";
+    private static final Pattern TEXT = Pattern.compile("(DESCRIPTION|EXPECTATION) = \"\"\"(.*?)\"\"\"",
+            Pattern.DOTALL);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final byte[] EMPTY = new byte[0];
+    private static final Map<String, NativeCase> CASES = new HashMap<String, NativeCase>();
+
+    static {
+        framing();
+        pingsAndPongs();
+        reservedBits();
+        opcodes();
+        fragmentation();
+        utf8Handling();
+        closeHandling();
+        limits();
+    }
+
+    private NativeCases() {
+        // Utility class
+    }
+
+    /**
+     * Returns the case with the given id or {@code null} if it can only be run by wstest.
+     */
+    static NativeCase get(String id) {
+        return CASES.get(id);
+    }
+
+    // 1.x
+    private static void framing() {
+        int[] lengths = { 0, 125, 126, 127, 128, 65535, 65536, 65536 };
+        for (int i = 0; i < lengths.length; i++) {
+            for (boolean binary: new boolean[] { false, true }) {
+                byte[] payload = repeat(binary ? 0xfe : '*', lengths[i]);
+                create((binary ? "1.2." : "1.1.") + (i + 1))
+                        .expect(OK, Event.message(payload, binary))
+                        .expectClose(true, true, CLOSE_NORMAL)
+                        .onOpen(frame(binary ? 2 : 1, payload).chop(i == 7 ? 997 : 0), killAfter(i < 5 ? 1000 : 10000));
+            }
+        }
+    }
+
+    // 2.x
+    private static void pingsAndPongs() {
+        byte[][] payloads = { EMPTY, text("Hello, world!"), hex("00fffefdfcfb00ff"), repeat(0xfe, 125) };
+        for (int i = 0; i < payloads.length; i++) {
+            create("2." + (i + 1))
+                    .expect(OK, Event.pong(payloads[i]))
+                    .expectClose(true, true, CLOSE_NORMAL)
+                    .onOpen(frame(9, payloads[i]), closeAfter(1000));
+        }
+        create("2.5")
+                .expect(OK)
+                .expectClose(false, false, CLOSE_PROTOCOL_ERROR)
+                .onOpen(frame(9, repeat(0xfe, 126)), killAfter(1000));
+        create("2.6")
+                .expect(OK, Event.pong(repeat(0xfe, 125)))
+                .expectClose(true, true, CLOSE_NORMAL)
+                .onOpen(frame(9, repeat(0xfe, 125)).chop(1), closeAfter(2000));
+        create("2.7")
+                .expect(OK)
+                .expectClose(true, true, CLOSE_NORMAL)
+                .onOpen(frame(10, EMPTY), sendClose(CLOSE_NORMAL, null), closeAfter(1000));
+        create("2.8")
+                .expect(OK)
+                .expectClose(true, true, CLOSE_NORMAL)
+                .onOpen(frame(10, text("unsolicited pong payload")), sendClose(CLOSE_NORMAL, null), closeAfter(1000));
+        create("2.9")
+                .expect(OK, Event.pong(text("ping payload")))
+                .expectClose(true, true, CLOSE_NORMAL)
+                .onOpen(frame(10, text("unsolicited pong payload")), frame(9, text("ping payload")), closeAfter(1000));
+        for (int chop = 0; chop <= 1; chop++) {
+            Event[] pongs = new Event[10];
+            Action[] actions = new Action[11];
+            for (int i = 0; i < pongs.length; i++) {
+                byte[] payload = text("payload-" + i);
+                pongs[i] = Event.pong(payload);
+                actions[i] = frame(9, payload).chop(chop);
+            }
+            actions[10] = closeAfter(3000);
+            create("2." + (10 + chop))
+                    .expect(OK, pongs)
+                    .expectClose(true, true, CLOSE_NORMAL)
+                    .onOpen(actions);
+        }
+    }
+
+    // 3.x
+    private static void reservedBits() {
+        byte[] payload = text("Hello, world!");
+        protocolError("3.1").onOpen(frame(1, payload).rsv(1), killAfter(1000));
+        // wstest writes every frame of 3.3 with an own write, which is what the native engine always does
+        int[] chops = { 0, 0, 1 };
+        for (int i = 0; i < chops.length; i++) {
+            protocolError("3." + (i + 2))
+                    .expect(OK, Event.message(payload, false))
+                    .expect(NON_STRICT)
+                    .onOpen(frame(1, payload).chop(chops[i]), frame(1, payload).rsv(i + 2).chop(chops[i]),
+                            frame(9, EMPTY).chop(chops[i]), killAfter(1000));
+        }
+        protocolError("3.5").onOpen(frame(2, hex("00fffefdfcfb00ff")).rsv(5), killAfter(1000));
+        protocolError("3.6").onOpen(frame(2, payload).rsv(6), killAfter(1000));
+        protocolError("3.7").onOpen(frame(8, EMPTY).rsv(7), killAfter(1000));
+    }
+
+    // 4.x
+    private static void opcodes() {
+        byte[] payload = text("Hello, world!");
+        for (int group = 1; group <= 2; group++) {
+            int opcode = group == 1 ? 3 : 11;
+            String prefix = "4." + group + ".";
+            protocolError(prefix + 1).onOpen(frame(opcode, EMPTY), killAfter(1000));
+            protocolError(prefix + 2).onOpen(frame(opcode + 1, text("reserved opcode payload")), killAfter(1000));
+            for (int i = 0; i < 3; i++) {
+                int chop = i == 2 ? 1 : 0;
+                protocolError(prefix + (i + 3))
+                        .expect(OK, Event.message(payload, false))
+                        .expect(NON_STRICT)
+                        .onOpen(frame(1, payload).chop(chop),
+                                frame(opcode + 2 + i, i == 0 ? EMPTY : payload).chop(chop),
+                                frame(9, EMPTY).chop(chop), killAfter(1000));
+            }
+        }
+    }
+
+    // 5.x
+    private static void fragmentation() {
+        byte[] fragment1 = text("fragment1");
+        byte[] fragment2 = text("fragment2");
+        protocolError("5.1").onOpen(frame(9, fragment1).fin(false), frame(0, fragment2), killAfter(1000));
+        protocolError("5.2").onOpen(frame(10, fragment1).fin(false), frame(0, fragment2), killAfter(1000));
+
+        // plain, written frame-wise (sync in wstest) and written octet-wise
+        int[] chops = { 0, 0, 1 };
+        byte[] ping = text("ping payload");
+        byte[] nonContinuation = text("non-continuation payload");
+        byte[] hello = text("Hello, world!");
+        for (int i = 0; i < chops.length; i++) {
+            int chop = chops[i];
+            create("5." + (i + 3))
+                    .expect(OK, Event.message(text("fragment1fragment2"), false))
+                    .expectClose(true, true, CLOSE_NORMAL)
+                    .onOpen(frame(1, fragment1).fin(false).chop(chop), frame(0, fragment2).chop(chop),
+                            closeAfter(1000));
+            create("5." + (i + 6))
+                    .expect(OK, Event.pong(ping), Event.message(text("fragment1fragment2"), false))
+                    .expectClose(true, true, CLOSE_NORMAL)
+                    .onOpen(frame(1, fragment1).fin(false).chop(chop), frame(9, ping).chop(chop),
+                            frame(0, fragment2).chop(chop), closeAfter(1000));
+            protocolError("5." + (i + 9))
+                    .onOpen(frame(0, nonContinuation).chop(chop), frame(1, hello).chop(chop), killAfter(1000));
+            protocolError("5." + (i + 12))
+                    .onOpen(frame(0, nonContinuation).fin(false).chop(chop), frame(1, hello).chop(chop),
+                            killAfter(1000));
+        }
+        protocolError("5.15")
+                .expect(OK, Event.message(text("fragment1fragment2"), false))
+                .expect(NON_STRICT)
+                .onOpen(frame(1, fragment1).fin(false), frame(0, fragment2), frame(0, text("fragment3")).fin(false),
+                        frame(1, text("fragment4")), killAfter(1000));
+        for (int i = 0; i < 2; i++) {
+            Action[] actions = new Action[7];
+            for (int j = 0; j < 2; j++) {
+                actions[j * 3] = frame(0, fragment1).fin(i == 1);
+                actions[j * 3 + 1] = frame(1, fragment2).fin(false);
+                actions[j * 3 + 2] = frame(0, text("fragment3"));
+            }
+            actions[6] = killAfter(1000);
+            protocolError("5." + (16 + i)).onOpen(actions);
+        }
+        protocolError("5.18").onOpen(frame(1, fragment1).fin(false), frame(1, fragment2), killAfter(1000));
+        for (int i = 0; i < 2; i++) {
+            create("5." + (19 + i))
+                    .expect(OK, Event.pong(text("pongme 1!")), Event.pong(text("pongme 2!")),
+                            Event.message(text("fragment1fragment2fragment3fragment4fragment5"), false))
+                    .expectClose(true, true, CLOSE_NORMAL)
+                    .onOpen(frame(1, fragment1).fin(false), frame(0, fragment2).fin(false),
+                            frame(9, text("pongme 1!")),
+                            continueLater(1000, null, frame(0, text("fragment3")).fin(false),
+                                    frame(0, text("fragment4")).fin(false), frame(9, text("pongme 2!")),
+                                    frame(0, text("fragment5")), closeAfter(1000)));
+        }
+    }
+
+    // 6.x
+    private static void utf8Handling() {
+        create("6.1.1")
+                .expect(OK, Event.message(EMPTY, false))
+                .expectClose(true, true, CLOSE_NORMAL)
+                .onOpen(frame(1, EMPTY), closeAfter(1000));
+        create("6.1.2")
+                .expect(OK, Event.message(EMPTY, false))
+                .expectClose(true, true, CLOSE_NORMAL)
+                .onOpen(frame(1, EMPTY).fin(false), frame(0, EMPTY).fin(false), frame(0, EMPTY), closeAfter(1000));
+        byte[] middle = text("middle frame payload");
+        create("6.1.3")
+                .expect(OK, Event.message(middle, false))
+                .expectClose(true, true, CLOSE_NORMAL)
+                .onOpen(frame(1, EMPTY).fin(false), frame(0, middle).fin(false), frame(0, EMPTY), closeAfter(1000));
+
+        String hello = "Hello-\u00b5@\u00df\u00f6\u00e4\u00fc\u00e0\u00e1-UTF-8!!";
+        create("6.2.1", hello, toHex(text(hello)))
+                .expect(OK, Event.message(text(hello), false))
+                .expectClose(true, true, CLOSE_NORMAL)
+                .onOpen(message(text(hello), false, 0), closeAfter(1000));
+        String hello1 = "Hello-\u00b5@\u00df\u00f6\u00e4";
+        String hello2 = "\u00fc\u00e0\u00e1-UTF-8!!";
+        create("6.2.2", hello1, toHex(text(hello1)), hello2, toHex(text(hello2)))
+                .expect(OK, Event.message(text(hello), false))
+                .expectClose(true, true, CLOSE_NORMAL)
+                .onOpen(frame(1, text(hello1)).fin(false), frame(0, text(hello2)), closeAfter(1000));
+        create("6.2.3", hello, toHex(text(hello)))
+                .expect(OK, Event.message(text(hello), false))
+                .expectClose(true, true, CLOSE_NORMAL)
+                .onOpen(message(text(hello), false, 1), closeAfter(1000));
+        byte[] kosme = hex("cebae1bdb9cf83cebcceb5");
+        create("6.2.4", text(kosme), toHex(kosme))
+                .expect(OK, Event.message(kosme, false))
+                .expectClose(true, true, CLOSE_NORMAL)
+                .onOpen(message(kosme, false, 1), closeAfter(1000));
+
+        byte[] invalid = concat(kosme, hex("eda080"), hex("656469746564"));
+        for (int i = 0; i < 2; i++) {
+            create("6.3." + (i + 1), toHex(invalid))
+                    .expect(OK)
+                    .expectClose(false, false, CLOSE_INVALID_PAYLOAD)
+                    .closedByWrongEndpointIsFatal()
+                    .onOpen(message(invalid, false, i), killAfter(1000));
+        }
+
+        byte[] part1 = kosme;
+        byte[] part2 = hex("f4908080");
+        byte[] part3 = hex("656469746564");
+        byte[] payload = concat(part1, part2, part3);
+        byte[] head = Arrays.copyOfRange(payload, 0, 12);
+        byte[] octet = Arrays.copyOfRange(payload, 12, 13);
+        byte[] tail = Arrays.copyOfRange(payload, 13, payload.length);
+        invalidInParts("6.4.1", toHex(part1), toHex(part2), toHex(part3)).onOpen(
+                frame(1, part1).fin(false),
+                continueLater(1000, "A", frame(0, part2).fin(false),
+                        continueLater(1000, "B", frame(0, part3), killAfter(1000))));
+        invalidInParts("6.4.2", toHex(head), toHex(octet), toHex(tail)).onOpen(
+                frame(1, head).fin(false),
+                continueLater(1000, "A", frame(0, octet).fin(false),
+                        continueLater(1000, "B", frame(0, tail), killAfter(1000))));
+        // 6.4.4 of wstest prints PAYLOAD3[13:] as third part, which is always empty
+        String[][] parts = { { toHex(part1), toHex(part2), toHex(part3) }, { toHex(head), toHex(octet), "" } };
+        byte[][][] chunks = { { part1, part2, part3 }, { head, octet, tail } };
+        for (int i = 0; i < 2; i++) {
+            invalidInParts("6.4." + (i + 3), (Object[]) parts[i]).onOpen(
+                    beginFrame(1, false, payload.length), frameData(chunks[i][0]),
+                    continueLater(1000, "A", frameData(chunks[i][1]),
+                            continueLater(1000, "B", frameData(chunks[i][2]), frame(0, EMPTY), killAfter(1000))));
+        }
+
+        List<List<Utf8Sequence>> groups = utf8Sequences();
+        for (int i = 0; i < groups.size(); i++) {
+            List<Utf8Sequence> sequences = groups.get(i);
+            for (int j = 0; j < sequences.size(); j++) {
+                Utf8Sequence sequence = sequences.get(j);
+                String id = "6." + (i + 5) + "." + (j + 1);
+                NativeCase nativeCase;
+                if (sequence.valid) {
+                    nativeCase = add(new NativeCase(id, "Send a text message with payload which is valid UTF-8 in " +
+                            "one fragment.<br><br>Payload: 0x" + toHex(sequence.bytes),
+                            "The message is echo'ed back to us."))
+                            .expect(OK, Event.message(sequence.bytes, false))
+                            .expectClose(true, true, CLOSE_NORMAL);
+                } else {
+                    nativeCase = add(new NativeCase(id, "Send a text message with payload which is not valid " +
+                            "UTF-8 in one fragment.<br><br>Payload: 0x" + toHex(sequence.bytes),
+                            "The connection is failed immediately, since the payload is not valid UTF-8."))
+                            .expect(OK)
+                            .expectClose(false, false, CLOSE_INVALID_PAYLOAD)
+                            .closedByWrongEndpointIsFatal();
+                }
+                nativeCase.onOpen(message(sequence.bytes, false, 0), killAfter(500));
+            }
+        }
+    }
+
+    private static NativeCase invalidInParts(String id, Object... parts) {
+        return create(id, parts)
+                .expect(OK, Event.timeout("A"))
+                .expect(NON_STRICT, Event.timeout("A"), Event.timeout("B"))
+                .expectClose(false, false, CLOSE_INVALID_PAYLOAD)
+                .closedByWrongEndpointIsFatal();
+    }
+
+    // 7.x
+    private static void closeHandling() {
+        byte[] hello = text("Hello World!");
+        create("7.1.1")
+                .expect(OK, Event.message(hello, false))
+                .expectClose(true, true, CLOSE_NORMAL)
+                .wrongCodeIsFatal()
+                .onOpen(frame(1, hello), killAfter(1000));
+        Action[][] afterClose = {
+            { sendClose(CLOSE_NORMAL, null), frame(8, EMPTY) },
+            { sendClose(CLOSE_NORMAL, null), frame(9, EMPTY) },
+            { sendClose(CLOSE_NORMAL, null), frame(1, hello) },
+            { frame(1, text("fragment1")).fin(false), sendClose(CLOSE_NORMAL, null), frame(0, text("fragment2")) }
+        };
+        for (int i = 0; i < afterClose.length; i++) {
+            create("7.1." + (i + 2))
+                    .expect(OK)
+                    .expectClose(true, true, CLOSE_NORMAL)
+                    .wrongCodeIsFatal()
+                    .suppressClose()
+                    .onOpen(afterClose[i])
+                    .onOpen(killAfter(1000));
+        }
+        String[] text = describe("7.1.6");
+        add(new NativeCase("7.1.6", text[0], text[1]) {
+            @Override
+            void onConnectionLost(NativeConnection connection) {
+                super.onConnectionLost(connection);
+                String result = connection.result();
+                if (OK.equals(connection.behavior())) {
+                    result = "Text message was processed before close.";
+                } else if (NON_STRICT.equals(connection.behavior())) {
+                    result = "Close was processed before text message could be returned.";
+                }
+                connection.behavior(INFORMATIONAL, result);
+                connection.behaviorClose(INFORMATIONAL, connection.resultClose());
+            }
+        })
+                .expect(OK, Event.message(hello, false))
+                .expect(NON_STRICT)
+                .expectClose(true, true, CLOSE_NORMAL)
+                .suppressClose()
+                .onOpen(frame(1, text("BAsd7&jh23")).length(256 * 1024), frame(1, hello),
+                        sendClose(CLOSE_NORMAL, null), frame(9, EMPTY), killAfter(1000));
+
+        closeFrame("7.3.1", true, CLOSE_NORMAL).onOpen(sendCloseFrame(null, null), killAfter(1000));
+        closeFrame("7.3.2", false, CLOSE_PROTOCOL_ERROR).onOpen(sendCloseFrame(null, text("a")), killAfter(1000));
+        closeFrame("7.3.3", true, CLOSE_NORMAL).onOpen(sendClose(CLOSE_NORMAL, null), killAfter(1000));
+        closeFrame("7.3.4", true, CLOSE_NORMAL).onOpen(sendClose(CLOSE_NORMAL, "Hello World!"), killAfter(1000));
+        closeFrame("7.3.5", true, CLOSE_NORMAL)
+                .onOpen(sendClose(CLOSE_NORMAL, text(repeat('*', 123))), killAfter(1000));
+        closeFrame("7.3.6", false, CLOSE_PROTOCOL_ERROR)
+                .onOpen(sendCloseFrame(CLOSE_NORMAL, repeat('*', 124)), killAfter(1000));
+        closeFrame("7.5.1", false, CLOSE_PROTOCOL_ERROR, CLOSE_INVALID_PAYLOAD)
+                .onOpen(sendCloseFrame(CLOSE_NORMAL, concat(hex("cebae1bdb9cf83cebcceb5eda080"), text("edited"))),
+                        killAfter(1000));
+
+        int[] valid = { 1000, 1001, 1002, 1003, 1007, 1008, 1009, 1010, 1011, 3000, 3999, 4000, 4999 };
+        for (int i = 0; i < valid.length; i++) {
+            add(new NativeCase("7.7." + (i + 1), "Send close with valid close code " + valid[i],
+                    "Clean close with normal or echoed code"))
+                    .expect(OK)
+                    .expectClose(true, true, CLOSE_NORMAL, valid[i])
+                    .wrongCodeIsFatal()
+                    .onOpen(sendCloseFrame(valid[i], null), killAfter(1000));
+        }
+        int[] invalid = { 0, 999, 1004, 1005, 1006, 1016, 1100, 2000, 2999 };
+        for (int i = 0; i < invalid.length; i++) {
+            add(new NativeCase("7.9." + (i + 1), "Send close with invalid close code " + invalid[i],
+                    "Clean close with protocol error code or drop TCP"))
+                    .expect(OK)
+                    .expectClose(true, false, CLOSE_PROTOCOL_ERROR)
+                    .wrongCodeIsFatal()
+                    .onOpen(sendCloseFrame(invalid[i], null), killAfter(1000));
+        }
+        int[] outOfRange = { 5000, 65535 };
+        for (int i = 0; i < outOfRange.length; i++) {
+            String id = "7.13." + (i + 1);
+            text = describe(id);
+            add(new NativeCase(id, text[0], text[1]) {
+                @Override
+                void onConnectionLost(NativeConnection connection) {
+                    super.onConnectionLost(connection);
+                    connection.behavior(INFORMATIONAL, "Actual events are undefined by the spec.");
+                    connection.behaviorClose(INFORMATIONAL, connection.resultClose());
+                }
+            })
+                    .expect(OK)
+                    .expectClose(true, false, CLOSE_NORMAL, outOfRange[i], CLOSE_PROTOCOL_ERROR)
+                    .suppressClose()
+                    .onOpen(sendCloseFrame(outOfRange[i], null), killAfter(1000));
+        }
+    }
+
+    private static NativeCase closeFrame(String id, boolean requireClean, int... closeCodes) {
+        return create(id)
+                .expect(OK)
+                .expectClose(true, requireClean, closeCodes)
+                .wrongCodeIsFatal()
+                .suppressClose();
+    }
+
+    // 9.x
+    private static void limits() {
+        int[] lengths = { 64 * 1024, 256 * 1024, 1024 * 1024, 4 * 1024 * 1024, 8 * 1024 * 1024, 16 * 1024 * 1024 };
+        int[] textWait = { 10, 10, 100, 100, 100, 100 };
+        int[] binaryWait = { 10, 10, 10, 10, 100, 100 };
+        byte[] textPattern = text("BAsd7&jh23");
+        byte[] binaryPattern = hex("00fe23faf0");
+        for (int i = 0; i < lengths.length; i++) {
+            echo("9.1." + (i + 1), false, lengths[i], textWait[i])
+                    .onOpen(frame(1, textPattern).length(lengths[i]), closeAfter(textWait[i] * 1000L));
+            echo("9.2." + (i + 1), true, lengths[i], binaryWait[i])
+                    .onOpen(frame(2, binaryPattern).length(lengths[i]), closeAfter(binaryWait[i] * 1000L));
+        }
+        int[] fragmentSizes = { 64, 256, 1024, 4 * 1024, 16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024,
+                4 * 1024 * 1024 };
+        int length = 4 * 1024 * 1024;
+        for (int i = 0; i < fragmentSizes.length; i++) {
+            echo("9.3." + (i + 1), false, length, 100)
+                    .onOpen(message(new byte[] { '*' }, length, false, fragmentSizes[i]), closeAfter(100000));
+            echo("9.4." + (i + 1), true, length, 100)
+                    .onOpen(message(new byte[] { (byte) (i == 0 ? 0xfe : '*') }, length, true, fragmentSizes[i]),
+                            closeAfter(100000));
+        }
+        length = 1024 * 1024;
+        for (int i = 0; i < 6; i++) {
+            int chop = 64 << i;
+            echo("9.5." + (i + 1), false, length, 1000)
+                    .onOpen(frame(1, textPattern).length(length).chop(chop), closeAfter(1000000));
+            echo("9.6." + (i + 1), true, length, 1000)
+                    .onOpen(frame(2, binaryPattern).length(length).chop(chop), closeAfter(1000000));
+        }
+        int[] sizes = { 0, 16, 64, 256, 1024, 4096 };
+        int[] roundTripWait = { 60, 60, 60, 120, 240, 480 };
+        for (int i = 0; i < sizes.length; i++) {
+            for (boolean binary: new boolean[] { false, true }) {
+                String type = binary ? "binary" : "text";
+                add(new RoundTripCase((binary ? "9.8." : "9.7.") + (i + 1),
+                        "Send 1000 " + type + " messages of payload size " + sizes[i] +
+                                " to measure implementation/network RTT (round trip time) / latency.",
+                        "Receive echo'ed " + type + " messages (with payload as sent). Timeout case after " +
+                                roundTripWait[i] + " secs.", binary, sizes[i], 1000, roundTripWait[i]));
+            }
+        }
+    }
+
+    private static NativeCase echo(String id, boolean binary, int length, int waitSeconds) {
+        String[] text = describe(id);
+        return add(new EchoCase(id, text[0], text[1], binary, length, waitSeconds));
+    }
+
+    /**
+     * Sends one big message and checks the echo, see {@code case9_1_1.py}.
+     */
+    private static final class EchoCase extends NativeCase {
+        private final boolean binary;
+        private final int length;
+        private final int waitSeconds;
+
+        EchoCase(String id, String description, String expectation, boolean binary, int length, int waitSeconds) {
+            super(id, description, expectation);
+            this.binary = binary;
+            this.length = length;
+            this.waitSeconds = waitSeconds;
+            expectClose(true, true, CLOSE_NORMAL);
+            reportTime();
+        }
+
+        @Override
+        void onOpen(NativeConnection connection) {
+            connection.behavior(FAILED, "Did not receive message within " + waitSeconds + " seconds.");
+            super.onOpen(connection);
+        }
+
+        @Override
+        void onMessage(NativeConnection connection, byte[] payload, boolean binary) {
+            String type = this.binary ? "binary" : "text";
+            if (binary != this.binary) {
+                connection.behavior(FAILED, "Expected " + type + " message with payload, but got " +
+                        (binary ? "binary" : "text") + ".");
+            } else if (payload.length != length) {
+                connection.behavior(FAILED, "Expected " + type + " message with payload of length " + length +
+                        ", but got " + payload.length + ".");
+            } else {
+                connection.behavior(OK, "Received " + type + " message of length " + payload.length + ".");
+            }
+            connection.sendClose(CLOSE_NORMAL, null);
+        }
+    }
+
+    /**
+     * Sends messages one after the other, each once the echo of the previous one was received, see
+     * {@code case9_7_X.py}.
+     */
+    private static final class RoundTripCase extends NativeCase {
+        private final boolean binary;
+        private final int length;
+        private final int count;
+        private final int waitSeconds;
+
+        RoundTripCase(String id, String description, String expectation, boolean binary, int length, int count,
+                      int waitSeconds) {
+            super(id, description, expectation);
+            this.binary = binary;
+            this.length = length;
+            this.count = count;
+            this.waitSeconds = waitSeconds;
+            expectClose(true, true, CLOSE_NORMAL);
+            reportTime();
+        }
+
+        @Override
+        void onOpen(NativeConnection connection) {
+            connection.behavior(FAILED, "Case did not finish within " + waitSeconds + " seconds.");
+            connection.closeAfter(waitSeconds * 1000L);
+            sendOne(connection);
+        }
+
+        private void sendOne(NativeConnection connection) {
+            connection.sendFrame(binary ? 2 : 1, new byte[] { (byte) (binary ? 0xfe : '*') }, true, 0, length, 0);
+        }
+
+        @Override
+        void onMessage(NativeConnection connection, byte[] payload, boolean binary) {
+            if (binary != this.binary || payload.length != length) {
+                connection.behavior(FAILED, "Echo'ed message type or length differs from what I sent (got binary = " +
+                        (binary ? "True" : "False") + ", payload length = " + payload.length + ").");
+                connection.sendClose(CLOSE_NORMAL, null);
+            } else if (connection.messages() < count) {
+                sendOne(connection);
+            } else {
+                connection.behavior(OK, "Ok, received all echo'ed messages in time.");
+                connection.sendClose(CLOSE_NORMAL, null);
+            }
+        }
+    }
+
+    private static NativeCase protocolError(String id) {
+        return create(id)
+                .expect(OK)
+                .expectClose(false, false, CLOSE_PROTOCOL_ERROR);
+    }
+
+    /**
+     * Create a case with the description and expectation of the bundled case class. The {@code args} are used to
+     * format the description, which is done by the case classes of 6.2.x to 6.4.x.
+     */
+    private static NativeCase create(String id, Object... args) {
+        String[] text = describe(id);
+        return add(new NativeCase(id, args.length == 0 ? text[0] : String.format(text[0], args), text[1]));
+    }
+
+    private static NativeCase add(NativeCase nativeCase) {
+        CASES.put(nativeCase.id(), nativeCase);
+        return nativeCase;
+    }
+
+    private static String[] describe(String id) {
+        String resource = CASE_RESOURCE + id.replace('.', '_') + ".py";
+        InputStream in = NativeCases.class.getClassLoader().getResourceAsStream(resource);
+        if (in == null) {
+            throw new IllegalStateException("Missing " + resource);
+        }
+        String source;
+        try {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                source = out.toString("UTF-8");
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + resource, e);
+        }
+        String[] text = new String[2];
+        Matcher matcher = TEXT.matcher(source);
+        while (matcher.find()) {
+            text["DESCRIPTION".equals(matcher.group(1)) ? 0 : 1] = matcher.group(2);
+        }
+        return text;
+    }
+
+    /**
+     * The UTF-8 test sequences of {@code createUtf8TestSequences()} in {@code case6_x_x.py}, which are run as
+     * 6.5.x to 6.23.x.
+     */
+    private static List<List<Utf8Sequence>> utf8Sequences() {
+        List<List<Utf8Sequence>> groups = new ArrayList<List<Utf8Sequence>>();
+
+        // Some valid UTF-8 sequences
+        byte[] kosme = hex("cebae1bdb9cf83cebcceb5");
+        groups.add(sequences(true, "68656c6c6f24776f726c64", "68656c6c6fc2a2776f726c64", "68656c6c6fe282ac776f726c64",
+                "68656c6c6ff0a4ada2776f726c64", "cebae1bdb9cf83cebcceb5"));
+
+        // All prefixes of a valid UTF-8 string that contains multi-byte code points
+        List<Utf8Sequence> prefixes = new ArrayList<Utf8Sequence>();
+        for (int i = 1; i <= kosme.length; i++) {
+            byte[] prefix = Arrays.copyOf(kosme, i);
+            prefixes.add(new Utf8Sequence(Utf8Validator.isValid(prefix), prefix));
+        }
+        groups.add(prefixes);
+
+        // First possible sequence of a certain length
+        groups.add(sequences(true, "00", "c280", "e0a080", "f0908080"));
+        // First possible sequence length 5/6 (invalid codepoints)
+        groups.add(sequences(false, "f888808080", "fc8480808080"));
+        // Last possible sequence of a certain length
+        groups.add(sequences(true, "7f", "dfbf", "efbfbf", "f48fbfbf"));
+        // Last possible sequence length 4/5/6 (invalid codepoints)
+        groups.add(sequences(false, "f7bfbfbf", "fbbfbfbfbf", "fdbfbfbfbfbf"));
+
+        // Other boundary conditions
+        List<Utf8Sequence> boundaries = sequences(true, "ed9fbf", "ee8080", "efbfbd", "f48fbfbf");
+        boundaries.add(new Utf8Sequence(false, hex("f4908080")));
+        groups.add(boundaries);
+
+        // Unexpected continuation bytes
+        List<Utf8Sequence> continuations = sequences(false, "80", "bf", "80bf", "80bf80", "80bf80bf", "80bf80bf80",
+                "80bf80bf80bf");
+        byte[] all = new byte[0xbf - 0x80];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (byte) (0x80 + i);
+        }
+        continuations.add(new Utf8Sequence(false, all));
+        groups.add(continuations);
+
+        // Lonely start characters
+        List<Utf8Sequence> lonely = new ArrayList<Utf8Sequence>();
+        int[][] ranges = { { 0xc0, 0xdf }, { 0xe0, 0xef }, { 0xf0, 0xf7 }, { 0xf8, 0xfb }, { 0xfc, 0xfd } };
+        for (int[] range: ranges) {
+            byte[] bytes = new byte[(range[1] - range[0]) * 2];
+            for (int i = 0; i < range[1] - range[0]; i++) {
+                bytes[i * 2] = (byte) (range[0] + i);
+                bytes[i * 2 + 1] = 0x20;
+            }
+            lonely.add(new Utf8Sequence(false, bytes));
+        }
+        groups.add(lonely);
+
+        // Sequences with last continuation byte missing
+        String[] incomplete = { "c0", "e080", "f08080", "f8808080", "fc80808080", "df", "efbf", "f7bfbf", "fbbfbfbf",
+                "fdbfbfbfbf" };
+        groups.add(sequences(false, incomplete));
+        // Concatenation of incomplete sequences
+        StringBuilder concatenated = new StringBuilder();
+        for (String s: incomplete) {
+            concatenated.append(s);
+        }
+        groups.add(sequences(false, concatenated.toString()));
+
+        // Impossible bytes
+        groups.add(sequences(false, "fe", "ff", "fefeffff"));
+        // Examples of an overlong ASCII character
+        groups.add(sequences(false, "c0af", "e080af", "f08080af", "f8808080af", "fc80808080af"));
+        // Maximum overlong sequences
+        groups.add(sequences(false, "c1bf", "e09fbf", "f08fbfbf", "f887bfbfbf", "fc83bfbfbfbf"));
+        // Overlong representation of the NUL character
+        groups.add(sequences(false, "c080", "e08080", "f0808080", "f880808080", "fc8080808080"));
+        // Single UTF-16 surrogates
+        groups.add(sequences(false, "eda080", "edadbf", "edae80", "edafbf", "edb080", "edbe80", "edbfbf"));
+        // Paired UTF-16 surrogates
+        groups.add(sequences(false, "eda080edb080", "eda080edbfbf", "edadbfedb080", "edadbfedbfbf", "edae80edb080",
+                "edae80edbfbf", "edafbfedb080", "edafbfedbfbf"));
+
+        // Non-character code points (valid UTF-8)
+        List<Utf8Sequence> nonCharacters = sequences(true, "efbfbe", "efbfbf");
+        for (int z1 = 0xf0; z1 <= 0xf4; z1++) {
+            for (int z2 = 0x8f; z2 <= 0xbf; z2 += 0x10) {
+                // those encode code points > U+10FFFF
+                if (z1 == 0xf4 && z2 != 0x8f) {
+                    continue;
+                }
+                for (int z3 = 0xbe; z3 <= 0xbf; z3++) {
+                    // filter overlong sequences
+                    if (z1 == 0xf0 && z2 == 0x8f) {
+                        continue;
+                    }
+                    nonCharacters.add(new Utf8Sequence(true, new byte[] { (byte) z1, (byte) z2, (byte) 0xbf,
+                            (byte) z3 }));
+                }
+            }
+        }
+        groups.add(nonCharacters);
+
+        // Unicode specials (i.e. replacement char)
+        groups.add(sequences(true, "efbfb9", "efbfba", "efbfbb", "efbfbc", "efbfbd", "efbfbe", "efbfbf"));
+        return groups;
+    }
+
+    private static List<Utf8Sequence> sequences(boolean valid, String... hex) {
+        List<Utf8Sequence> sequences = new ArrayList<Utf8Sequence>();
+        for (String h: hex) {
+            sequences.add(new Utf8Sequence(valid, hex(h)));
+        }
+        return sequences;
+    }
+
+    private static final class Utf8Sequence {
+        private final boolean valid;
+        private final byte[] bytes;
+
+        Utf8Sequence(boolean valid, byte[] bytes) {
+            this.valid = valid;
+            this.bytes = bytes;
+        }
+    }
+
+    private static Frame frame(int opcode, byte[] payload) {
+        return new Frame(opcode, payload);
+    }
+
+    /**
+     * Sends a single frame, see {@code sendFrame} of autobahn.
+     */
+    private static final class Frame implements Action {
+        private final int opcode;
+        private final byte[] payload;
+        private boolean fin = true;
+        private int rsv;
+        private long length = -1;
+        private int chopSize;
+
+        Frame(int opcode, byte[] payload) {
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+
+        Frame fin(boolean fin) {
+            this.fin = fin;
+            return this;
+        }
+
+        Frame rsv(int rsv) {
+            this.rsv = rsv;
+            return this;
+        }
+
+        /**
+         * Repeat the payload up to the given length.
+         */
+        Frame length(long length) {
+            this.length = length;
+            return this;
+        }
+
+        /**
+         * Write the frame in chunks of the given size.
+         */
+        Frame chop(int chopSize) {
+            this.chopSize = chopSize;
+            return this;
+        }
+
+        @Override
+        public void run(NativeConnection connection) {
+            connection.sendFrame(opcode, payload, fin, rsv, length, chopSize);
+        }
+    }
+
+    private static Action message(byte[] payload, boolean binary, int fragmentSize) {
+        return message(payload, payload.length, binary, fragmentSize);
+    }
+
+    /**
+     * Sends a message of the given length, which is filled with the pattern once the action is run so big messages
+     * only take memory while their case runs.
+     */
+    private static Action message(final byte[] pattern, final int length, final boolean binary,
+                                  final int fragmentSize) {
+        return new Action() {
+            @Override
+            public void run(NativeConnection connection) {
+                byte[] payload = pattern;
+                if (pattern.length != length) {
+                    payload = new byte[length];
+                    for (int i = 0; i < length; i++) {
+                        payload[i] = pattern[i % pattern.length];
+                    }
+                }
+                connection.sendMessage(payload, binary, fragmentSize);
+            }
+        };
+    }
+
+    private static Action beginFrame(final int opcode, final boolean fin, final long length) {
+        return new Action() {
+            @Override
+            public void run(NativeConnection connection) {
+                connection.beginFrame(opcode, fin, length);
+            }
+        };
+    }
+
+    private static Action frameData(final byte[] data) {
+        return new Action() {
+            @Override
+            public void run(NativeConnection connection) {
+                connection.sendFrameData(data);
+            }
+        };
+    }
+
+    private static Action sendClose(final Integer code, final String reason) {
+        return new Action() {
+            @Override
+            public void run(NativeConnection connection) {
+                connection.sendClose(code, reason);
+            }
+        };
+    }
+
+    private static Action sendCloseFrame(final Integer code, final byte[] reason) {
+        return new Action() {
+            @Override
+            public void run(NativeConnection connection) {
+                connection.sendCloseFrame(code, reason, false);
+            }
+        };
+    }
+
+    private static Action killAfter(final long millis) {
+        return new Action() {
+            @Override
+            public void run(NativeConnection connection) {
+                connection.killAfter(millis);
+            }
+        };
+    }
+
+    private static Action closeAfter(final long millis) {
+        return new Action() {
+            @Override
+            public void run(NativeConnection connection) {
+                connection.closeAfter(millis);
+            }
+        };
+    }
+
+    private static Action continueLater(final long millis, final String tag, final Action... actions) {
+        return new Action() {
+            @Override
+            public void run(NativeConnection connection) {
+                connection.continueLater(millis, tag, actions);
+            }
+        };
+    }
+
+    private static byte[] text(String text) {
+        return NativeConnection.utf8(text);
+    }
+
+    private static String text(byte[] utf8) {
+        try {
+            return new String(utf8, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] repeat(int b, int count) {
+        byte[] bytes = new byte[count];
+        Arrays.fill(bytes, (byte) b);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part: parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,1080 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A WebSocket client connection which runs one {@link NativeCase}. It behaves like the client protocol of autobahn
+ * with {@code failByDrop = false}, which is how the fuzzingclient is configured: protocol violations of the server are
+ * answered with a close frame, timeouts are the same and so is the way the closing handshake is tracked.
+ *
+ * Everything happens on the thread which calls {@link #run()}, using a non-blocking channel and a {@link Selector},
+ * so reading, writing and the timers of a case never block each other.
+ */
+final class NativeConnection {
+
+    static final int CLOSE_NORMAL = 1000;
+    static final int CLOSE_GOING_AWAY = 1001;
+    static final int CLOSE_PROTOCOL_ERROR = 1002;
+    static final int CLOSE_INVALID_PAYLOAD = 1007;
+    static final int CLOSE_MESSAGE_TOO_BIG = 1009;
+
+    private static final int[] CLOSE_CODES_ALLOWED = { 1000, 1001, 1002, 1003, 1007, 1008, 1009, 1010, 1011 };
+    private static final long OPEN_HANDSHAKE_TIMEOUT = 5000;
+    private static final long CLOSE_HANDSHAKE_TIMEOUT = 1000;
+    private static final long SERVER_CONNECTION_DROP_TIMEOUT = 1000;
+    // the biggest payload of a case is 16 MiB (9.1.6), so this leaves plenty of room
+    private static final long MAX_FRAME_PAYLOAD_SIZE = 64 * 1024 * 1024;
+    // the whole frame has to fit into the input buffer, which is an array
+    private static final long MAX_BUFFERED_PAYLOAD_SIZE = Integer.MAX_VALUE - 8 - 14;
+
+    /**
+     * The options of the fuzzing spec which are supported, all others are not.
+     */
+    static final List<String> OPTIONS = Arrays.asList("version", "openHandshakeTimeout", "closeHandshakeTimeout",
+            "serverConnectionDropTimeout", "maxFramePayloadSize");
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private enum State {
+        CONNECTING,
+        OPEN,
+        CLOSING,
+        CLOSED
+    }
+
+    private final URI uri;
+    private final NativeCase testCase;
+    private final long openHandshakeTimeout;
+    private final long closeHandshakeTimeout;
+    private final long serverConnectionDropTimeout;
+    private final long caseTimeout;
+    private final long maxFramePayloadSize;
+    private final Random random = new Random();
+    private final Deque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+    private final Utf8Validator validator = new Utf8Validator();
+    private final ByteArrayOutputStream message = new ByteArrayOutputStream();
+    private final List<NativeCase.Event> received = new ArrayList<NativeCase.Event>();
+    private State state = State.CONNECTING;
+    private SocketChannel channel;
+    private String key;
+    private long timerSequence;
+
+    private byte[] in = new byte[READ_BUFFER_SIZE];
+    private int inLength;
+    private boolean framingLost;
+    private boolean insideMessage;
+    private int messageOpcode;
+    private boolean validateMessage;
+    private int messages;
+
+    private byte[] frameMask;
+    private long frameOffset;
+
+    private Timer closeHandshakeTimer;
+    private Timer serverConnectionDropTimer;
+    private boolean opened;
+    private boolean closedByMe;
+    private boolean failedByMe;
+    private boolean droppedByMe;
+    private boolean wasClean;
+    private String wasNotCleanReason;
+    private boolean wasOpenHandshakeTimeout;
+    private boolean wasCloseHandshakeTimeout;
+    private boolean wasServerConnectionDropTimeout;
+    private Integer localCloseCode;
+    private byte[] localCloseReason;
+    private Integer remoteCloseCode;
+    private byte[] remoteCloseReason;
+
+    private String behavior = NativeCase.FAILED;
+    private String result = "Actual events differ from any expected.";
+    private String behaviorClose = NativeCase.FAILED;
+    private String resultClose = "TCP connection was dropped without close handshake";
+    private long openedNanos;
+    private long closedNanos;
+    private boolean timedOut;
+
+    // the same as the trafficStats of autobahn, which only count data frames
+    private boolean dataFrame;
+    private long incomingOctetsWireLevel;
+    private long incomingOctetsWebSocketLevel;
+    private long incomingWebSocketFrames;
+    private long incomingWebSocketMessages;
+    private long outgoingOctetsWireLevel;
+    private long outgoingOctetsWebSocketLevel;
+    private long outgoingWebSocketFrames;
+    private long outgoingWebSocketMessages;
+
+    /**
+     * Create a connection, the timeouts of the given {@link #OPTIONS} are in seconds as for wstest. If the case takes
+     * longer than {@code caseTimeout} ms it is aborted and fails, {@code 0} disables the timeout. Frames with a bigger
+     * payload than {@code maxFramePayloadSize} octets fail the case, {@code 0} only limits them to what fits in memory.
+     */
+    NativeConnection(URI uri, NativeCase testCase, Map<?, ?> options, long caseTimeout) {
+        this.uri = uri;
+        this.testCase = testCase;
+        this.caseTimeout = caseTimeout;
+        openHandshakeTimeout = timeout(options, "openHandshakeTimeout", OPEN_HANDSHAKE_TIMEOUT);
+        closeHandshakeTimeout = timeout(options, "closeHandshakeTimeout", CLOSE_HANDSHAKE_TIMEOUT);
+        serverConnectionDropTimeout = timeout(options, "serverConnectionDropTimeout",
+                SERVER_CONNECTION_DROP_TIMEOUT);
+        maxFramePayloadSize = maxFramePayloadSize(options);
+    }
+
+    private static long maxFramePayloadSize(Map<?, ?> options) {
+        Object value = options.get("maxFramePayloadSize");
+        if (value == null) {
+            return MAX_FRAME_PAYLOAD_SIZE;
+        }
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("Option maxFramePayloadSize must be a number: " + value);
+        }
+        long size = ((Number) value).longValue();
+        return size <= 0 ? MAX_BUFFERED_PAYLOAD_SIZE : Math.min(size, MAX_BUFFERED_PAYLOAD_SIZE);
+    }
+
+    private static long timeout(Map<?, ?> options, String name, long defaultValue) {
+        Object value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("Option " + name + " must be a number: " + value);
+        }
+        return Math.round(((Number) value).doubleValue() * 1000);
+    }
+
+    /**
+     * Connect, run the case until the connection is closed and evaluate it.
+     */
+    void run() throws IOException {
+        Selector selector = Selector.open();
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            int port = uri.getPort() == -1 ? 80 : uri.getPort();
+            boolean connected = channel.connect(new InetSocketAddress(uri.getHost(), port));
+            SelectionKey selectionKey = channel.register(selector, connected ? SelectionKey.OP_READ :
+                    SelectionKey.OP_CONNECT);
+            schedule(openHandshakeTimeout, new NativeCase.Action() {
+                @Override
+                public void run(NativeConnection connection) {
+                    if (state == State.CONNECTING) {
+                        wasClean = false;
+                        wasNotCleanReason = "peer did not finish (in time) the opening handshake";
+                        wasOpenHandshakeTimeout = true;
+                        dropConnection();
+                    }
+                }
+            });
+            if (caseTimeout > 0) {
+                schedule(caseTimeout, new NativeCase.Action() {
+                    @Override
+                    public void run(NativeConnection connection) {
+                        timedOut = true;
+                        dropConnection();
+                    }
+                });
+            }
+            if (connected) {
+                sendHandshake();
+            }
+            while (state != State.CLOSED) {
+                long timeout = runTimers();
+                if (state == State.CLOSED) {
+                    break;
+                }
+                if (selectionKey.isValid() && channel.isConnected()) {
+                    selectionKey.interestOps(output.isEmpty() ? SelectionKey.OP_READ :
+                            SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+                selector.select(timeout);
+                selector.selectedKeys().clear();
+                if (!selectionKey.isValid()) {
+                    continue;
+                }
+                try {
+                    if (selectionKey.isConnectable() && channel.finishConnect()) {
+                        sendHandshake();
+                    }
+                    if (selectionKey.isReadable()) {
+                        read();
+                    }
+                    if (state != State.CLOSED && !output.isEmpty() && channel.isConnected()) {
+                        flush();
+                    }
+                } catch (IOException e) {
+                    connectionLost();
+                }
+            }
+        } finally {
+            closedNanos = System.nanoTime();
+            closeChannel();
+            selector.close();
+        }
+        if (!wasClean && !droppedByMe && wasNotCleanReason == null) {
+            wasNotCleanReason = "peer dropped the TCP connection without previous WebSocket closing handshake";
+        }
+        if (opened) {
+            testCase.onConnectionLost(this);
+        } else {
+            result = "WebSocket opening handshake failed: " + wasNotCleanReason;
+        }
+        if (timedOut) {
+            behavior = NativeCase.FAILED;
+            result = "The case did not finish within " + caseTimeout + " ms";
+        }
+    }
+
+    private void sendHandshake() throws UnsupportedEncodingException {
+        byte[] nonce = new byte[16];
+        random.nextBytes(nonce);
+        key = base64(nonce);
+        String path = uri.getRawPath() == null || uri.getRawPath().length() == 0 ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        String request = "GET " + path + " HTTP/1.1\r\n" +
+                "Host: " + uri.getHost() + (uri.getPort() == -1 ? "" : ":" + uri.getPort()) + "\r\n" +
+                "Upgrade: WebSocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Pragma: no-cache\r\n" +
+                "Cache-Control: no-cache\r\n" +
+                "Sec-WebSocket-Key: " + key + "\r\n" +
+                "Sec-WebSocket-Version: 13\r\n\r\n";
+        output.add(ByteBuffer.wrap(request.getBytes("US-ASCII")));
+    }
+
+    private void read() throws IOException {
+        if (inLength == in.length) {
+            grow(in.length * 2);
+        }
+        int read = channel.read(ByteBuffer.wrap(in, inLength, in.length - inLength));
+        if (read == -1) {
+            connectionLost();
+            return;
+        }
+        inLength += read;
+        if (state == State.CONNECTING) {
+            processHandshake();
+        }
+        if (state == State.OPEN || state == State.CLOSING) {
+            processFrames();
+        }
+    }
+
+    private void grow(long capacity) {
+        if (capacity > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Frame of " + capacity + " bytes is too big");
+        }
+        byte[] bigger = new byte[(int) capacity];
+        System.arraycopy(in, 0, bigger, 0, inLength);
+        in = bigger;
+    }
+
+    private void flush() throws IOException {
+        while (!output.isEmpty()) {
+            ByteBuffer buffer = output.peek();
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                // wait until the channel is writable again
+                return;
+            }
+            output.poll();
+        }
+    }
+
+    private void processHandshake() throws UnsupportedEncodingException {
+        int end = -1;
+        for (int i = 3; i < inLength; i++) {
+            if (in[i - 3] == '\r' && in[i - 2] == '\n' && in[i - 1] == '\r' && in[i] == '\n') {
+                end = i + 1;
+                break;
+            }
+        }
+        if (end == -1) {
+            return;
+        }
+        String[] lines = new String(in, 0, end, "ISO-8859-1").split("\r\n");
+        consume(end);
+        String error = null;
+        if (!lines[0].startsWith("HTTP/1.1 101")) {
+            error = "unexpected response " + lines[0];
+        } else {
+            String accept = null;
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0 && lines[i].substring(0, colon).trim().toLowerCase(Locale.ENGLISH)
+                        .equals("sec-websocket-accept")) {
+                    accept = lines[i].substring(colon + 1).trim();
+                }
+            }
+            if (!accept(key).equals(accept)) {
+                error = "invalid Sec-WebSocket-Accept " + accept;
+            }
+        }
+        if (error != null) {
+            wasClean = false;
+            wasNotCleanReason = error;
+            dropConnection();
+            return;
+        }
+        state = State.OPEN;
+        opened = true;
+        openedNanos = System.nanoTime();
+        testCase.onOpen(this);
+    }
+
+    /**
+     * Process all complete frames in the input buffer, the same way {@code processDataHybi} of autobahn does.
+     */
+    private void processFrames() {
+        if (framingLost) {
+            // the frame boundaries are unknown, so nothing after the bad header can be parsed
+            inLength = 0;
+            return;
+        }
+        int offset = 0;
+        while (state != State.CLOSED) {
+            int available = inLength - offset;
+            if (available < 2) {
+                break;
+            }
+            int b0 = in[offset] & 0xff;
+            int b1 = in[offset + 1] & 0xff;
+            boolean fin = (b0 & 0x80) != 0;
+            int rsv = (b0 & 0x70) >> 4;
+            int opcode = b0 & 0x0f;
+            boolean masked = (b1 & 0x80) != 0;
+            int length1 = b1 & 0x7f;
+            int headerLength = 2 + (length1 == 126 ? 2 : length1 == 127 ? 8 : 0) + (masked ? 4 : 0);
+            if (available < headerLength) {
+                break;
+            }
+            long length;
+            if (length1 == 126) {
+                length = ((in[offset + 2] & 0xff) << 8) | (in[offset + 3] & 0xff);
+            } else if (length1 == 127) {
+                length = 0;
+                for (int i = 0; i < 8; i++) {
+                    length = (length << 8) | (in[offset + 2 + i] & 0xff);
+                }
+            } else {
+                length = length1;
+            }
+            if (length < 0) {
+                loseFraming(CLOSE_PROTOCOL_ERROR, "invalid data frame length (MSB set)");
+                return;
+            }
+            if (length > maxFramePayloadSize) {
+                loseFraming(CLOSE_MESSAGE_TOO_BIG, "frame payload of " + length + " octets exceeds the limit of " +
+                        maxFramePayloadSize + " octets");
+                return;
+            }
+            if (available - headerLength < length) {
+                if (offset + headerLength + length > in.length) {
+                    // make room for the whole frame, the loop in run() will read the rest
+                    consume(offset);
+                    offset = 0;
+                    grow(Math.max(headerLength + length, in.length * 2L));
+                }
+                break;
+            }
+
+            if (rsv != 0) {
+                protocolViolation("RSV = " + rsv + " and no extension negotiated");
+            }
+            if (masked) {
+                protocolViolation("masked server-to-client frame");
+            }
+            if (opcode > 7) {
+                if (!fin) {
+                    protocolViolation("fragmented control frame");
+                }
+                if (length1 > 125) {
+                    protocolViolation("control frame with payload length > 125 octets");
+                }
+                if (opcode != 8 && opcode != 9 && opcode != 10) {
+                    protocolViolation("control frame using reserved opcode " + opcode);
+                }
+                if (opcode == 8 && length1 == 1) {
+                    protocolViolation("received close control frame with payload len 1");
+                }
+            } else {
+                if (opcode > 2) {
+                    protocolViolation("data frame using reserved opcode " + opcode);
+                }
+                if (!insideMessage && opcode == 0) {
+                    protocolViolation("received continuation data frame outside fragmented message");
+                }
+                if (insideMessage && opcode != 0) {
+                    protocolViolation("received non-continuation data frame while inside fragmented message");
+                }
+            }
+            if ((length1 == 126 && length < 126) || (length1 == 127 && length < 65536)) {
+                protocolViolation("invalid data frame length (not using minimal length encoding)");
+            }
+
+            int payloadOffset = offset + headerLength;
+            byte[] payload = new byte[(int) length];
+            System.arraycopy(in, payloadOffset, payload, 0, payload.length);
+            if (masked) {
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] ^= in[payloadOffset - 4 + (i & 3)];
+                }
+            }
+            offset = payloadOffset + payload.length;
+            if (state == State.CLOSED) {
+                break;
+            }
+            if (opcode > 7) {
+                processControlFrame(opcode, payload);
+            } else {
+                incomingOctetsWireLevel += headerLength + payload.length;
+                incomingOctetsWebSocketLevel += payload.length;
+                incomingWebSocketFrames++;
+                processDataFrame(opcode, fin, payload);
+            }
+        }
+        consume(offset);
+    }
+
+    private void loseFraming(int code, String reason) {
+        framingLost = true;
+        inLength = 0;
+        failConnection(code, reason);
+    }
+
+    private void consume(int length) {
+        System.arraycopy(in, length, in, 0, inLength - length);
+        inLength -= length;
+    }
+
+    private void processDataFrame(int opcode, boolean fin, byte[] payload) {
+        if (!insideMessage) {
+            insideMessage = true;
+            messageOpcode = opcode;
+            message.reset();
+            validateMessage = opcode == 1;
+            validator.reset();
+        }
+        if (validateMessage && !validator.validate(payload, 0, payload.length)) {
+            invalidPayload("encountered invalid UTF-8 while processing text message at payload octet index " +
+                    validator.index());
+        }
+        message.write(payload, 0, payload.length);
+        if (fin) {
+            if (validateMessage && !validator.endsOnCodePoint()) {
+                invalidPayload("UTF-8 text message payload ended within Unicode code point at payload octet index " +
+                        validator.index());
+            }
+            insideMessage = false;
+            messages++;
+            incomingWebSocketMessages++;
+            testCase.onMessage(this, message.toByteArray(), messageOpcode == 2);
+        }
+    }
+
+    private void processControlFrame(int opcode, byte[] payload) {
+        if (opcode == 8) {
+            Integer code = null;
+            byte[] reason = null;
+            if (payload.length > 1) {
+                code = ((payload[0] & 0xff) << 8) | (payload[1] & 0xff);
+                if (payload.length > 2) {
+                    reason = new byte[payload.length - 2];
+                    System.arraycopy(payload, 2, reason, 0, reason.length);
+                }
+            }
+            onCloseFrame(code, reason);
+        } else if (opcode == 9) {
+            if (state == State.OPEN) {
+                sendFrame(10, payload, true, 0, -1, 0);
+            }
+        } else if (opcode == 10) {
+            testCase.onPong(this, payload);
+        }
+    }
+
+    private void onCloseFrame(Integer code, byte[] reason) {
+        remoteCloseCode = code;
+        remoteCloseReason = reason;
+        if (code != null && (code < 1000 || (code <= 2999 && !isAllowed(code)) || code >= 5000)) {
+            protocolViolation("invalid close code " + code);
+        }
+        if (reason != null && !Utf8Validator.isValid(reason)) {
+            invalidPayload("invalid close reason (non-UTF-8 payload)");
+        }
+        if (state == State.CLOSING) {
+            // the reply to our close frame, now the server is expected to drop the TCP connection
+            cancel(closeHandshakeTimer);
+            wasClean = true;
+            serverConnectionDropTimer = schedule(serverConnectionDropTimeout, new NativeCase.Action() {
+                @Override
+                public void run(NativeConnection connection) {
+                    onServerConnectionDropTimeout();
+                }
+            });
+        } else if (state == State.OPEN) {
+            wasClean = true;
+            sendCloseFrame(CLOSE_NORMAL, null, true);
+            // autobahn waits forever for the server to drop the TCP connection here, give up after the same
+            // timeout as used once the server replied to our close frame
+            serverConnectionDropTimer = schedule(serverConnectionDropTimeout, new NativeCase.Action() {
+                @Override
+                public void run(NativeConnection connection) {
+                    onServerConnectionDropTimeout();
+                }
+            });
+        }
+    }
+
+    private static boolean isAllowed(int code) {
+        for (int allowed: CLOSE_CODES_ALLOWED) {
+            if (allowed == code) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onServerConnectionDropTimeout() {
+        if (state != State.CLOSED) {
+            wasClean = false;
+            wasNotCleanReason = "server did not drop TCP connection (in time)";
+            wasServerConnectionDropTimeout = true;
+            dropConnection();
+        }
+    }
+
+    private void protocolViolation(String reason) {
+        failConnection(CLOSE_PROTOCOL_ERROR, reason);
+    }
+
+    private void invalidPayload(String reason) {
+        failConnection(CLOSE_INVALID_PAYLOAD, reason);
+    }
+
+    /**
+     * Fail the connection with a closing handshake.
+     */
+    void failConnection(int code, String reason) {
+        if (state != State.CLOSED) {
+            failedByMe = true;
+            if (state != State.CLOSING) {
+                sendCloseFrame(code, utf8(reason), false);
+            }
+        }
+    }
+
+    /**
+     * Start the closing handshake.
+     */
+    void sendClose(Integer code, String reason) {
+        sendCloseFrame(code, reason == null ? null : utf8(reason), false);
+    }
+
+    /**
+     * Send a close frame with the given code and reason, which are not validated at all.
+     */
+    void sendCloseFrame(Integer code, byte[] reason, boolean isReply) {
+        if (state != State.OPEN) {
+            return;
+        }
+        int codeLength = code == null ? 0 : 2;
+        byte[] payload = new byte[codeLength + (reason == null ? 0 : reason.length)];
+        if (code != null) {
+            payload[0] = (byte) (code >> 8);
+            payload[1] = (byte) (int) code;
+        }
+        if (reason != null) {
+            System.arraycopy(reason, 0, payload, codeLength, reason.length);
+        }
+        sendFrame(8, payload, true, 0, -1, 0);
+        state = State.CLOSING;
+        closedByMe = !isReply;
+        localCloseCode = code;
+        localCloseReason = reason;
+        if (closedByMe) {
+            closeHandshakeTimer = schedule(closeHandshakeTimeout, new NativeCase.Action() {
+                @Override
+                public void run(NativeConnection connection) {
+                    if (state != State.CLOSED) {
+                        wasClean = false;
+                        wasNotCleanReason = "peer did not respond (in time) in closing handshake";
+                        wasCloseHandshakeTimeout = true;
+                        dropConnection();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Drop the TCP connection without any further writes.
+     */
+    private void dropConnection() {
+        if (state != State.CLOSED) {
+            droppedByMe = true;
+            state = State.CLOSED;
+            output.clear();
+            closeChannel();
+        }
+    }
+
+    private void connectionLost() {
+        state = State.CLOSED;
+        cancel(serverConnectionDropTimer);
+        output.clear();
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Send a frame. The payload is repeated up to {@code payloadLength} bytes unless it is {@code -1}. If
+     * {@code chopSize} is bigger than {@code 0} the frame is written in chunks of this size, each with an own write.
+     */
+    void sendFrame(int opcode, byte[] payload, boolean fin, int rsv, long payloadLength, int chopSize) {
+        if (payloadLength >= 0 && payload.length < 1) {
+            throw new IllegalArgumentException("Can not repeat an empty payload");
+        }
+        long length = payloadLength < 0 ? payload.length : payloadLength;
+        int extendedLength = length <= 125 ? 0 : length <= 0xffff ? 2 : 8;
+        int headerLength = 2 + extendedLength + 4;
+        if (length > Integer.MAX_VALUE - headerLength) {
+            throw new IllegalArgumentException("Payload of " + length + " bytes is too big");
+        }
+        byte[] frame = new byte[headerLength + (int) length];
+        byte[] mask = writeHeader(frame, opcode, fin, rsv, length, extendedLength);
+        for (int i = 0; i < length; i++) {
+            frame[headerLength + i] = (byte) (payload[i % payload.length] ^ mask[i & 3]);
+        }
+        if (opcode < 8) {
+            outgoingOctetsWireLevel += frame.length;
+            outgoingOctetsWebSocketLevel += length;
+            outgoingWebSocketFrames++;
+        }
+        send(frame, chopSize);
+    }
+
+    /**
+     * Send the header of a frame with the given length, its payload is sent by {@link #sendFrameData(byte[])}.
+     */
+    void beginFrame(int opcode, boolean fin, long length) {
+        int extendedLength = length <= 125 ? 0 : length <= 0xffff ? 2 : 8;
+        byte[] header = new byte[2 + extendedLength + 4];
+        frameMask = writeHeader(header, opcode, fin, 0, length, extendedLength);
+        frameOffset = 0;
+        dataFrame = opcode < 8;
+        if (dataFrame) {
+            outgoingOctetsWireLevel += header.length;
+            outgoingWebSocketFrames++;
+        }
+        send(header, 0);
+    }
+
+    void sendFrameData(byte[] data) {
+        byte[] masked = new byte[data.length];
+        for (int i = 0; i < data.length; i++) {
+            masked[i] = (byte) (data[i] ^ frameMask[(int) (frameOffset++ & 3)]);
+        }
+        if (dataFrame) {
+            outgoingOctetsWireLevel += masked.length;
+            outgoingOctetsWebSocketLevel += masked.length;
+        }
+        send(masked, 0);
+    }
+
+    /**
+     * Send a message, split into fragments of {@code fragmentSize} bytes if it is bigger than {@code 0}. This follows
+     * {@code sendMessageHybi} of autobahn, which also sends an empty last fragment if the payload is a multiple of
+     * the fragment size.
+     */
+    void sendMessage(byte[] payload, boolean binary, int fragmentSize) {
+        if (state != State.OPEN) {
+            return;
+        }
+        int opcode = binary ? 2 : 1;
+        outgoingWebSocketMessages++;
+        if (fragmentSize <= 0 || payload.length <= fragmentSize) {
+            sendFrame(opcode, payload, true, 0, -1, 0);
+            return;
+        }
+        boolean first = true;
+        boolean done = false;
+        for (int i = 0; !done; i += fragmentSize) {
+            int j = i + fragmentSize;
+            if (j > payload.length) {
+                done = true;
+                j = payload.length;
+            }
+            byte[] fragment = new byte[j - i];
+            System.arraycopy(payload, i, fragment, 0, fragment.length);
+            sendFrame(first ? opcode : 0, fragment, done, 0, -1, 0);
+            first = false;
+        }
+    }
+
+    private byte[] writeHeader(byte[] frame, int opcode, boolean fin, int rsv, long length, int extendedLength) {
+        frame[0] = (byte) ((fin ? 0x80 : 0) | ((rsv % 8) << 4) | (opcode % 128));
+        int offset = 2;
+        if (extendedLength == 0) {
+            frame[1] = (byte) (0x80 | length);
+        } else if (extendedLength == 2) {
+            frame[1] = (byte) (0x80 | 126);
+            frame[offset++] = (byte) (length >> 8);
+            frame[offset++] = (byte) length;
+        } else {
+            frame[1] = (byte) (0x80 | 127);
+            for (int i = 7; i >= 0; i--) {
+                frame[offset++] = (byte) (length >> (i * 8));
+            }
+        }
+        byte[] mask = new byte[4];
+        random.nextBytes(mask);
+        System.arraycopy(mask, 0, frame, offset, 4);
+        return mask;
+    }
+
+    private void send(byte[] data, int chopSize) {
+        if (state == State.CLOSED) {
+            return;
+        }
+        if (chopSize <= 0) {
+            output.add(ByteBuffer.wrap(data));
+        } else {
+            for (int i = 0; i < data.length; i += chopSize) {
+                output.add(ByteBuffer.wrap(data, i, Math.min(chopSize, data.length - i)));
+            }
+        }
+    }
+
+    /**
+     * Fail the connection after the given delay, unless it is closed already.
+     */
+    void killAfter(long millis) {
+        schedule(millis, new NativeCase.Action() {
+            @Override
+            public void run(NativeConnection connection) {
+                failConnection(CLOSE_GOING_AWAY, "Going Away");
+            }
+        });
+    }
+
+    /**
+     * Start the closing handshake after the given delay, unless the connection is closed already.
+     */
+    void closeAfter(long millis) {
+        schedule(millis, new NativeCase.Action() {
+            @Override
+            public void run(NativeConnection connection) {
+                sendClose(null, null);
+            }
+        });
+    }
+
+    /**
+     * Run the given actions after the given delay, unless the connection is closed already. If a tag is given the
+     * actions only run if the connection is still open, and a {@code timeout} event with the tag is received first.
+     */
+    void continueLater(long millis, final String tag, final NativeCase.Action... actions) {
+        schedule(millis, new NativeCase.Action() {
+            @Override
+            public void run(NativeConnection connection) {
+                if (tag != null) {
+                    if (state != State.OPEN) {
+                        return;
+                    }
+                    received(NativeCase.Event.timeout(tag));
+                }
+                for (NativeCase.Action action: actions) {
+                    action.run(connection);
+                }
+            }
+        });
+    }
+
+    private Timer schedule(long millis, NativeCase.Action action) {
+        Timer timer = new Timer(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis), timerSequence++, action);
+        timers.add(timer);
+        return timer;
+    }
+
+    private void cancel(Timer timer) {
+        if (timer != null) {
+            timers.remove(timer);
+        }
+    }
+
+    /**
+     * Run all due timers and return the milliseconds until the next one is due, or {@code 0} if there is none.
+     */
+    private long runTimers() {
+        for (;;) {
+            Timer timer = timers.peek();
+            if (timer == null) {
+                return 0;
+            }
+            long remaining = timer.deadline - System.nanoTime();
+            if (remaining > 0) {
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+            }
+            timers.poll();
+            if (state != State.CLOSED) {
+                timer.action.run(this);
+            }
+        }
+    }
+
+    void received(NativeCase.Event event) {
+        received.add(event);
+    }
+
+    List<NativeCase.Event> received() {
+        return received;
+    }
+
+    /**
+     * The number of messages which were received so far.
+     */
+    int messages() {
+        return messages;
+    }
+
+    void behavior(String behavior, String result) {
+        this.behavior = behavior;
+        this.result = result;
+    }
+
+    void behaviorClose(String behaviorClose, String resultClose) {
+        this.behaviorClose = behaviorClose;
+        this.resultClose = resultClose;
+    }
+
+    String behavior() {
+        return behavior;
+    }
+
+    String result() {
+        return result;
+    }
+
+    String behaviorClose() {
+        return behaviorClose;
+    }
+
+    String resultClose() {
+        return resultClose;
+    }
+
+    boolean closedByMe() {
+        return closedByMe;
+    }
+
+    boolean failedByMe() {
+        return failedByMe;
+    }
+
+    boolean droppedByMe() {
+        return droppedByMe;
+    }
+
+    boolean wasClean() {
+        return wasClean;
+    }
+
+    String wasNotCleanReason() {
+        return wasNotCleanReason;
+    }
+
+    boolean wasOpenHandshakeTimeout() {
+        return wasOpenHandshakeTimeout;
+    }
+
+    boolean wasCloseHandshakeTimeout() {
+        return wasCloseHandshakeTimeout;
+    }
+
+    boolean wasServerConnectionDropTimeout() {
+        return wasServerConnectionDropTimeout;
+    }
+
+    Integer localCloseCode() {
+        return localCloseCode;
+    }
+
+    byte[] localCloseReason() {
+        return localCloseReason;
+    }
+
+    Integer remoteCloseCode() {
+        return remoteCloseCode;
+    }
+
+    byte[] remoteCloseReason() {
+        return remoteCloseReason;
+    }
+
+    /**
+     * The milliseconds from the end of the opening handshake until the connection was closed, which is what wstest
+     * reports as duration.
+     */
+    long duration() {
+        return opened ? Math.round((closedNanos - openedNanos) / 1000000.0) : 0;
+    }
+
+    /**
+     * Returns {@code true} if the opening handshake succeeded.
+     */
+    boolean opened() {
+        return opened;
+    }
+
+    /**
+     * The octets of the data frames which were received, including their headers.
+     */
+    long incomingOctetsWireLevel() {
+        return incomingOctetsWireLevel;
+    }
+
+    /**
+     * The octets of the data frames which were sent, including their headers.
+     */
+    long outgoingOctetsWireLevel() {
+        return outgoingOctetsWireLevel;
+    }
+
+    /**
+     * The traffic of the data messages in the same format as the {@code trafficStats} of autobahn. As no extension is
+     * negotiated the payload seen by the application is the one which is sent over the wire.
+     */
+    Map<String, Object> trafficStats() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("outgoingOctetsWireLevel", outgoingOctetsWireLevel);
+        stats.put("outgoingOctetsWebSocketLevel", outgoingOctetsWebSocketLevel);
+        stats.put("outgoingOctetsAppLevel", outgoingOctetsWebSocketLevel);
+        stats.put("outgoingCompressionRatio", outgoingOctetsWebSocketLevel > 0 ? 1.0 : null);
+        stats.put("outgoingWebSocketOverhead", overhead(outgoingOctetsWireLevel, outgoingOctetsWebSocketLevel));
+        stats.put("outgoingWebSocketFrames", outgoingWebSocketFrames);
+        stats.put("outgoingWebSocketMessages", outgoingWebSocketMessages);
+        stats.put("incomingOctetsWireLevel", incomingOctetsWireLevel);
+        stats.put("incomingOctetsWebSocketLevel", incomingOctetsWebSocketLevel);
+        stats.put("incomingOctetsAppLevel", incomingOctetsWebSocketLevel);
+        stats.put("incomingCompressionRatio", incomingOctetsWebSocketLevel > 0 ? 1.0 : null);
+        stats.put("incomingWebSocketOverhead", overhead(incomingOctetsWireLevel, incomingOctetsWebSocketLevel));
+        stats.put("incomingWebSocketFrames", incomingWebSocketFrames);
+        stats.put("incomingWebSocketMessages", incomingWebSocketMessages);
+        return stats;
+    }
+
+    private static Double overhead(long wireLevel, long webSocketLevel) {
+        return webSocketLevel > 0 ? (double) (wireLevel - webSocketLevel) / webSocketLevel : null;
+    }
+
+    private static String accept(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return base64(digest.digest((key + WEBSOCKET_GUID).getBytes("US-ASCII")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String base64(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < bytes.length; i += 3) {
+            int b = (bytes[i] & 0xff) << 16;
+            if (i + 1 < bytes.length) {
+                b |= (bytes[i + 1] & 0xff) << 8;
+            }
+            if (i + 2 < bytes.length) {
+                b |= bytes[i + 2] & 0xff;
+            }
+            sb.append(BASE64[(b >> 18) & 0x3f]).append(BASE64[(b >> 12) & 0x3f]);
+            sb.append(i + 1 < bytes.length ? BASE64[(b >> 6) & 0x3f] : '=');
+            sb.append(i + 2 < bytes.length ? BASE64[b & 0x3f] : '=');
+        }
+        return sb.toString();
+    }
+
+    static byte[] utf8(String value) {
+        try {
+            return value == null ? EMPTY : value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        private final long deadline;
+        private final long sequence;
+        private final NativeCase.Action action;
+
+        Timer(long deadline, long sequence, NativeCase.Action action) {
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Timer o) {
+            // timers which are due at the same time run in the order they were scheduled
+            if (deadline != o.deadline) {
+                return deadline - o.deadline < 0 ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : sequence == o.sequence ? 0 : 1;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.apache.maven.plugin.logging.Log;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONValue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URI;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Runs the cases with a WebSocket client written in Java (see {@link NativeConnection}), which saves the startup of
+ * the Jython interpreter and runs the big cases of 9.x a lot faster. Only the cases which were ported to
+ * {@link NativeCases} are run natively, all others are run by the fallback engine into the {@code wstest}
+ * sub-directory of the report directory.
+ *
+ * The reports have the same format as the ones of wstest, but no html report is written for the native cases.
+ * If options are given which are not supported (see {@link NativeConnection#OPTIONS}), all cases are run by the
+ * fallback engine.
+ */
+final class NativeEngine implements FuzzingEngine {
+
+    private static final String FALLBACK_DIRECTORY = "wstest";
+    private static final String ELLIPSES = " ...";
+    private static final int MAX_LOG_DATA = 64;
+
+    private final FuzzingEngine fallback;
+    private final ReportFilter reports;
+
+    NativeEngine(FuzzingEngine fallback) {
+        this(fallback, ReportFilter.ALL);
+    }
+
+    NativeEngine(FuzzingEngine fallback, ReportFilter reports) {
+        this.fallback = fallback;
+        this.reports = reports;
+    }
+
+    @Override
+    public void warmUp(int count) {
+        // Nothing to prepare, the fallback engine starts its interpreter on demand.
+    }
+
+    @Override
+    public List<FuzzingCaseResult> run(Log log, String outdir, Map<String, String> servers, Map options,
+                                       List<String> cases, List<String> excludeCases, Timeouts timeouts,
+                                       CaseListener listener) {
+        List<String> nativeCases = new ArrayList<String>();
+        List<String> fallbackCases = new ArrayList<String>();
+        List<String> unsupported = new ArrayList<String>();
+        for (Object option: options.keySet()) {
+            if (!NativeConnection.OPTIONS.contains(option)) {
+                unsupported.add(String.valueOf(option));
+            }
+        }
+        if (!unsupported.isEmpty()) {
+            log.info("Options " + unsupported + " are not supported by the native engine, all cases are run by " +
+                    "wstest");
+        }
+        for (String id: CaseCatalog.resolve(cases, excludeCases)) {
+            if (!unsupported.isEmpty() || NativeCases.get(id) == null) {
+                fallbackCases.add(id);
+            } else {
+                nativeCases.add(id);
+            }
+        }
+
+        List<FuzzingCaseResult> results = new ArrayList<FuzzingCaseResult>();
+        if (!nativeCases.isEmpty()) {
+            try {
+                results.addAll(runNative(outdir, servers, options, nativeCases, timeouts, reports, listener));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not run the native cases", e);
+            }
+        }
+        if (!fallbackCases.isEmpty() && !timeouts.expired()) {
+            log.info(fallbackCases.size() + " cases are not supported by the native engine and are run by wstest");
+            results.addAll(fallback.run(log, outdir + File.separator + FALLBACK_DIRECTORY, servers, options,
+                    fallbackCases, Collections.<String>emptyList(), timeouts, listener));
+        }
+        CaseCatalog.sort(results);
+        return results;
+    }
+
+    private static List<FuzzingCaseResult> runNative(String outdir, Map<String, String> servers, Map<?, ?> options,
+                                                     List<String> cases, Timeouts timeouts, ReportFilter reports,
+                                                     CaseListener listener) throws IOException {
+        File dir = new File(outdir);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        List<FuzzingCaseResult> results = new ArrayList<FuzzingCaseResult>();
+        Map<String, Map<String, Object>> index = new TreeMap<String, Map<String, Object>>();
+        for (Map.Entry<String, String> server: servers.entrySet()) {
+            if (timeouts.expired()) {
+                break;
+            }
+            String agent = server.getKey();
+            URI uri = URI.create(server.getValue());
+            Map<String, Object> agentIndex = new TreeMap<String, Object>(CaseCatalog.CASE_ID_COMPARATOR);
+            index.put(agent, agentIndex);
+            for (String id: cases) {
+                if (timeouts.expired()) {
+                    break;
+                }
+                NativeCase nativeCase = NativeCases.get(id);
+                if (listener != null) {
+                    listener.caseStarted(agent, id);
+                }
+                String started = utcNow();
+                NativeConnection connection = new NativeConnection(uri, nativeCase, options, timeouts.caseTimeout());
+                try {
+                    connection.run();
+                } catch (RuntimeException e) {
+                    // a misbehaving server fails its case, not the whole run
+                    connection.behavior(NativeCase.FAILED, "Case aborted: " + e);
+                    connection.behaviorClose(NativeCase.FAILED, "Case aborted: " + e);
+                }
+
+                String reportFile = cleanForFilename(agent) + "_case_" + id.replace('.', '_') + ".json";
+                if (reports.keep(id, connection.behavior(), connection.behaviorClose())) {
+                    write(new File(dir, reportFile), report(agent, nativeCase, started, connection));
+                }
+
+                Map<String, Object> entry = new TreeMap<String, Object>();
+                entry.put("behavior", connection.behavior());
+                entry.put("behaviorClose", connection.behaviorClose());
+                entry.put("duration", connection.duration());
+                entry.put("remoteCloseCode", connection.remoteCloseCode());
+                entry.put("reportfile", reportFile);
+                agentIndex.put(id, entry);
+
+                Integer remoteCloseCode = connection.remoteCloseCode();
+                results.add(new FuzzingCaseResult(agent, id, FuzzingCaseResult.Behavior.parse(connection.behavior()),
+                        FuzzingCaseResult.Behavior.parse(connection.behaviorClose()), connection.duration(),
+                        remoteCloseCode == null ? null : Long.valueOf(remoteCloseCode),
+                        outdir + File.separator + reportFile));
+                if (listener != null) {
+                    listener.caseFinished(agent, id, connection.behavior());
+                }
+            }
+        }
+        write(new File(dir, "index.json"), index);
+        return results;
+    }
+
+    /**
+     * Creates the case report, which has the same fields as the one of wstest except the wire log and the octet and
+     * frame statistics, which are not recorded.
+     */
+    private static Map<String, Object> report(String agent, NativeCase nativeCase, String started,
+                                              NativeConnection connection) {
+        Map<String, Object> report = new TreeMap<String, Object>();
+        report.put("agent", agent);
+        report.put("case", CaseCatalog.cases().indexOf(nativeCase.id()) + 1);
+        report.put("id", nativeCase.id());
+        report.put("description", nativeCase.description());
+        report.put("expectation", nativeCase.expectation());
+        report.put("started", started);
+        report.put("duration", connection.duration());
+        report.put("reportTime", nativeCase.reportsTime());
+        report.put("reportCompressionRatio", false);
+        report.put("behavior", connection.behavior());
+        report.put("behaviorClose", connection.behaviorClose());
+        report.put("expected", nativeCase.expectedToJSON());
+        report.put("expectedClose", nativeCase.expectedCloseToJSON());
+        report.put("received", NativeCase.Event.toJSON(connection.received()));
+        report.put("result", connection.result());
+        report.put("resultClose", connection.resultClose());
+        report.put("createWirelog", false);
+        report.put("wirelog", new JSONArray());
+        report.put("closedByMe", connection.closedByMe());
+        report.put("failedByMe", connection.failedByMe());
+        report.put("droppedByMe", connection.droppedByMe());
+        report.put("wasClean", connection.wasClean());
+        report.put("wasNotCleanReason", connection.wasNotCleanReason());
+        report.put("wasServerConnectionDropTimeout", connection.wasServerConnectionDropTimeout());
+        report.put("wasOpenHandshakeTimeout", connection.wasOpenHandshakeTimeout());
+        report.put("wasCloseHandshakeTimeout", connection.wasCloseHandshakeTimeout());
+        report.put("localCloseCode", connection.localCloseCode());
+        report.put("localCloseReason", closeReason(connection.localCloseReason()));
+        report.put("remoteCloseCode", connection.remoteCloseCode());
+        report.put("remoteCloseReason", closeReason(connection.remoteCloseReason()));
+        report.put("isServer", false);
+        report.put("createStats", false);
+        report.put("trafficStats", connection.trafficStats());
+        return report;
+    }
+
+    private static String closeReason(byte[] reason) {
+        if (reason == null) {
+            return null;
+        }
+        // same as wstest does for 7.5.1, which sends a close reason which is not valid UTF-8
+        return Utf8Validator.isValid(reason) ? utf8(reason) : NativeCases.toHex(reason);
+    }
+
+    /**
+     * Formats a payload for the report, the same way {@code asciiLogData} of wstest does.
+     */
+    static String logData(byte[] data) {
+        boolean truncated = data.length > MAX_LOG_DATA - ELLIPSES.length();
+        byte[] shown = truncated ? Arrays.copyOf(data, Math.min(data.length, MAX_LOG_DATA)) : data;
+        if (Utf8Validator.isValid(shown)) {
+            return utf8(shown) + (truncated ? ELLIPSES : "");
+        }
+        return "0x" + NativeCases.toHex(shown) + (truncated ? ELLIPSES : "");
+    }
+
+    private static String utf8(byte[] bytes) {
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Same as {@code cleanForFilename} of wstest.
+     */
+    private static String cleanForFilename(String value) {
+        String lower = value.trim().toLowerCase(Locale.ENGLISH);
+        StringBuilder sb = new StringBuilder(lower.length());
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            sb.append((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') ? c : ' ');
+        }
+        return sb.toString().trim().replace(' ', '_');
+    }
+
+    private static String utcNow() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date());
+    }
+
+    private static void write(File file, Map<String, ?> json) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            JSONValue.writeJSONString(json, writer);
+        } finally {
+            writer.close();
+        }
+    }
+}
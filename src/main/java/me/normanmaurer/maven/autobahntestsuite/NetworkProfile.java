@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+/**
+ * The network conditions the cases are run under, as configured in the {@code networkProfiles} section of the plugin
+ * configuration. The traffic in both directions is shaped by a {@link ShapingProxy}.
+ */
+public class NetworkProfile {
+
+    /**
+     * The name under which the results of the profile are reported. Must be unique.
+     */
+    private String name;
+
+    /**
+     * The max. bytes per second which are forwarded in each direction. Default is 0 (unlimited).
+     */
+    private long bandwidth;
+
+    /**
+     * Every write is split into segments of at most this many bytes, which are sent one by one. Default is 0 (writes
+     * are forwarded as they were read).
+     */
+    private int segmentSize;
+
+    /**
+     * The milliseconds every write is delayed in each direction. Default is 0.
+     */
+    private long latency;
+
+    public NetworkProfile() {
+    }
+
+    NetworkProfile(String name, long bandwidth, int segmentSize, long latency) {
+        this.name = name;
+        this.bandwidth = bandwidth;
+        this.segmentSize = segmentSize;
+        this.latency = latency;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getBandwidth() {
+        return bandwidth;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public long getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[bandwidth: " + bandwidth + ", segmentSize: " + segmentSize + ", latency: " + latency + "]";
+    }
+}
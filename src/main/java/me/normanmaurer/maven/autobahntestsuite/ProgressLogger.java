@@ -0,0 +1,52 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Logs every case as soon as it is finished, so the progress of a run can be followed and a stuck case is easy to
+ * spot.
+ */
+final class ProgressLogger implements CaseListener {
+
+    private final Log log;
+    private final int total;
+    private final AtomicInteger finished = new AtomicInteger();
+
+    /**
+     * Create a logger for a run of {@code total} cases, counting every agent separately.
+     */
+    ProgressLogger(Log log, int total) {
+        this.log = log;
+        this.total = total;
+    }
+
+    @Override
+    public void caseStarted(String agent, String caseId) {
+        if (log.isDebugEnabled()) {
+            log.debug("Started case " + caseId + " (" + agent + ")");
+        }
+    }
+
+    @Override
+    public void caseFinished(String agent, String caseId, String behavior) {
+        log.info("[" + finished.incrementAndGet() + "/" + total + "] Case " + caseId + " (" + agent + "): " +
+                behavior);
+    }
+}
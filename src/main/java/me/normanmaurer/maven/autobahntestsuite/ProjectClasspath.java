@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resolves the test classpath of the project, which the servers and clients of the project are loaded from.
+ */
+final class ProjectClasspath {
+
+    private ProjectClasspath() {
+        // Utility class
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<String> elements(MavenProject project) throws MojoExecutionException {
+        try {
+            List<String> classpathElements = new ArrayList<String>(project.getTestClasspathElements());
+            classpathElements.add(project.getBuild().getOutputDirectory() );
+            classpathElements.add(project.getBuild().getTestOutputDirectory() );
+            return classpathElements;
+        } catch (Exception e) {
+            throw new MojoExecutionException("Couldn't resolve the test classpath", e);
+        }
+    }
+
+    static ClassLoader classLoader(List<String> classpathElements) throws MojoExecutionException {
+        try {
+            URL urls[] = new URL[classpathElements.size()];
+
+            for ( int i = 0; i < classpathElements.size(); i++) {
+                urls[i] = new File(classpathElements.get(i)).toURI().toURL();
+            }
+            return new URLClassLoader(urls, ProjectClasspath.class.getClassLoader());
+        } catch (Exception e) {
+            throw new MojoExecutionException("Couldn't create a classloader", e);
+        }
+    }
+}
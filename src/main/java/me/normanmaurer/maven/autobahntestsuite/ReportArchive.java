@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Packs the case reports of a run into a single zip file, which is a lot smaller and faster to archive by a CI than
+ * thousands of small files.
+ */
+final class ReportArchive {
+
+    private ReportArchive() {
+        // Utility class
+    }
+
+    /**
+     * Move the case reports and indexes of the given {@code outdirs} and of their shards into the given zip file and
+     * return the number of packed files. The entries are named relative to {@code dir}, which contains all of the
+     * {@code outdirs}. All other files, like the JUnit xml reports or the reports of other executions which share the
+     * directory, are left untouched.
+     */
+    static int pack(File dir, Collection<File> outdirs, File archive) throws IOException {
+        List<File> files = new ArrayList<File>();
+        List<File> shards = new ArrayList<File>();
+        for (File outdir: outdirs) {
+            collect(outdir, files);
+            File[] children = outdir.listFiles();
+            if (children != null) {
+                for (File child: children) {
+                    if (child.isDirectory() && child.getName().startsWith("shard-")) {
+                        shards.add(child);
+                        collect(child, files);
+                    }
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            return 0;
+        }
+        String root = dir.getPath() + File.separator;
+        byte[] buffer = new byte[8192];
+        ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(archive)));
+        try {
+            for (File file: files) {
+                out.putNextEntry(new ZipEntry(file.getPath().substring(root.length()).replace(File.separatorChar,
+                        '/')));
+                InputStream in = new FileInputStream(file);
+                try {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                } finally {
+                    in.close();
+                }
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        for (File file: files) {
+            if (!file.delete()) {
+                throw new IOException("Unable to delete " + file);
+            }
+        }
+        for (File shard: shards) {
+            // only succeeds if nothing else was written to the shard
+            shard.delete();
+        }
+        return files.size();
+    }
+
+    private static void collect(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child: children) {
+            if (child.isFile() && isReport(child.getName())) {
+                files.add(child);
+            }
+        }
+    }
+
+    /**
+     * The files written by the engines, see {@code makeAgentCaseReportFilename} of the fuzzingclient.
+     */
+    private static boolean isReport(String name) {
+        return (name.endsWith(".json") || name.endsWith(".html"))
+                && (name.contains("_case_") || name.startsWith("index."));
+    }
+}
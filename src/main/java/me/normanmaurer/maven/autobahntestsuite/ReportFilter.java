@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Decides which reports are written for the cases of a run. The index always contains the behavior, duration and
+ * close code of every case, so dropping the full reports of the passing cases only loses their wire logs. Called
+ * from the engines, including the Jython code of {@code wstest}, so the methods must be public.
+ */
+public final class ReportFilter {
+
+    /**
+     * Write html and json reports for all cases, the same as {@code wstest} does.
+     */
+    public static final ReportFilter ALL = new ReportFilter(true, false, Collections.<String>emptySet());
+
+    private final boolean html;
+    private final boolean failuresOnly;
+    private final Set<String> keepCases;
+
+    /**
+     * Create a filter which writes html reports if {@code html} is set, and if {@code failuresOnly} is set only
+     * writes the reports of the cases which did not pass strictly and of the {@code keepCases}.
+     */
+    ReportFilter(boolean html, boolean failuresOnly, Set<String> keepCases) {
+        this.html = html;
+        this.failuresOnly = failuresOnly;
+        this.keepCases = keepCases;
+    }
+
+    /**
+     * Returns {@code true} if html reports are written.
+     */
+    public boolean html() {
+        return html;
+    }
+
+    /**
+     * Returns {@code true} if the report of the given case is written.
+     */
+    public boolean keep(String caseId, String behavior, String behaviorClose) {
+        return !failuresOnly || keepCases.contains(caseId) || needsReport(FuzzingCaseResult.Behavior.parse(behavior),
+                FuzzingCaseResult.Behavior.parse(behaviorClose));
+    }
+
+    /**
+     * Returns {@code true} if the report of a case with the given behaviors is needed to report it, which is the
+     * case for all cases which failed, even only because of non strict behavior.
+     */
+    static boolean needsReport(FuzzingCaseResult.Behavior behavior, FuzzingCaseResult.Behavior behaviorClose) {
+        return behavior.isFailure(true) || behaviorClose.isFailure(true);
+    }
+}
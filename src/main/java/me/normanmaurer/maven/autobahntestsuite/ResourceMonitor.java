@@ -0,0 +1,172 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.json.simple.JSONValue;
+
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Samples the JVMs of the servers while the fuzzingclient runs and attributes the used resources to the cases which
+ * ran in the meantime. Servers which run inside maven share the JVM with maven and the fuzzingclient, and cases of
+ * different shards run at the same time, so in both situations the numbers of a case include the resources used by
+ * everything else that was running.
+ */
+final class ResourceMonitor implements CaseListener {
+
+    private final Map<String, ResourceSampler> samplers = new HashMap<String, ResourceSampler>();
+    private final List<JMXConnector> connectors = new ArrayList<JMXConnector>();
+    private final ConcurrentMap<String, Long> started = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentMap<String, Long> finished = new ConcurrentHashMap<String, Long>();
+    private final long intervalMillis;
+
+    ResourceMonitor(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Sample the own JVM for the given agents.
+     */
+    void addLocal(List<String> agents) {
+        ResourceSampler sampler = new ResourceSampler("local", ManagementFactory.getPlatformMBeanServer(),
+                intervalMillis);
+        for (String agent: agents) {
+            samplers.put(agent, sampler);
+        }
+    }
+
+    /**
+     * Sample the JVM of the given agent through the JMX agent listening on the given port of the loopback address.
+     */
+    void addRemote(String agent, int jmxPort) throws IOException {
+        JMXServiceURL url = new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + jmxPort + "/jmxrmi");
+        JMXConnector connector = JMXConnectorFactory.connect(url);
+        connectors.add(connector);
+        MBeanServerConnection connection = connector.getMBeanServerConnection();
+        samplers.put(agent, new ResourceSampler(agent, connection, intervalMillis));
+    }
+
+    /**
+     * Returns the JVM arguments which enable a JMX agent on the given port, which is only reachable over the
+     * loopback address and can be sampled with {@link #addRemote(String, int)}.
+     */
+    static List<String> jmxJvmArgs(int jmxPort) {
+        List<String> args = new ArrayList<String>();
+        args.add("-Dcom.sun.management.jmxremote.port=" + jmxPort);
+        args.add("-Dcom.sun.management.jmxremote.rmi.port=" + jmxPort);
+        args.add("-Dcom.sun.management.jmxremote.authenticate=false");
+        args.add("-Dcom.sun.management.jmxremote.ssl=false");
+        args.add("-Dcom.sun.management.jmxremote.local.only=true");
+        args.add("-Djava.rmi.server.hostname=127.0.0.1");
+        return args;
+    }
+
+    void start() {
+        for (ResourceSampler sampler: distinctSamplers()) {
+            sampler.start();
+        }
+    }
+
+    void stop() throws InterruptedException {
+        try {
+            for (ResourceSampler sampler: distinctSamplers()) {
+                sampler.stop();
+            }
+        } finally {
+            for (JMXConnector connector: connectors) {
+                try {
+                    connector.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private Set<ResourceSampler> distinctSamplers() {
+        return new LinkedHashSet<ResourceSampler>(samplers.values());
+    }
+
+    @Override
+    public void caseStarted(String agent, String caseId) {
+        started.put(agent + "/" + caseId, System.nanoTime());
+    }
+
+    @Override
+    public void caseFinished(String agent, String caseId, String behavior) {
+        finished.put(agent + "/" + caseId, System.nanoTime());
+    }
+
+    /**
+     * Returns the given results with the resources which were used while they ran. Results for which nothing was
+     * sampled are returned as they are.
+     */
+    List<FuzzingCaseResult> attach(List<FuzzingCaseResult> results) {
+        List<FuzzingCaseResult> attached = new ArrayList<FuzzingCaseResult>(results.size());
+        for (FuzzingCaseResult result: results) {
+            String key = result.agent() + "/" + result.caseName();
+            Long start = started.get(key);
+            Long end = finished.get(key);
+            ResourceSampler sampler = samplers.get(result.agent());
+            CaseResources resources = null;
+            if (start != null && end != null && sampler != null) {
+                resources = sampler.between(start, end);
+            }
+            attached.add(resources == null ? result : result.withResources(resources));
+        }
+        return attached;
+    }
+
+    /**
+     * Write the resources of all results which have them as json to the given file.
+     */
+    static void write(File file, List<FuzzingCaseResult> results) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("{");
+            boolean first = true;
+            for (FuzzingCaseResult result: results) {
+                if (result.resources() == null) {
+                    continue;
+                }
+                writer.write(first ? "\n" : ",\n");
+                writer.write("  \"" + JSONValue.escape(CaseCatalog.key(result)) + "\": " +
+                        result.resources().toJSONString());
+                first = false;
+            }
+            writer.write("\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+}
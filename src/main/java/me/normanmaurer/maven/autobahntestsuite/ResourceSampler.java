@@ -0,0 +1,203 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the platform MXBeans of a JVM periodically in the background. The MXBeans are accessed through an
+ * {@link MBeanServerConnection}, which works the same for the own JVM and a forked one, and by attribute name, so the
+ * HotSpot specific values (allocated bytes and CPU time) are simply missing on other JVMs.
+ */
+final class ResourceSampler implements Runnable {
+
+    private static final ObjectName MEMORY = objectName("java.lang:type=Memory");
+    private static final ObjectName THREADING = objectName("java.lang:type=Threading");
+    private static final ObjectName OPERATING_SYSTEM = objectName("java.lang:type=OperatingSystem");
+    private static final ObjectName GARBAGE_COLLECTORS = objectName("java.lang:type=GarbageCollector,*");
+
+    private final MBeanServerConnection connection;
+    private final long intervalMillis;
+    private final List<Sample> samples = new ArrayList<Sample>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    ResourceSampler(String name, MBeanServerConnection connection, long intervalMillis) {
+        this.connection = connection;
+        this.intervalMillis = intervalMillis;
+        thread = new Thread(this, "autobahntestsuite-sampler-" + name);
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stop sampling and take a last sample, so the windows of the last cases are covered.
+     */
+    void stop() throws InterruptedException {
+        running = false;
+        thread.interrupt();
+        thread.join();
+        add(sample());
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            add(sample());
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void add(Sample sample) {
+        synchronized (samples) {
+            samples.add(sample);
+        }
+    }
+
+    /**
+     * Compute the resources used between the given {@link System#nanoTime()} values. Counters are taken as the
+     * difference between the last sample before the start and the first sample after the end, gauges as the maximum
+     * of all samples in between. Returns {@code null} if the window is not covered by the samples.
+     */
+    CaseResources between(long startNanos, long endNanos) {
+        synchronized (samples) {
+            Sample before = null;
+            Sample after = null;
+            long heapUsed = -1;
+            int threadCount = -1;
+            for (Sample sample: samples) {
+                if (sample.nanos <= startNanos) {
+                    before = sample;
+                }
+                if (sample.nanos >= startNanos) {
+                    heapUsed = Math.max(heapUsed, sample.heapUsed);
+                    threadCount = Math.max(threadCount, sample.threadCount);
+                }
+                if (sample.nanos >= endNanos) {
+                    after = sample;
+                    break;
+                }
+            }
+            if (before == null || after == null) {
+                return null;
+            }
+            heapUsed = Math.max(heapUsed, before.heapUsed);
+            threadCount = Math.max(threadCount, before.threadCount);
+            return new CaseResources(heapUsed, delta(before.allocatedBytes, after.allocatedBytes),
+                    delta(before.gcCount, after.gcCount), delta(before.gcTime, after.gcTime), threadCount,
+                    after.cpuTime < 0 || before.cpuTime < 0 ? -1 :
+                            TimeUnit.NANOSECONDS.toMillis(after.cpuTime - before.cpuTime));
+        }
+    }
+
+    private static long delta(long before, long after) {
+        if (before < 0 || after < 0) {
+            return -1;
+        }
+        // allocated bytes of threads which died in between are lost, so never report a negative value
+        return Math.max(0, after - before);
+    }
+
+    private Sample sample() {
+        long nanos = System.nanoTime();
+        long heapUsed = -1;
+        try {
+            heapUsed = ((Number) ((CompositeData) connection.getAttribute(MEMORY, "HeapMemoryUsage"))
+                    .get("used")).longValue();
+        } catch (Exception e) {
+            // not available
+        }
+        int threadCount = -1;
+        long allocatedBytes = -1;
+        try {
+            threadCount = ((Number) connection.getAttribute(THREADING, "ThreadCount")).intValue();
+            long[] ids = (long[]) connection.getAttribute(THREADING, "AllThreadIds");
+            long[] allocated = (long[]) connection.invoke(THREADING, "getThreadAllocatedBytes",
+                    new Object[] { ids }, new String[] { long[].class.getName() });
+            allocatedBytes = 0;
+            for (long bytes: allocated) {
+                if (bytes > 0) {
+                    allocatedBytes += bytes;
+                }
+            }
+        } catch (Exception e) {
+            // not available
+        }
+        long gcCount = -1;
+        long gcTime = -1;
+        try {
+            Set<ObjectName> names = connection.queryNames(GARBAGE_COLLECTORS, null);
+            gcCount = 0;
+            gcTime = 0;
+            for (ObjectName name: names) {
+                gcCount += ((Number) connection.getAttribute(name, "CollectionCount")).longValue();
+                gcTime += ((Number) connection.getAttribute(name, "CollectionTime")).longValue();
+            }
+        } catch (Exception e) {
+            gcCount = -1;
+            gcTime = -1;
+        }
+        long cpuTime = -1;
+        try {
+            cpuTime = ((Number) connection.getAttribute(OPERATING_SYSTEM, "ProcessCpuTime")).longValue();
+        } catch (Exception e) {
+            // not available
+        }
+        return new Sample(nanos, heapUsed, allocatedBytes, gcCount, gcTime, threadCount, cpuTime);
+    }
+
+    private static ObjectName objectName(String name) {
+        try {
+            return new ObjectName(name);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Sample {
+        final long nanos;
+        final long heapUsed;
+        final long allocatedBytes;
+        final long gcCount;
+        final long gcTime;
+        final int threadCount;
+        final long cpuTime;
+
+        Sample(long nanos, long heapUsed, long allocatedBytes, long gcCount, long gcTime, int threadCount,
+               long cpuTime) {
+            this.nanos = nanos;
+            this.heapUsed = heapUsed;
+            this.allocatedBytes = allocatedBytes;
+            this.gcCount = gcCount;
+            this.gcTime = gcTime;
+            this.threadCount = threadCount;
+            this.cpuTime = cpuTime;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stores the results of a run together with fingerprints of what was tested, so a later run can reuse them.
+ */
+final class ResultCache {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String classpathFingerprint;
+    private final String selectionFingerprint;
+    private final List<FuzzingCaseResult> results;
+
+    ResultCache(String classpathFingerprint, String selectionFingerprint, List<FuzzingCaseResult> results) {
+        this.classpathFingerprint = classpathFingerprint;
+        this.selectionFingerprint = selectionFingerprint;
+        this.results = results;
+    }
+
+    /**
+     * Fingerprint of the server under test, which changes whenever one of the classpath elements changes.
+     */
+    String classpathFingerprint() {
+        return classpathFingerprint;
+    }
+
+    /**
+     * Fingerprint of how the server was tested, like the main class, options and selected cases.
+     */
+    String selectionFingerprint() {
+        return selectionFingerprint;
+    }
+
+    List<FuzzingCaseResult> results() {
+        return results;
+    }
+
+    /**
+     * Returns {@code true} if the report files of all failed results still exist, which is needed to re-emit the
+     * JUnit xml. The reports of passing cases may have been dropped (see {@link ReportFilter}).
+     */
+    boolean hasReports() {
+        for (FuzzingCaseResult result: results) {
+            if (ReportFilter.needsReport(result.behavior(), result.behaviorClose())
+                    && !new File(result.reportFile()).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String classpathFingerprint(List<String> classpathElements) {
+        MessageDigest digest = newDigest();
+        for (String element: classpathElements) {
+            update(digest, element);
+            update(digest, new File(element));
+        }
+        return hex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, File file) {
+        if (file.isDirectory()) {
+            String[] names = file.list();
+            if (names == null) {
+                return;
+            }
+            Arrays.sort(names);
+            for (String name: names) {
+                update(digest, name);
+                update(digest, new File(file, name));
+            }
+        } else if (file.isFile()) {
+            update(digest, file.length() + ":" + file.lastModified());
+        }
+    }
+
+    static String selectionFingerprint(List<String> values) {
+        MessageDigest digest = newDigest();
+        for (String value: values) {
+            update(digest, value);
+        }
+        return hex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        try {
+            digest.update(value.getBytes("UTF-8"));
+            digest.update((byte) 0);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Load the cache from the given file or return {@code null} if there is none or it can not be read.
+     */
+    static ResultCache load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                JSONObject object = (JSONObject) new JSONParser().parse(reader);
+                List<FuzzingCaseResult> results = new ArrayList<FuzzingCaseResult>();
+                for (Object o: (JSONArray) object.get("results")) {
+                    JSONObject c = (JSONObject) o;
+                    Number remoteCloseCode = (Number) c.get("remoteCloseCode");
+                    results.add(new FuzzingCaseResult((String) c.get("agent"), (String) c.get("caseName"),
+                            FuzzingCaseResult.Behavior.valueOf((String) c.get("behavior")),
+                            FuzzingCaseResult.Behavior.valueOf((String) c.get("behaviorClose")),
+                            ((Number) c.get("duration")).longValue(),
+                            remoteCloseCode == null ? null : remoteCloseCode.longValue(),
+                            (String) c.get("reportFile")));
+                }
+                return new ResultCache((String) object.get("classpath"), (String) object.get("selection"),
+                        Collections.unmodifiableList(results));
+            } finally {
+                reader.close();
+            }
+        } catch (Exception e) {
+            // treat a broken cache like no cache at all
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    void store(File file) throws IOException {
+        JSONArray array = new JSONArray();
+        for (FuzzingCaseResult result: results) {
+            JSONObject c = new JSONObject();
+            c.put("agent", result.agent());
+            c.put("caseName", result.caseName());
+            c.put("behavior", result.behavior().name());
+            c.put("behaviorClose", result.behaviorClose().name());
+            c.put("duration", result.duration());
+            c.put("remoteCloseCode", result.remoteCloseCode());
+            c.put("reportFile", result.reportFile());
+            array.add(c);
+        }
+        JSONObject object = new JSONObject();
+        object.put("classpath", classpathFingerprint);
+        object.put("selection", selectionFingerprint);
+        object.put("results", array);
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(object.toJSONString());
+        } finally {
+            writer.close();
+        }
+    }
+}
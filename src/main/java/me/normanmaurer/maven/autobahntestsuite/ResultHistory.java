@@ -0,0 +1,406 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only binary file with the results of many runs, which is small enough to be kept for thousands of builds
+ * and read in milliseconds.
+ *
+ * The file starts with {@code ABTH} and a version byte and is followed by one record per run. A record is its length
+ * and the run: the start time, a label, the case keys (see {@link CaseCatalog#key(String, String)}) which were not
+ * part of any former run and so extend the dictionary of the file, and the results column by column: the dictionary
+ * indexes (ascending, delta coded), one byte with both behaviors, the durations and the remote close codes. All
+ * numbers are varints. A record which was not completely written is dropped with the next append.
+ */
+final class ResultHistory {
+
+    private static final byte[] MAGIC = { 'A', 'B', 'T', 'H' };
+    private static final int VERSION = 1;
+    // the codes are stored, so only ever append to this
+    private static final FuzzingCaseResult.Behavior[] BEHAVIORS = {
+            FuzzingCaseResult.Behavior.OK,
+            FuzzingCaseResult.Behavior.NON_STRICT,
+            FuzzingCaseResult.Behavior.FAILED,
+            FuzzingCaseResult.Behavior.WRONG_CODE,
+            FuzzingCaseResult.Behavior.UNCLEAN,
+            FuzzingCaseResult.Behavior.FAILED_BY_CLIENT,
+            FuzzingCaseResult.Behavior.INFORMATIONAL,
+            FuzzingCaseResult.Behavior.UNIMPLEMENTED
+    };
+
+    private final List<String> names;
+    private final List<Run> runs;
+    private final int totalRuns;
+
+    private ResultHistory(List<String> names, List<Run> runs, int totalRuns) {
+        this.names = names;
+        this.runs = runs;
+        this.totalRuns = totalRuns;
+    }
+
+    /**
+     * The keys of all cases which are part of the history. The index of a key is the one used by {@link Run}.
+     */
+    List<String> names() {
+        return names;
+    }
+
+    /**
+     * The runs which were read, the oldest first.
+     */
+    List<Run> runs() {
+        return runs;
+    }
+
+    /**
+     * The number of runs in the file, which may be more than were read.
+     */
+    int totalRuns() {
+        return totalRuns;
+    }
+
+    /**
+     * Read the history, decoding the results of only the last {@code lastRuns} runs. A value {@code <= 0} reads all.
+     * Returns an empty history if the file does not exist.
+     */
+    static ResultHistory read(File file, int lastRuns) throws IOException {
+        if (!file.isFile() || file.length() == 0) {
+            return new ResultHistory(Collections.<String>emptyList(), Collections.<Run>emptyList(), 0);
+        }
+        Records records = Records.parse(readFully(file), file);
+        List<Run> runs = new ArrayList<Run>();
+        int first = lastRuns <= 0 ? 0 : Math.max(0, records.columns.size() - lastRuns);
+        for (int i = first; i < records.columns.size(); i++) {
+            runs.add(records.decode(i));
+        }
+        return new ResultHistory(records.names, runs, records.columns.size());
+    }
+
+    /**
+     * Append a run with the given results. Synchronized, as the modules of a parallel build may share the file.
+     */
+    static synchronized void append(File file, long timestamp, String label, List<FuzzingCaseResult> results)
+            throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        Records records = file.isFile() && file.length() > 0 ? Records.parse(readFully(file), file) : null;
+        Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        if (records != null) {
+            for (int i = 0; i < records.names.size(); i++) {
+                dictionary.put(records.names.get(i), i);
+            }
+        }
+
+        List<String> newNames = new ArrayList<String>();
+        long[] entries = new long[results.size()];
+        for (int i = 0; i < results.size(); i++) {
+            String key = CaseCatalog.key(results.get(i));
+            Integer index = dictionary.get(key);
+            if (index == null) {
+                index = dictionary.size();
+                dictionary.put(key, index);
+                newNames.add(key);
+            }
+            // sort by the dictionary index but remember where the result is
+            entries[i] = (long) index << 32 | i;
+        }
+        Arrays.sort(entries);
+
+        ByteArrayOutputStream run = new ByteArrayOutputStream();
+        writeVarint(run, timestamp);
+        writeString(run, label == null ? "" : label);
+        writeVarint(run, newNames.size());
+        for (String name: newNames) {
+            writeString(run, name);
+        }
+        writeVarint(run, entries.length);
+        long last = 0;
+        for (long entry: entries) {
+            long index = entry >>> 32;
+            writeVarint(run, index - last);
+            last = index;
+        }
+        for (long entry: entries) {
+            FuzzingCaseResult result = results.get((int) entry);
+            run.write(code(result.behavior()) | code(result.behaviorClose()) << 4);
+        }
+        for (long entry: entries) {
+            writeVarint(run, Math.max(0, results.get((int) entry).duration()));
+        }
+        for (long entry: entries) {
+            Long code = results.get((int) entry).remoteCloseCode();
+            writeVarint(run, code == null ? 0 : Math.max(0, code) + 1);
+        }
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        if (records == null) {
+            record.write(MAGIC);
+            record.write(VERSION);
+        }
+        writeVarint(record, run.size());
+        run.writeTo(record);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // drop what is left of an interrupted append
+            long end = records == null ? 0 : records.end;
+            raf.setLength(end);
+            raf.seek(end);
+            raf.write(record.toByteArray());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int code(FuzzingCaseResult.Behavior behavior) {
+        for (int i = 0; i < BEHAVIORS.length; i++) {
+            if (BEHAVIORS[i] == behavior) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown behavior " + behavior);
+    }
+
+    private static FuzzingCaseResult.Behavior behavior(int code, File file) throws IOException {
+        if (code >= BEHAVIORS.length) {
+            throw new IOException("Unknown behavior " + code + " in " + file);
+        }
+        return BEHAVIORS[code];
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * The results of one run, ordered by the index of their case key.
+     */
+    static final class Run {
+        private final long timestamp;
+        private final String label;
+        private final int[] names;
+        private final byte[] behaviors;
+        private final long[] durations;
+        private final long[] closeCodes;
+
+        private Run(long timestamp, String label, int[] names, byte[] behaviors, long[] durations,
+                    long[] closeCodes) {
+            this.timestamp = timestamp;
+            this.label = label;
+            this.names = names;
+            this.behaviors = behaviors;
+            this.durations = durations;
+            this.closeCodes = closeCodes;
+        }
+
+        long timestamp() {
+            return timestamp;
+        }
+
+        String label() {
+            return label;
+        }
+
+        int size() {
+            return names.length;
+        }
+
+        /**
+         * Returns the position of the result of the case with the given dictionary index or {@code -1} if the case
+         * was not run.
+         */
+        int indexOf(int name) {
+            int i = Arrays.binarySearch(names, name);
+            return i < 0 ? -1 : i;
+        }
+
+        FuzzingCaseResult.Behavior behavior(int i) {
+            return BEHAVIORS[behaviors[i] & 0x0F];
+        }
+
+        FuzzingCaseResult.Behavior behaviorClose(int i) {
+            return BEHAVIORS[behaviors[i] >> 4 & 0x0F];
+        }
+
+        long duration(int i) {
+            return durations[i];
+        }
+
+        Long remoteCloseCode(int i) {
+            return closeCodes[i] == 0 ? null : closeCodes[i] - 1;
+        }
+    }
+
+    /**
+     * The dictionary and the positions of the result columns of all complete records of a file.
+     */
+    private static final class Records {
+        private final byte[] data;
+        private final File file;
+        private final List<String> names = new ArrayList<String>();
+        private final List<long[]> columns = new ArrayList<long[]>();
+        private final List<String> labels = new ArrayList<String>();
+        private int pos;
+        private int end;
+
+        private Records(byte[] data, File file) {
+            this.data = data;
+            this.file = file;
+        }
+
+        static Records parse(byte[] data, File file) throws IOException {
+            Records records = new Records(data, file);
+            if (data.length < MAGIC.length + 1
+                    || !Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC)) {
+                throw new IOException(file + " is no result history");
+            }
+            if (data[MAGIC.length] != VERSION) {
+                throw new IOException("Unsupported version " + data[MAGIC.length] + " of " + file);
+            }
+            records.pos = MAGIC.length + 1;
+            records.end = records.pos;
+            while (records.pos < data.length) {
+                int length;
+                try {
+                    length = (int) records.readVarint(data.length);
+                } catch (IOException e) {
+                    break;
+                }
+                int recordEnd = records.pos + length;
+                if (length < 0 || recordEnd > data.length || recordEnd < records.pos) {
+                    break;
+                }
+                long timestamp = records.readVarint(recordEnd);
+                String label = records.readString(recordEnd);
+                int newNames = (int) records.readVarint(recordEnd);
+                for (int i = 0; i < newNames; i++) {
+                    records.names.add(records.readString(recordEnd));
+                }
+                // the results are only decoded if needed
+                records.columns.add(new long[] { timestamp, records.pos, recordEnd });
+                records.labels.add(label);
+                records.pos = recordEnd;
+                records.end = recordEnd;
+            }
+            return records;
+        }
+
+        Run decode(int run) throws IOException {
+            long[] column = columns.get(run);
+            pos = (int) column[1];
+            int recordEnd = (int) column[2];
+            int count = (int) readVarint(recordEnd);
+            int[] indexes = new int[count];
+            int last = 0;
+            for (int i = 0; i < count; i++) {
+                last += (int) readVarint(recordEnd);
+                if (last >= names.size()) {
+                    throw new IOException("Unknown case " + last + " in " + file);
+                }
+                indexes[i] = last;
+            }
+            byte[] behaviors = new byte[count];
+            for (int i = 0; i < count; i++) {
+                if (pos >= recordEnd) {
+                    throw new IOException("Truncated run in " + file);
+                }
+                behaviors[i] = data[pos++];
+                behavior(behaviors[i] & 0x0F, file);
+                behavior(behaviors[i] >> 4 & 0x0F, file);
+            }
+            long[] durations = new long[count];
+            for (int i = 0; i < count; i++) {
+                durations[i] = readVarint(recordEnd);
+            }
+            long[] closeCodes = new long[count];
+            for (int i = 0; i < count; i++) {
+                closeCodes[i] = readVarint(recordEnd);
+            }
+            return new Run(column[0], labels.get(run), indexes, behaviors, durations, closeCodes);
+        }
+
+        private long readVarint(int limit) throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= limit) {
+                    throw new IOException("Truncated run in " + file);
+                }
+                int b = data[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed number in " + file);
+        }
+
+        private String readString(int limit) throws IOException {
+            int length = (int) readVarint(limit);
+            if (length < 0 || pos + length > limit) {
+                throw new IOException("Truncated run in " + file);
+            }
+            try {
+                return new String(data, pos, length, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                pos += length;
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A server which is tested by the fuzzingclient, as configured in the {@code servers} section of the plugin
+ * configuration.
+ */
+public class Server {
+
+    /**
+     * The name under which the results of the server are reported. Must be unique.
+     */
+    private String agent;
+
+    /**
+     * The class which is used to startup the server. The port is passed in as first argument to the main(...) method,
+     * followed by the {@code args}.
+     */
+    private String mainClass;
+
+    /**
+     * Additional arguments which are passed to the main(...) method.
+     */
+    private List<String> args;
+
+    /**
+     * Additional arguments for the JVM of the server, which are used after the global {@code jvmArgs} if the server
+     * is forked.
+     */
+    private List<String> jvmArgs;
+
+    /**
+     * The port on which the server will listen. Default is to use some random free port.
+     */
+    private int port = -1;
+
+    public Server() {
+    }
+
+    Server(String agent, String mainClass, List<String> args, int port) {
+        this.agent = agent;
+        this.mainClass = mainClass;
+        this.args = args;
+        this.port = port;
+    }
+
+    public String getAgent() {
+        return agent;
+    }
+
+    public String getMainClass() {
+        return mainClass;
+    }
+
+    public List<String> getArgs() {
+        return args == null ? Collections.<String>emptyList() : args;
+    }
+
+    public List<String> getJvmArgs() {
+        return jvmArgs == null ? Collections.<String>emptyList() : jvmArgs;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    void setPort(int port) {
+        this.port = port;
+    }
+
+    @Override
+    public String toString() {
+        return agent + "[mainClass: " + mainClass + ", args: " + getArgs() + ", jvmArgs: " + getJvmArgs() +
+                ", port: " + port + "]";
+    }
+}
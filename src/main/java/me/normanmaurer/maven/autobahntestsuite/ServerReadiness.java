@@ -0,0 +1,230 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Detects when the server under test is ready to accept connections.
+ *
+ * A server which is started in-process can also signal its readiness itself by calling {@link #signalReady(int)}
+ * once it is bound, which is the fastest way as no probing is needed at all.
+ */
+public final class ServerReadiness {
+
+    private static final ConcurrentMap<Integer, CountDownLatch> LATCHES =
+            new ConcurrentHashMap<Integer, CountDownLatch>();
+    private static final long MIN_BACKOFF = 1;
+    private static final long MAX_BACKOFF = 100;
+
+    /**
+     * How to find out if the server is ready.
+     */
+    enum Probe {
+        /**
+         * Try to open a TCP connection.
+         */
+        CONNECT,
+        /**
+         * Do a WebSocket handshake.
+         */
+        HANDSHAKE,
+        /**
+         * Wait until the server calls {@link ServerReadiness#signalReady(int)}.
+         */
+        SIGNAL;
+
+        static Probe parse(String value) throws MojoExecutionException {
+            if (value == null || value.length() == 0) {
+                return CONNECT;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                throw new MojoExecutionException("Unknown readiness probe " + value + ", use one of " +
+                        Arrays.toString(values()));
+            }
+        }
+    }
+
+    private ServerReadiness() {
+        // Utility class
+    }
+
+    /**
+     * Signal that the server which was started for the given port is ready to accept connections. This can be called
+     * from the {@code mainClass} when the {@code SIGNAL} probe is used.
+     */
+    public static void signalReady(int port) {
+        CountDownLatch latch = LATCHES.get(port);
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Must be called before the server is started when the {@code SIGNAL} probe is used.
+     */
+    static void register(int port) {
+        LATCHES.put(port, new CountDownLatch(1));
+    }
+
+    static void unregister(int port) {
+        LATCHES.remove(port);
+    }
+
+    /**
+     * Wait until the server is ready. Returns {@code false} if it did not get ready within {@code timeoutMillis} or
+     * if an error was reported while waiting.
+     */
+    static boolean await(Probe probe, String host, int port, long timeoutMillis,
+                         AtomicReference<? extends Throwable> error) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        long backoff = MIN_BACKOFF;
+        for (;;) {
+            if (error.get() != null) {
+                return false;
+            }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            switch (probe) {
+                case SIGNAL:
+                    CountDownLatch latch = LATCHES.get(port);
+                    if (latch == null) {
+                        throw new IllegalStateException("No server registered for port " + port);
+                    }
+                    // wake up from time to time to check for errors
+                    if (latch.await(Math.min(remaining, MAX_BACKOFF), TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                    continue;
+                case HANDSHAKE:
+                    if (handshake(address, remaining)) {
+                        return true;
+                    }
+                    break;
+                default:
+                    if (connect(address, remaining)) {
+                        return true;
+                    }
+                    break;
+            }
+            Thread.sleep(Math.min(backoff, remaining));
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        }
+    }
+
+    private static boolean connect(InetSocketAddress address, long timeoutMillis) {
+        SocketChannel channel = null;
+        Selector selector = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            if (channel.connect(address)) {
+                return true;
+            }
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_CONNECT);
+            if (selector.select(timeoutMillis) == 0) {
+                return false;
+            }
+            return channel.finishConnect();
+        } catch (IOException e) {
+            return false;
+        } finally {
+            close(selector);
+            close(channel);
+        }
+    }
+
+    private static boolean handshake(InetSocketAddress address, long timeoutMillis) {
+        Socket socket = new Socket();
+        try {
+            int timeout = (int) Math.min(Integer.MAX_VALUE, timeoutMillis);
+            socket.connect(address, timeout);
+            socket.setSoTimeout(timeout);
+            String request = "GET / HTTP/1.1\r\n" +
+                    "Host: " + address.getHostName() + ":" + address.getPort() + "\r\n" +
+                    "Upgrade: websocket\r\n" +
+                    "Connection: Upgrade\r\n" +
+                    "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+                    "Sec-WebSocket-Version: 13\r\n\r\n";
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes("US-ASCII"));
+            out.flush();
+
+            // only the status line is of interest
+            InputStream in = socket.getInputStream();
+            StringBuilder status = new StringBuilder();
+            int b;
+            while ((b = in.read()) != -1 && b != '\n') {
+                status.append((char) b);
+            }
+            return status.toString().startsWith("HTTP/1.1 101");
+        } catch (IOException e) {
+            return false;
+        } finally {
+            close(socket);
+        }
+    }
+
+    private static void close(SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void close(Selector selector) {
+        if (selector != null) {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A TCP proxy which forwards the connections of the fuzzingclient to a server and shapes the traffic in both
+ * directions as configured by a {@link NetworkProfile}: writes are delayed by the latency, split into segments and
+ * throttled to the bandwidth. Over loopback a server otherwise gets every frame in a single read, so this is needed
+ * to exercise the reassembly of frames which arrive in pieces.
+ */
+final class ShapingProxy {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final NetworkProfile profile;
+    private final InetSocketAddress target;
+    private final List<Socket> sockets = new ArrayList<Socket>();
+    private ServerSocket serverSocket;
+
+    ShapingProxy(NetworkProfile profile, String targetHost, int targetPort) {
+        this.profile = profile;
+        target = new InetSocketAddress(targetHost, targetPort);
+    }
+
+    /**
+     * Start to accept connections on a free port of the loopback interface.
+     */
+    void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "autobahntestsuite-proxy-" + profile.getName());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * The url the fuzzingclient connects to instead of the one of the server.
+     */
+    String url() {
+        return "ws://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stop to accept connections and close all connections which are still open.
+     */
+    void close() {
+        closeQuietly(serverSocket);
+        synchronized (sockets) {
+            for (Socket socket: sockets) {
+                closeQuietly(socket);
+            }
+            sockets.clear();
+        }
+    }
+
+    private void accept() {
+        for (;;) {
+            Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (IOException e) {
+                // closed
+                return;
+            }
+            Socket server = new Socket();
+            try {
+                server.connect(target);
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+            } catch (IOException e) {
+                // the fuzzingclient reports the case as failed
+                closeQuietly(client);
+                closeQuietly(server);
+                continue;
+            }
+            synchronized (sockets) {
+                sockets.add(client);
+                sockets.add(server);
+            }
+            Connection connection = new Connection(client, server);
+            forward(connection, client, server, "up");
+            forward(connection, server, client, "down");
+        }
+    }
+
+    /**
+     * Forward all bytes read from {@code in} to {@code out}. Without latency a single thread reads and writes,
+     * otherwise the writes are queued for a second thread, so reading is not held up by the delayed writes.
+     */
+    private void forward(final Connection connection, final Socket in, final Socket out, String direction) {
+        String name = "autobahntestsuite-proxy-" + profile.getName() + "-" + direction;
+        if (profile.getLatency() <= 0) {
+            start(name, new Runnable() {
+                @Override
+                public void run() {
+                    Shaper shaper = new Shaper();
+                    try {
+                        InputStream input = in.getInputStream();
+                        OutputStream output = out.getOutputStream();
+                        byte[] buffer = new byte[BUFFER_SIZE];
+                        int read;
+                        while ((read = input.read(buffer)) != -1) {
+                            shaper.write(output, buffer, read);
+                        }
+                        out.shutdownOutput();
+                    } catch (IOException e) {
+                        connection.close();
+                    } catch (InterruptedException e) {
+                        connection.close();
+                    } finally {
+                        connection.directionDone();
+                    }
+                }
+            });
+            return;
+        }
+
+        final BlockingQueue<Chunk> queue = new LinkedBlockingQueue<Chunk>();
+        start(name, new Runnable() {
+            @Override
+            public void run() {
+                long latency = TimeUnit.MILLISECONDS.toNanos(profile.getLatency());
+                try {
+                    InputStream input = in.getInputStream();
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = input.read(buffer)) != -1) {
+                        byte[] data = new byte[read];
+                        System.arraycopy(buffer, 0, data, 0, read);
+                        queue.add(new Chunk(System.nanoTime() + latency, data));
+                    }
+                } catch (IOException e) {
+                    // the writer closes the connection once everything that was read is written
+                } finally {
+                    queue.add(new Chunk(System.nanoTime() + latency, null));
+                }
+            }
+        });
+        start(name + "-delayed", new Runnable() {
+            @Override
+            public void run() {
+                Shaper shaper = new Shaper();
+                try {
+                    OutputStream output = out.getOutputStream();
+                    for (;;) {
+                        Chunk chunk = queue.take();
+                        long wait = chunk.due - System.nanoTime();
+                        if (wait > 0) {
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                        }
+                        if (chunk.data == null) {
+                            out.shutdownOutput();
+                            return;
+                        }
+                        shaper.write(output, chunk.data, chunk.data.length);
+                    }
+                } catch (IOException e) {
+                    connection.close();
+                } catch (InterruptedException e) {
+                    connection.close();
+                } finally {
+                    connection.directionDone();
+                }
+            }
+        });
+    }
+
+    private static void start(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignore) {
+            // ignore
+        }
+    }
+
+    /**
+     * Splits writes into segments and throttles them to the bandwidth of the profile.
+     */
+    private final class Shaper {
+        private long nextWrite = System.nanoTime();
+
+        void write(OutputStream output, byte[] data, int length) throws IOException, InterruptedException {
+            int segment = profile.getSegmentSize() > 0 ? profile.getSegmentSize() : length;
+            for (int offset = 0; offset < length; offset += segment) {
+                int size = Math.min(segment, length - offset);
+                if (profile.getBandwidth() > 0) {
+                    long wait = nextWrite - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    nextWrite = Math.max(nextWrite, System.nanoTime()) +
+                            TimeUnit.SECONDS.toNanos(size) / profile.getBandwidth();
+                }
+                output.write(data, offset, size);
+                output.flush();
+            }
+        }
+    }
+
+    private static final class Chunk {
+        final long due;
+        final byte[] data;
+
+        Chunk(long due, byte[] data) {
+            this.due = due;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Both sockets of a proxied connection, which are closed once both directions are done or one failed.
+     */
+    private final class Connection {
+        private final Socket client;
+        private final Socket server;
+        private int open = 2;
+
+        Connection(Socket client, Socket server) {
+            this.client = client;
+            this.server = server;
+        }
+
+        void directionDone() {
+            synchronized (this) {
+                if (--open > 0) {
+                    return;
+                }
+            }
+            close();
+        }
+
+        void close() {
+            closeQuietly(client);
+            closeQuietly(server);
+            synchronized (sockets) {
+                sockets.remove(client);
+                sockets.remove(server);
+            }
+        }
+    }
+}
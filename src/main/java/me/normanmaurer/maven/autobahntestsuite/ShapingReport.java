@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.json.simple.JSONValue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Compares the durations of the cases under the network profiles with the ones of the direct run, one column per
+ * profile.
+ */
+final class ShapingReport {
+
+    /**
+     * The name of the column of the run without proxy.
+     */
+    static final String DIRECT = "direct";
+
+    private final List<String> profiles = new ArrayList<String>();
+    private final Map<String, Map<String, FuzzingCaseResult>> results =
+            new HashMap<String, Map<String, FuzzingCaseResult>>();
+    private final Set<String> keys = new TreeSet<String>(CaseCatalog.CASE_ID_COMPARATOR);
+
+    /**
+     * Add the results of the given profile as the next column.
+     */
+    void add(String profile, List<FuzzingCaseResult> profileResults) {
+        Map<String, FuzzingCaseResult> byKey = new HashMap<String, FuzzingCaseResult>();
+        for (FuzzingCaseResult result: profileResults) {
+            String key = CaseCatalog.key(result);
+            byKey.put(key, result);
+            keys.add(key);
+        }
+        profiles.add(profile);
+        results.put(profile, byKey);
+    }
+
+    /**
+     * Returns the number of cases which failed under the given profile.
+     */
+    int failures(String profile) {
+        int failed = 0;
+        for (FuzzingCaseResult result: results.get(profile).values()) {
+            if (result.behavior().isFailure(false)) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Returns a human readable table of the duration of every case under every profile. Cases which did not pass
+     * show their behavior instead.
+     */
+    String format() {
+        StringBuilder sb = new StringBuilder("Durations under network profiles:\n");
+        sb.append(String.format("\t%-10s", "case"));
+        for (String profile: profiles) {
+            sb.append(String.format(" %12s", profile));
+        }
+        sb.append(String.format("%n"));
+        for (String key: keys) {
+            sb.append(String.format("\t%-10s", key));
+            for (String profile: profiles) {
+                FuzzingCaseResult result = results.get(profile).get(key);
+                String cell;
+                if (result == null) {
+                    cell = "-";
+                } else if (result.behavior().isFailure(false)) {
+                    cell = result.behavior().name();
+                } else {
+                    cell = result.duration() + "ms";
+                }
+                sb.append(String.format(" %12s", cell));
+            }
+            sb.append(String.format("%n"));
+        }
+        sb.append(String.format("\t%-10s", "total"));
+        for (String profile: profiles) {
+            long total = 0;
+            for (FuzzingCaseResult result: results.get(profile).values()) {
+                total += result.duration();
+            }
+            sb.append(String.format(" %12s", total + "ms"));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the durations and behaviors of all cases per profile as json to the given file.
+     */
+    void write(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("{\n  \"profiles\": " + JSONValue.toJSONString(profiles) + ",\n");
+            writer.write("  \"cases\": {");
+            boolean first = true;
+            for (String key: keys) {
+                writer.write(first ? "\n" : ",\n");
+                writer.write("    \"" + JSONValue.escape(key) + "\": {");
+                boolean firstProfile = true;
+                for (String profile: profiles) {
+                    FuzzingCaseResult result = results.get(profile).get(key);
+                    if (result == null) {
+                        continue;
+                    }
+                    writer.write(firstProfile ? "" : ", ");
+                    writer.write("\"" + JSONValue.escape(profile) + "\": {\"duration\": " + result.duration() +
+                            ", \"behavior\": \"" + result.behavior() + "\"}");
+                    firstProfile = false;
+                }
+                writer.write("}");
+                first = false;
+            }
+            writer.write("\n  }\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+}
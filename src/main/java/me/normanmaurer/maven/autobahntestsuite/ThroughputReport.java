@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reports the compressed and uncompressed bytes and the throughput of cases, which helps to tune the compression of
+ * a server.
+ */
+final class ThroughputReport {
+
+    private ThroughputReport() {
+        // Utility class
+    }
+
+    /**
+     * Returns the results with the traffic of the given cases attached, which is parsed from their reports.
+     */
+    static List<FuzzingCaseResult> attach(List<FuzzingCaseResult> results, Collection<String> cases)
+            throws IOException {
+        List<FuzzingCaseResult> attached = new ArrayList<FuzzingCaseResult>(results.size());
+        for (FuzzingCaseResult result: results) {
+            if (!cases.contains(result.caseName())) {
+                attached.add(result);
+                continue;
+            }
+            CaseTraffic traffic;
+            try {
+                traffic = FuzzingResultParser.parseTraffic(result.reportFile());
+            } catch (ParseException e) {
+                throw new IOException("Unable to parse " + result.reportFile() + ": " + e);
+            }
+            attached.add(traffic == null ? result : result.withTraffic(traffic));
+        }
+        return attached;
+    }
+
+    static String format(List<FuzzingCaseResult> results) {
+        StringBuilder sb = new StringBuilder("Throughput (compressed/uncompressed bytes):");
+        for (FuzzingCaseResult result: results) {
+            CaseTraffic traffic = result.traffic();
+            if (traffic == null) {
+                continue;
+            }
+            sb.append("\n\t[").append(CaseCatalog.key(result)).append("] ").append(traffic).append(", ")
+                    .append(traffic.formatThroughput(result.duration())).append(" MB/s");
+        }
+        return sb.toString();
+    }
+
+    static void write(File file, List<FuzzingCaseResult> results) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("{");
+            boolean first = true;
+            for (FuzzingCaseResult result: results) {
+                if (result.traffic() == null) {
+                    continue;
+                }
+                writer.write(first ? "\n" : ",\n");
+                writer.write("  \"" + JSONValue.escape(CaseCatalog.key(result)) + "\": " +
+                        result.traffic().toJSONString(result.duration()));
+                first = false;
+            }
+            writer.write("\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+}
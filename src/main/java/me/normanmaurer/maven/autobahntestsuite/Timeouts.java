@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how long a single case and the whole run may take. A case which takes too long is aborted and reported as
+ * failed, once the run took too long or was aborted no further cases are started. This is shared by all shards of a
+ * run, so it must be created right before the run starts.
+ */
+public final class Timeouts {
+
+    /**
+     * No limits at all.
+     */
+    public static final Timeouts NONE = new Timeouts(0, 0);
+
+    private final long caseTimeout;
+    private final long runTimeout;
+    private final long deadline;
+    private volatile boolean aborted;
+
+    /**
+     * Create the timeouts in milliseconds, {@code 0} disables a timeout. The run timeout starts now.
+     */
+    public Timeouts(long caseTimeout, long runTimeout) {
+        this.caseTimeout = Math.max(0, caseTimeout);
+        this.runTimeout = Math.max(0, runTimeout);
+        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.runTimeout);
+    }
+
+    /**
+     * The milliseconds a case which starts now may take, which is at most the remaining time of the run. {@code 0}
+     * means there is no limit.
+     */
+    public long caseTimeout() {
+        if (runTimeout == 0) {
+            return caseTimeout;
+        }
+        long remaining = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+        return caseTimeout == 0 ? remaining : Math.min(caseTimeout, remaining);
+    }
+
+    /**
+     * Returns {@code true} if the run took longer than allowed or was aborted, and no further cases should be started.
+     */
+    public boolean expired() {
+        return aborted || runTimeout != 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * Stop the run, the cases which are running are finished but no further cases are started.
+     */
+    void abort() {
+        aborted = true;
+    }
+
+    boolean aborted() {
+        return aborted;
+    }
+
+    long runTimeout() {
+        return runTimeout;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+/**
+ * Incremental UTF-8 validator, a port of {@code autobahn/utf8validator.py} which implements the
+ * <a href="http://bjoern.hoehrmann.de/utf-8/decoder/dfa/">"Flexible and Economical UTF-8 Decoder"</a> of
+ * Bjoern Hoehrmann, so the native engine accepts and rejects exactly the same payloads as wstest.
+ */
+final class Utf8Validator {
+
+    private static final int UTF8_ACCEPT = 0;
+    private static final int UTF8_REJECT = 1;
+
+    private static final byte[] DFA = {
+        0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0, // 00..1f
+        0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0, // 20..3f
+        0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0, // 40..5f
+        0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0, // 60..7f
+        1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,9,9,9,9,9,9,9,9,9,9,9,9,9,9,9,9, // 80..9f
+        7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7,7, // a0..bf
+        8,8,2,2,2,2,2,2,2,2,2,2,2,2,2,2,2,2,2,2,2,2,2,2,2,2,2,2,2,2,2,2, // c0..df
+        0xa,0x3,0x3,0x3,0x3,0x3,0x3,0x3,0x3,0x3,0x3,0x3,0x3,0x4,0x3,0x3, // e0..ef
+        0xb,0x6,0x6,0x6,0x5,0x8,0x8,0x8,0x8,0x8,0x8,0x8,0x8,0x8,0x8,0x8, // f0..ff
+        0x0,0x1,0x2,0x3,0x5,0x8,0x7,0x1,0x1,0x1,0x4,0x6,0x1,0x1,0x1,0x1, // s0..s0
+        1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,0,1,1,1,1,1,0,1,0,1,1,1,1,1,1, // s1..s2
+        1,2,1,1,1,1,1,2,1,2,1,1,1,1,1,1,1,1,1,1,1,1,1,2,1,1,1,1,1,1,1,1, // s3..s4
+        1,2,1,1,1,1,1,1,1,2,1,1,1,1,1,1,1,1,1,1,1,1,1,3,1,3,1,1,1,1,1,1, // s5..s6
+        1,3,1,1,1,1,1,3,1,3,1,1,1,1,1,1,1,3,1,1,1,1,1,1,1,1,1,1,1,1,1,1, // s7..s8
+    };
+
+    private int state;
+    private long index;
+
+    void reset() {
+        state = UTF8_ACCEPT;
+        index = 0;
+    }
+
+    /**
+     * Validate the next chunk of a sequence. Returns {@code false} as soon as an octet makes the sequence invalid,
+     * {@link #index()} is the position of this octet within the whole sequence then.
+     */
+    boolean validate(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            state = DFA[256 + (state << 4) + DFA[bytes[i] & 0xff]];
+            if (state == UTF8_REJECT) {
+                index += i - offset;
+                return false;
+            }
+        }
+        index += length;
+        return true;
+    }
+
+    /**
+     * Returns {@code true} if the octets validated so far do not end within a code point.
+     */
+    boolean endsOnCodePoint() {
+        return state == UTF8_ACCEPT;
+    }
+
+    long index() {
+        return index;
+    }
+
+    /**
+     * Returns {@code true} if the given octets are complete and valid UTF-8.
+     */
+    static boolean isValid(byte[] bytes) {
+        Utf8Validator validator = new Utf8Validator();
+        return validator.validate(bytes, 0, bytes.length) && validator.endsOnCodePoint();
+    }
+}
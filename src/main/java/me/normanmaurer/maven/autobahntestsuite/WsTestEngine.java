@@ -0,0 +1,277 @@
+/*
+ * Copyright 2013 Norman Maurer.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package me.normanmaurer.maven.autobahntestsuite;
+
+import org.apache.maven.plugin.logging.Log;
+import org.python.core.PyArray;
+import org.python.core.PyBoolean;
+import org.python.core.PyDictionary;
+import org.python.core.PyString;
+import org.python.util.PythonInterpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the fuzzingclient of the bundled {@code wstest} in a Jython interpreter.
+ */
+final class WsTestEngine implements FuzzingEngine {
+
+    /**
+     * Wraps the methods of the fuzzingclient which are called when a case is started and when its result is recorded,
+     * so a {@link CaseListener} is notified.
+     */
+    private static final String LISTENER_HOOK =
+            "from autobahntestsuite import fuzzing\n" +
+            "def hookListener(listener):\n" +
+            "    connectionMade = fuzzing.FuzzingClientProtocol.connectionMade\n" +
+            "    logCase = fuzzing.FuzzingFactory.logCase\n" +
+            "    def hookedConnectionMade(self):\n" +
+            "        listener.caseStarted(self.caseAgent, self.factory.CaseSet.caseClasstoId(self.Case))\n" +
+            "        connectionMade(self)\n" +
+            "    def hookedLogCase(self, caseResults):\n" +
+            "        logCase(self, caseResults)\n" +
+            "        listener.caseFinished(caseResults['agent'], caseResults['id'], caseResults['behavior'])\n" +
+            "    fuzzing.FuzzingClientProtocol.connectionMade = hookedConnectionMade\n" +
+            "    fuzzing.FuzzingFactory.logCase = hookedLogCase\n" +
+            "hookListener(listener)\n";
+
+    /**
+     * Only the compression cases record the {@code trafficStats} of the connection in their report, so they are
+     * recorded for all others too. This is shared with the {@link FuzzingServer}.
+     */
+    static final String TRAFFIC_HOOK =
+            "from autobahntestsuite import fuzzing\n" +
+            "def hookTrafficStats():\n" +
+            "    connectionLost = fuzzing.FuzzingProtocol.connectionLost\n" +
+            "    def hookedConnectionLost(self, reason):\n" +
+            "        if self.runCase and self.runCase.trafficStats is None:\n" +
+            "            self.runCase.trafficStats = getattr(self, 'trafficStats', None)\n" +
+            "        connectionLost(self, reason)\n" +
+            "    fuzzing.FuzzingProtocol.connectionLost = hookedConnectionLost\n" +
+            "hookTrafficStats()\n";
+
+    /**
+     * {@code CaseSet.resolveCasePatternList} prints every pattern it resolves, which are all case ids as the patterns
+     * are resolved up front, so its output is discarded. This is shared with the {@link FuzzingServer}.
+     */
+    static final String QUIET_CASES_HOOK =
+            "import sys\n" +
+            "from autobahntestsuite import caseset\n" +
+            "def hookQuietCases():\n" +
+            "    resolveCasePatternList = caseset.CaseSet.resolveCasePatternList\n" +
+            "    class Discard(object):\n" +
+            "        def write(self, data):\n" +
+            "            pass\n" +
+            "    def hookedResolveCasePatternList(self, patterns):\n" +
+            "        stdout = sys.stdout\n" +
+            "        sys.stdout = Discard()\n" +
+            "        try:\n" +
+            "            return resolveCasePatternList(self, patterns)\n" +
+            "        finally:\n" +
+            "            sys.stdout = stdout\n" +
+            "    caseset.CaseSet.resolveCasePatternList = hookedResolveCasePatternList\n" +
+            "hookQuietCases()\n";
+
+    /**
+     * Drops the connection of a case which exceeds its timeout and reports it as failed, and stops the fuzzingclient
+     * instead of starting the next case once the run timeout expired. The reports of the cases which ran are written
+     * either way.
+     */
+    private static final String TIMEOUTS_HOOK =
+            "from autobahntestsuite import fuzzing\n" +
+            "def hookTimeouts(timeouts):\n" +
+            "    connectionMade = fuzzing.FuzzingClientProtocol.connectionMade\n" +
+            "    connectionLost = fuzzing.FuzzingClientProtocol.connectionLost\n" +
+            "    def timedOut(self, timeout):\n" +
+            "        self.caseTimedOut = timeout\n" +
+            "        self.dropConnection(abort = True)\n" +
+            "    def hookedConnectionMade(self):\n" +
+            "        connectionMade(self)\n" +
+            "        timeout = timeouts.caseTimeout()\n" +
+            "        if timeout > 0:\n" +
+            "            self.caseTimeoutCall = reactor.callLater(timeout / 1000.0, timedOut, self, timeout)\n" +
+            "    def hookedConnectionLost(self, reason):\n" +
+            "        call = getattr(self, 'caseTimeoutCall', None)\n" +
+            "        if call is not None and call.active():\n" +
+            "            call.cancel()\n" +
+            "        timeout = getattr(self, 'caseTimedOut', None)\n" +
+            "        if timeout is not None and self.runCase:\n" +
+            "            onConnectionLost = self.runCase.onConnectionLost\n" +
+            "            def timedOutConnectionLost(failedByMe):\n" +
+            "                onConnectionLost(failedByMe)\n" +
+            "                self.runCase.behavior = 'FAILED'\n" +
+            "                self.runCase.result = 'The case did not finish within %d ms' % timeout\n" +
+            "            self.runCase.onConnectionLost = timedOutConnectionLost\n" +
+            "        connectionLost(self, reason)\n" +
+            "    def stopIfExpired(next):\n" +
+            "        def hooked(self, connector, reason):\n" +
+            "            if timeouts.expired():\n" +
+            "                self.createReports()\n" +
+            "                reactor.stop()\n" +
+            "            else:\n" +
+            "                next(self, connector, reason)\n" +
+            "        return hooked\n" +
+            "    fuzzing.FuzzingClientProtocol.connectionMade = hookedConnectionMade\n" +
+            "    fuzzing.FuzzingClientProtocol.connectionLost = hookedConnectionLost\n" +
+            "    fuzzing.FuzzingClientFactory.clientConnectionLost = " +
+            "stopIfExpired(fuzzing.FuzzingClientFactory.clientConnectionLost)\n" +
+            "    fuzzing.FuzzingClientFactory.clientConnectionFailed = " +
+            "stopIfExpired(fuzzing.FuzzingClientFactory.clientConnectionFailed)\n" +
+            "hookTimeouts(timeouts)\n";
+
+    /**
+     * Only writes the reports the {@link ReportFilter} keeps. The index still lists every case, so the results can be
+     * parsed as usual.
+     */
+    private static final String REPORTS_HOOK =
+            "import os\n" +
+            "from autobahntestsuite import fuzzing\n" +
+            "def hookReports(reports):\n" +
+            "    def createReports(self, produceHtml = True, produceJson = True):\n" +
+            "        produceHtml = produceHtml and reports.html()\n" +
+            "        if not os.path.exists(self.outdir):\n" +
+            "            os.makedirs(self.outdir)\n" +
+            "        if produceHtml:\n" +
+            "            self.createMasterReportHTML(self.outdir)\n" +
+            "        if produceJson:\n" +
+            "            self.createMasterReportJSON(self.outdir)\n" +
+            "        for agentId in self.agents:\n" +
+            "            for caseId in self.agents[agentId]:\n" +
+            "                case = self.agents[agentId][caseId]\n" +
+            "                if not reports.keep(caseId, case['behavior'], case['behaviorClose']):\n" +
+            "                    continue\n" +
+            "                if produceHtml:\n" +
+            "                    self.createAgentCaseReportHTML(agentId, caseId, self.outdir)\n" +
+            "                if produceJson:\n" +
+            "                    self.createAgentCaseReportJSON(agentId, caseId, self.outdir)\n" +
+            "    fuzzing.FuzzingFactory.createReports = createReports\n" +
+            "hookReports(reports)\n";
+
+    private final ReportFilter reports;
+
+    WsTestEngine() {
+        this(ReportFilter.ALL);
+    }
+
+    WsTestEngine(ReportFilter reports) {
+        this.reports = reports;
+    }
+
+    @Override
+    public void warmUp(int count) {
+        InterpreterPool.get().warmUp(count);
+    }
+
+    @Override
+    public List<FuzzingCaseResult> run(Log log, String outdir, Map<String, String> servers, Map options,
+                                       List<String> cases, List<String> excludeCases, Timeouts timeouts,
+                                       CaseListener listener) {
+        if (timeouts.expired()) {
+            return new ArrayList<FuzzingCaseResult>();
+        }
+        PythonInterpreter interp = InterpreterPool.get().acquire(log);
+        try {
+            PyDictionary opts = new PyDictionary();
+            opts.__setitem__(new PyString("mode"), new PyString("fuzzingclient"));
+            interp.set("opts", opts);
+
+            PyDictionary spec = createFuzzingClientSpec(outdir, servers, options, cases, excludeCases);
+            interp.set("spec", spec);
+            interp.exec(QUIET_CASES_HOOK);
+            interp.exec(TRAFFIC_HOOK);
+            interp.set("timeouts", timeouts);
+            interp.exec(TIMEOUTS_HOOK);
+            if (reports != ReportFilter.ALL) {
+                interp.set("reports", reports);
+                interp.exec(REPORTS_HOOK);
+            }
+            if (listener != null) {
+                interp.set("listener", listener);
+                interp.exec(LISTENER_HOOK);
+            }
+            // Same as wstest.start(opts, spec) but without signal handlers as we may not run on the main thread.
+            interp.exec("res = wstest.WsTestRunner(opts, spec).startService()");
+            interp.exec("if res: reactor.run(installSignalHandlers = 0)");
+        } finally {
+            interp.cleanup();
+        }
+
+        List<FuzzingCaseResult> results = new ArrayList<FuzzingCaseResult>();
+        for (String agent: servers.keySet()) {
+            List<FuzzingCaseResult> agentResults;
+            try {
+                agentResults = FuzzingResultParser.parseIndex(outdir, agent);
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not parse results", e);
+            }
+            if (agentResults == null) {
+                if (timeouts.expired()) {
+                    // the run was stopped before any case of the agent ran
+                    continue;
+                }
+                throw new IllegalStateException("No results for " + agent);
+            }
+            results.addAll(agentResults);
+        }
+        CaseCatalog.sort(results);
+        return results;
+    }
+
+    private static PyDictionary createFuzzingClientSpec(String outdir, Map<String, String> servers, Map options,
+                                           List<String> cases, List<String> excludeCases) {
+        PyDictionary dict = new PyDictionary();
+
+        dict.__setitem__(new PyString("failByDrop"), new PyBoolean(false));
+        dict.__setitem__(new PyString("outdir"), new PyString(outdir));
+
+        List<PyDictionary> serverList = new ArrayList<PyDictionary>();
+        for (Map.Entry<String, String> entry: servers.entrySet()) {
+            PyDictionary server = new PyDictionary();
+            server.__setitem__(new PyString("agent"), new PyString(entry.getKey()));
+            server.__setitem__(new PyString("url"), new PyString(entry.getValue()));
+            serverList.add(server);
+        }
+        dict.__setitem__(new PyString("servers"), new PyArray(PyDictionary.class,
+                serverList.toArray(new PyDictionary[serverList.size()])));
+
+        putCases(dict, options, cases, excludeCases);
+        return dict;
+    }
+
+    /**
+     * Create the spec of a fuzzingserver which listens on the given url.
+     */
+    static PyDictionary createFuzzingServerSpec(String outdir, String url, Map options, List<String> cases,
+                                                List<String> excludeCases) {
+        PyDictionary dict = new PyDictionary();
+        dict.__setitem__(new PyString("url"), new PyString(url));
+        dict.__setitem__(new PyString("outdir"), new PyString(outdir));
+        putCases(dict, options, cases, excludeCases);
+        return dict;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void putCases(PyDictionary dict, Map options, List<String> cases, List<String> excludeCases) {
+        PyDictionary opts = new PyDictionary();
+        opts.putAll(options);
+        dict.__setitem__(new PyString("options"), opts);
+
+        dict.__setitem__(new PyString("cases"), new PyArray(String.class, cases.toArray(new String[cases.size()])));
+        dict.__setitem__(new PyString("exclude-cases"), new PyArray(PyString.class, excludeCases.toArray(new String[excludeCases.size()])));
+    }
+}